@@ -49,4 +49,7 @@ dependencies {
     compileOnly(projects.editor)
     implementation(libs.lsp4j)
     implementation(libs.kotlinx.coroutines)
+
+    testImplementation(projects.editor)
+    testImplementation(libs.junit)
 }
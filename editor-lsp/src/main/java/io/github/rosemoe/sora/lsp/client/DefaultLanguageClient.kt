@@ -86,7 +86,8 @@ open class DefaultLanguageClient(protected val context: ClientContext) :
         val diagnosticsContainer = context.project.diagnosticsContainer
         val uri = URI(publishDiagnosticsParams.uri).toFileUri()
 
-        diagnosticsContainer.addDiagnostics(
+        // Published diagnostics replace all previous ones of the document
+        diagnosticsContainer.setDiagnostics(
             uri,
             publishDiagnosticsParams.diagnostics
         )
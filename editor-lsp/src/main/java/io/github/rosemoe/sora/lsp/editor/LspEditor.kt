@@ -35,7 +35,9 @@ import io.github.rosemoe.sora.lsp.editor.event.LspEditorContentChangeEventReceiv
 import io.github.rosemoe.sora.lsp.editor.event.LspEditorSelectionChangeEventReceiver
 import io.github.rosemoe.sora.lsp.editor.signature.SignatureHelpWindow
 import io.github.rosemoe.sora.lsp.events.EventType
+import io.github.rosemoe.sora.lsp.events.diagnostics.DocumentDiagnosticsScheduler
 import io.github.rosemoe.sora.lsp.events.diagnostics.publishDiagnostics
+import io.github.rosemoe.sora.lsp.events.document.DocumentChangeBatcher
 import io.github.rosemoe.sora.lsp.events.document.documentClose
 import io.github.rosemoe.sora.lsp.events.document.documentOpen
 import io.github.rosemoe.sora.lsp.events.document.documentSave
@@ -92,6 +94,16 @@ class LspEditor(
 
     val coroutineScope = project.coroutineScope
 
+    /**
+     * Batches content changes into `textDocument/didChange` notifications
+     */
+    val documentChangeBatcher = DocumentChangeBatcher(this)
+
+    /**
+     * Schedules `textDocument/diagnostic` requests for this document
+     */
+    val diagnosticsScheduler = DocumentDiagnosticsScheduler(this)
+
     var editor: CodeEditor?
         set(currentEditor) {
             if (currentEditor == null) {
@@ -264,6 +276,7 @@ class LspEditor(
      * Notify the language server to open the document
      */
     suspend fun openDocument() {
+        diagnosticsScheduler.reset()
         eventManager.emitAsync(EventType.documentOpen)
     }
 
@@ -277,6 +290,7 @@ class LspEditor(
      * Notify language servers the document is saved
      */
     suspend fun saveDocument() {
+        documentChangeBatcher.flush()
         eventManager.emitAsync(EventType.documentSave)
     }
 
@@ -291,7 +305,9 @@ class LspEditor(
     }
 
     private fun publishDiagnostics(diagnostics: List<Diagnostic>) {
-        eventManager.emit(EventType.publishDiagnostics, diagnostics)
+        eventManager.emit(EventType.publishDiagnostics) {
+            put("data", diagnostics)
+        }
     }
 
     fun showSignatureHelp(signatureHelp: SignatureHelp?) {
@@ -329,6 +345,7 @@ class LspEditor(
             return
             // throw IllegalStateException("Editor is already closed")
         }
+        diagnosticsScheduler.cancel()
         disconnect()
         unsubscribeFunction?.run()
         _currentEditor.clear()
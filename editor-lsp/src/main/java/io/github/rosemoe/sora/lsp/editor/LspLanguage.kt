@@ -41,7 +41,6 @@ import io.github.rosemoe.sora.lsp.editor.completion.LspCompletionItem
 import io.github.rosemoe.sora.lsp.editor.format.LspFormatter
 import io.github.rosemoe.sora.lsp.events.EventType
 import io.github.rosemoe.sora.lsp.events.completion.completion
-import io.github.rosemoe.sora.lsp.events.document.DocumentChangeEvent
 import io.github.rosemoe.sora.lsp.requests.Timeout
 import io.github.rosemoe.sora.lsp.requests.Timeouts
 
@@ -99,24 +98,21 @@ class LspLanguage(var editor: LspEditor) : Language {
 
         val prefixLength = prefix.length
 
-        val documentChangeEvent =
-            editor.eventManager.getEventListener<DocumentChangeEvent>() ?: return
-
-        val documentChangeFuture =
-            documentChangeEvent.future
-
-        if (documentChangeFuture?.isDone == false || documentChangeFuture?.isCompletedExceptionally == false || documentChangeFuture?.isCancelled == false) {
-            runCatching {
-                documentChangeFuture[Timeout[Timeouts.WILLSAVE].toLong(), TimeUnit.MILLISECONDS]
-            }
-
+        // Make sure the server has received pending changes before querying completions
+        runCatching {
+            editor.coroutineScope.future {
+                editor.documentChangeBatcher.flush()
+            }[Timeout[Timeouts.WILLSAVE].toLong(), TimeUnit.MILLISECONDS]
         }
 
         val completionList = ArrayList<CompletionItem>()
 
+        var isIncomplete = true
+
         val serverResultCompletionItems =
             editor.coroutineScope.future {
                 val context = editor.eventManager.emitAsync(EventType.completion,position)
+                isIncomplete = context.getOrNull<Boolean>("completion-incomplete") ?: true
                 context.get<List<org.eclipse.lsp4j.CompletionItem>>("completion-items")
             }
 
@@ -135,6 +131,8 @@ class LspLanguage(var editor: LspEditor) : Language {
             throw CompletionCancelledException(throwable.message)
         }[Timeout[Timeouts.COMPLETION].toLong(), TimeUnit.MILLISECONDS]
 
+        // Let the editor refine a complete list by itself while the user types
+        publisher.setComplete(!isIncomplete)
         publisher.setComparator(getCompletionItemComparator(content, position, completionList))
         publisher.addItems(completionList)
         publisher.updateList()
@@ -39,6 +39,7 @@ import io.github.rosemoe.sora.text.Content
 import io.github.rosemoe.sora.widget.CodeEditor
 import org.eclipse.lsp4j.CompletionItem
 import org.eclipse.lsp4j.InsertTextFormat
+import org.eclipse.lsp4j.Position
 import org.eclipse.lsp4j.TextEdit
 
 
@@ -51,6 +52,12 @@ class LspCompletionItem(
     completionItem.detail
 ) {
 
+    /**
+     * Prefix length when completion is requested. [prefixLength] grows if the editor refines the
+     * items while the user types.
+     */
+    private val requestPrefixLength = prefixLength
+
     init {
         this.prefixLength = prefixLength
         kind =
@@ -66,52 +73,8 @@ class LspCompletionItem(
     }
 
     override fun performCompletion(editor: CodeEditor, text: Content, position: CharPosition) {
-        var textEdit = TextEdit()
-
-        textEdit.range = createRange(
-            createPosition(
-                position.line,
-                position.column - prefixLength
-            ), position.asLspPosition()
-        )
-
-        if (completionItem.insertText != null) {
-            textEdit.newText = completionItem.insertText
-        }
-
-        if (completionItem.textEdit != null && completionItem.textEdit.isLeft) {
-            //TODO: support InsertReplaceEdit
-            textEdit = completionItem.textEdit.left
-        }
-
-        if (textEdit.newText == null && completionItem.label != null) {
-            textEdit.newText = completionItem.label
-        }
-
-        run {
-            // workaround https://github.com/Microsoft/vscode/issues/17036
-            val start = textEdit.range.start
-            val end = textEdit.range.end
-            if (start.line > end.line || start.line == end.line && start.character > end.character) {
-                textEdit.range.end = start
-                textEdit.range.start = end
-            }
-        }
-
-        run {
-            // allow completion items to be wrong with a too wide range
-            val documentEnd = createPosition(
-                text.lineCount - 1,
-                text.getColumnCount(0.coerceAtLeast(position.line - 1))
-            )
-            val textEditEnd = textEdit.range.end
-            if (documentEnd.line < textEditEnd.line || documentEnd.line == textEditEnd.line && documentEnd.character < textEditEnd.character
-            ) {
-                textEdit.range.end = documentEnd
-            }
-        }
-
-        val finalTextEdit = textEdit
+        val textEdit =
+            completionItem.createTextEdit(text, position, prefixLength, prefixLength - requestPrefixLength)
 
         if (completionItem.insertTextFormat == InsertTextFormat.Snippet) {
             val codeSnippet = CodeSnippetParser.parse(textEdit.newText)
@@ -126,7 +89,7 @@ class LspCompletionItem(
 
         } else {
             eventManager.emit(EventType.applyEdits) {
-                put("edits", listOf(finalTextEdit))
+                put("edits", listOf(textEdit))
                 put(text)
             }
         }
@@ -145,4 +108,83 @@ class LspCompletionItem(
     }
 }
 
+/**
+ * Create the edit to apply for the completion item at [position].
+ *
+ * [typedLength] is the count of characters typed before [position] since completion is requested,
+ * when the editor refines the items instead of requesting completion again. Positions in the
+ * text edit of the server are relative to the text at request time, so they are moved by the typed
+ * characters, like VSCode does. Otherwise, the typed characters would be left after the completion.
+ */
+internal fun CompletionItem.createTextEdit(
+    text: Content,
+    position: CharPosition,
+    prefixLength: Int,
+    typedLength: Int
+): TextEdit {
+    var textEdit = TextEdit()
+
+    textEdit.range = createRange(
+        createPosition(
+            position.line,
+            position.column - prefixLength
+        ), position.asLspPosition()
+    )
+
+    if (insertText != null) {
+        textEdit.newText = insertText
+    }
+
+    if (this.textEdit != null && this.textEdit.isLeft) {
+        //TODO: support InsertReplaceEdit
+        val serverEdit = this.textEdit.left
+        textEdit = TextEdit(
+            createRange(
+                serverEdit.range.start.shiftTyped(position, typedLength, false),
+                serverEdit.range.end.shiftTyped(position, typedLength, true)
+            ), serverEdit.newText
+        )
+    }
+
+    if (textEdit.newText == null && label != null) {
+        textEdit.newText = label
+    }
+
+    run {
+        // workaround https://github.com/Microsoft/vscode/issues/17036
+        val start = textEdit.range.start
+        val end = textEdit.range.end
+        if (start.line > end.line || start.line == end.line && start.character > end.character) {
+            textEdit.range.end = start
+            textEdit.range.start = end
+        }
+    }
 
+    run {
+        // allow completion items to be wrong with a too wide range
+        val documentEnd = createPosition(
+            text.lineCount - 1,
+            text.getColumnCount(0.coerceAtLeast(position.line - 1))
+        )
+        val textEditEnd = textEdit.range.end
+        if (documentEnd.line < textEditEnd.line || documentEnd.line == textEditEnd.line && documentEnd.character < textEditEnd.character
+        ) {
+            textEdit.range.end = documentEnd
+        }
+    }
+
+    return textEdit
+}
+
+/**
+ * Move the position by characters typed at request position, if it is after the request position.
+ * An end at request position is moved as well, so that the typed characters are replaced.
+ */
+private fun Position.shiftTyped(position: CharPosition, typedLength: Int, isEnd: Boolean): Position {
+    val requestColumn = position.column - typedLength
+    return if (typedLength > 0 && line == position.line && (character > requestColumn || isEnd && character == requestColumn)) {
+        createPosition(line, character + typedLength)
+    } else {
+        createPosition(line, character)
+    }
+}
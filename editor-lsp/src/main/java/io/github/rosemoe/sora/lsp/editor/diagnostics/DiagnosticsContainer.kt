@@ -25,58 +25,54 @@ package io.github.rosemoe.sora.lsp.editor.diagnostics
 
 import io.github.rosemoe.sora.lsp.utils.FileUri
 import org.eclipse.lsp4j.Diagnostic
+import java.util.concurrent.ConcurrentHashMap
 
+/**
+ * Thread-safe store of diagnostics, keyed by document uri.
+ *
+ * Diagnostics of each document are kept in an immutable [DocumentDiagnostics], which is replaced as a
+ * whole on update. Readers always see a complete set of diagnostics.
+ */
 class DiagnosticsContainer {
 
-    private val diagnosticsMap by lazy(
-        LazyThreadSafetyMode.NONE
-    ) {
-        HashMap<FileUri, MutableList<Diagnostic>>()
-    }
+    private val diagnosticsMap = ConcurrentHashMap<FileUri, DocumentDiagnostics>()
 
-    fun setDiagnostics(uri: FileUri, diagnostics: MutableList<Diagnostic>) {
-        diagnosticsMap[uri] = diagnostics
+    /**
+     * Replace all diagnostics of the given document
+     */
+    fun setDiagnostics(uri: FileUri, diagnostics: List<Diagnostic>) {
+        diagnosticsMap[uri] = DocumentDiagnostics(diagnostics)
     }
 
+    /**
+     * Add diagnostics to the given document. Existing diagnostics starting at the same position as
+     * any new diagnostic are replaced.
+     */
     fun addDiagnostics(uri: FileUri, diagnostics: List<Diagnostic>) {
-        diagnostics.forEach {
-            findOrReplaceDiagnostic(uri, it)
-        }
-    }
-
-    private fun findDiagnostic(uri: FileUri, line: Int, column: Int): Diagnostic? {
-        return diagnosticsMap[uri]?.find {
-            it.range.start.line == line &&
-                    it.range.start.character == column &&
-                    it.range.end.line == line &&
-                    it.range.end.character == column
+        diagnosticsMap.compute(uri) { _, old ->
+            old?.plus(diagnostics) ?: DocumentDiagnostics(diagnostics)
         }
     }
 
-    private fun findOrReplaceDiagnostic(uri: FileUri, newDiagnostic: Diagnostic) {
-        val diagnostics = diagnosticsMap[uri] ?: mutableListOf()
-        findDiagnostic(
-            uri,
-            newDiagnostic.range.start.line,
-            newDiagnostic.range.start.character
-        )?.let { removeDiagnostic(uri, it) }
-        diagnostics.add(newDiagnostic)
-        diagnosticsMap[uri] = diagnostics
-    }
-
     fun removeDiagnostic(uri: FileUri, diagnostic: Diagnostic) {
-        diagnosticsMap[uri]?.remove(diagnostic)
+        diagnosticsMap.computeIfPresent(uri) { _, old ->
+            old.minus(diagnostic)
+        }
     }
 
     fun addDiagnostic(uri: FileUri, diagnostic: Diagnostic) {
-        val diagnostics = diagnosticsMap[uri] ?: mutableListOf()
-        findOrReplaceDiagnostic(uri, diagnostic)
-        diagnosticsMap[uri] = diagnostics
+        addDiagnostics(uri, listOf(diagnostic))
     }
 
-
     fun getDiagnostics(uri: FileUri): List<Diagnostic> {
-        return diagnosticsMap.getOrPut(uri) { mutableListOf() }
+        return getDocumentDiagnostics(uri).all
+    }
+
+    /**
+     * Get indexed diagnostics of the given document
+     */
+    fun getDocumentDiagnostics(uri: FileUri): DocumentDiagnostics {
+        return diagnosticsMap[uri] ?: DocumentDiagnostics.EMPTY
     }
 
     fun clear() {
@@ -84,4 +80,4 @@ class DiagnosticsContainer {
     }
 
 
-}
\ No newline at end of file
+}
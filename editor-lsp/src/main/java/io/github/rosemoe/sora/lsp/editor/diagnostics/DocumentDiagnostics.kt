@@ -0,0 +1,143 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+package io.github.rosemoe.sora.lsp.editor.diagnostics
+
+import org.eclipse.lsp4j.Diagnostic
+
+/**
+ * Immutable diagnostics of a single document, indexed by start line and start position.
+ *
+ * Lookups by line or by position cost O(1) plus the count of returned diagnostics. Diagnostics
+ * spanning multiple lines are additionally kept in a separate list, so that they can be found from
+ * any line they cover.
+ */
+class DocumentDiagnostics(diagnostics: List<Diagnostic>) {
+
+    /**
+     * All diagnostics, in the order they are given
+     */
+    val all: List<Diagnostic> = ArrayList(diagnostics)
+
+    private val byLine = HashMap<Int, MutableList<Diagnostic>>()
+
+    private val byStart = HashMap<Long, MutableList<Diagnostic>>()
+
+    private val multiLine = ArrayList<Diagnostic>()
+
+    init {
+        for (diagnostic in all) {
+            val start = diagnostic.range.start
+            byLine.getOrPut(start.line) { ArrayList(2) }.add(diagnostic)
+            byStart.getOrPut(packPosition(start.line, start.character)) { ArrayList(1) }.add(diagnostic)
+            if (diagnostic.range.end.line > start.line) {
+                multiLine.add(diagnostic)
+            }
+        }
+    }
+
+    val size: Int
+        get() = all.size
+
+    fun isEmpty() = all.isEmpty()
+
+    /**
+     * Get diagnostics starting at the given position
+     */
+    fun getDiagnosticsAt(line: Int, column: Int): List<Diagnostic> {
+        return byStart[packPosition(line, column)] ?: emptyList()
+    }
+
+    /**
+     * Get diagnostics starting on the given line
+     */
+    fun getDiagnosticsStartingOn(line: Int): List<Diagnostic> {
+        return byLine[line] ?: emptyList()
+    }
+
+    /**
+     * Get diagnostics covering any line in [startLine, endLine]
+     */
+    fun getDiagnosticsInLines(startLine: Int, endLine: Int): List<Diagnostic> {
+        val result = ArrayList<Diagnostic>()
+        if (endLine - startLine < byLine.size) {
+            for (line in startLine..endLine) {
+                byLine[line]?.let { result.addAll(it) }
+            }
+        } else {
+            for (diagnostic in all) {
+                if (diagnostic.range.start.line in startLine..endLine) {
+                    result.add(diagnostic)
+                }
+            }
+        }
+        for (diagnostic in multiLine) {
+            // Starts before the range, but ends inside or after it
+            if (diagnostic.range.start.line < startLine && diagnostic.range.end.line >= startLine) {
+                result.add(diagnostic)
+            }
+        }
+        return result
+    }
+
+    /**
+     * Create a new object with the given diagnostics added. Existing diagnostics starting at the
+     * same position as any new diagnostic are replaced.
+     */
+    fun plus(diagnostics: List<Diagnostic>): DocumentDiagnostics {
+        val replacedStarts = HashSet<Long>(diagnostics.size * 2)
+        for (diagnostic in diagnostics) {
+            replacedStarts.add(packPosition(diagnostic.range.start.line, diagnostic.range.start.character))
+        }
+        val result = ArrayList<Diagnostic>(all.size + diagnostics.size)
+        for (diagnostic in all) {
+            val start = diagnostic.range.start
+            if (!replacedStarts.contains(packPosition(start.line, start.character))) {
+                result.add(diagnostic)
+            }
+        }
+        result.addAll(diagnostics)
+        return DocumentDiagnostics(result)
+    }
+
+    /**
+     * Create a new object with the given diagnostic removed
+     */
+    fun minus(diagnostic: Diagnostic): DocumentDiagnostics {
+        val result = ArrayList(all)
+        result.remove(diagnostic)
+        return DocumentDiagnostics(result)
+    }
+
+    companion object {
+
+        @JvmField
+        val EMPTY = DocumentDiagnostics(emptyList())
+
+        private fun packPosition(line: Int, column: Int): Long {
+            return (line.toLong() shl 32) or (column.toLong() and 0xffffffffL)
+        }
+
+    }
+
+}
@@ -31,50 +31,38 @@ import io.github.rosemoe.sora.event.SelectionChangeEvent
 import io.github.rosemoe.sora.event.Unsubscribe
 import io.github.rosemoe.sora.lsp.editor.LspEditor
 import io.github.rosemoe.sora.lsp.events.EventType
-import io.github.rosemoe.sora.lsp.events.diagnostics.publishDiagnostics
-import io.github.rosemoe.sora.lsp.events.diagnostics.queryDocumentDiagnostics
-import io.github.rosemoe.sora.lsp.events.document.documentChange
 import io.github.rosemoe.sora.lsp.events.signature.signatureHelp
+import io.github.rosemoe.sora.text.Content
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.launch
-import org.eclipse.lsp4j.DocumentDiagnosticReport
-import org.eclipse.lsp4j.FullDocumentDiagnosticReport
-import org.eclipse.lsp4j.UnchangedDocumentDiagnosticReport
-import org.eclipse.lsp4j.jsonrpc.messages.Either
 
 
 class LspEditorContentChangeEventReceiver(private val editor: LspEditor) :
     EventReceiver<ContentChangeEvent> {
-    override fun onReceive(event: ContentChangeEvent, unsubscribe: Unsubscribe) {
-
-        editor.coroutineScope.launch(Dispatchers.IO) {
-            // send to server
-            editor.eventManager.emitAsync(EventType.documentChange, event)
-
-            if (editor.hitReTrigger(event.changedText)) {
-                editor.showSignatureHelp(null)
-                return@launch
-            }
 
-            editor.eventManager.emitAsync(EventType.signatureHelp, event.changeStart)
+    init {
+        // Follow-up requests are sent once per batch, after the server has received the changes
+        editor.documentChangeBatcher.onFlushed = { event, text, documentVersion ->
+            onChangesSent(event, text, documentVersion)
+        }
+    }
 
-            val diagnostics =
-                editor.eventManager.emitAsync(EventType.queryDocumentDiagnostics)
-                    .getOrNull<DocumentDiagnosticReport>("diagnostics") ?: return@launch
+    override fun onReceive(event: ContentChangeEvent, unsubscribe: Unsubscribe) {
+        // diagnostics in flight are outdated
+        editor.diagnosticsScheduler.cancel()
+        // send to server
+        editor.documentChangeBatcher.onContentChange(event)
+    }
 
-            if (diagnostics.isRelatedUnchangedDocumentDiagnosticReport) {
-                // no-op
-                return@launch
-            }
+    private suspend fun onChangesSent(event: ContentChangeEvent, text: Content, documentVersion: Long) {
+        editor.diagnosticsScheduler.schedule(text, documentVersion)
 
-            if (diagnostics.isRelatedFullDocumentDiagnosticReport) {
-                editor.eventManager.emit(EventType.publishDiagnostics) {
-                    put("data", diagnostics.left.items)
-                }
-            }
+        if (editor.hitReTrigger(event.changedText)) {
+            editor.showSignatureHelp(null)
+            return
         }
 
-
+        editor.eventManager.emitAsync(EventType.signatureHelp, event.changeStart)
     }
 }
 
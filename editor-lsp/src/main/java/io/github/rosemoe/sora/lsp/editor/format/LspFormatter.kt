@@ -42,9 +42,12 @@ class LspFormatter(private var language: LspLanguage?) :
 
     private val coroutineScope = requireNotNull(language).editor.coroutineScope
 
+    private val documentChangeBatcher = requireNotNull(language).editor.documentChangeBatcher
+
     override fun formatAsync(text: Content, cursorRange: TextRange): TextRange? {
 
         coroutineScope.future {
+            documentChangeBatcher.flush()
             eventManager.emitAsync(EventType.fullFormatting, text)
         }.get()
 
@@ -58,6 +61,7 @@ class LspFormatter(private var language: LspLanguage?) :
     ): TextRange? {
 
         coroutineScope.future {
+            documentChangeBatcher.flush()
             eventManager.emitAsync(EventType.rangeFormatting) {
                 put("text", text)
                 put("range", rangeToFormat)
@@ -38,13 +38,14 @@ import kotlinx.coroutines.TimeoutCancellationException
 import kotlinx.coroutines.future.await
 import org.eclipse.lsp4j.CompletionContext
 import org.eclipse.lsp4j.CompletionItem
+import org.eclipse.lsp4j.CompletionList
 import java.util.concurrent.CompletableFuture
 
 
 class CompletionEvent : AsyncEventListener() {
     override val eventName: String = "textDocument/completion"
 
-    private var future: CompletableFuture<List<CompletionItem>>? = null
+    private var future: CompletableFuture<CompletionList>? = null
 
     override suspend fun handleAsync(context: EventContext) {
         val editor = context.get<LspEditor>("lsp-editor")
@@ -62,21 +63,24 @@ class CompletionEvent : AsyncEventListener() {
                 )
             )?.thenApply {
                 if (it == null) {
-                    return@thenApply emptyList<CompletionItem>()
+                    return@thenApply CompletionList(emptyList())
                 }
                 if (it.isLeft) {
-                    return@thenApply it.left
+                    // A plain array is a complete list
+                    return@thenApply CompletionList(false, it.left)
                 }
                 if (it.isRight) {
-                    return@thenApply it.right.items
+                    return@thenApply it.right
                 }
-                emptyList()
-            } ?: CompletableFuture.completedFuture(emptyList())
+                CompletionList(emptyList())
+            } ?: CompletableFuture.completedFuture(CompletionList(emptyList()))
 
         this.future = future
 
         try {
-            context.put("completion-items", future.await())
+            val completionList = future.await()
+            context.put("completion-items", completionList.items ?: emptyList<CompletionItem>())
+            context.put("completion-incomplete", completionList.isIncomplete)
         } catch (e: Exception) {
             if (e !is TimeoutCancellationException) {
                 Logger.instance(this.javaClass.name)
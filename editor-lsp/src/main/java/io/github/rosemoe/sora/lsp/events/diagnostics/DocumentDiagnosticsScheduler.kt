@@ -0,0 +1,118 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lsp.events.diagnostics
+
+import io.github.rosemoe.sora.lsp.editor.LspEditor
+import io.github.rosemoe.sora.lsp.events.EventType
+import io.github.rosemoe.sora.text.Content
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import org.eclipse.lsp4j.DocumentDiagnosticReport
+import kotlin.coroutines.coroutineContext
+
+/**
+ * Schedules `textDocument/diagnostic` requests of an [LspEditor].
+ *
+ * At most one request is in flight. Scheduling a new request or calling [cancel] cancels the
+ * previous one. The result id of the last published report is sent as `previousResultId`, so
+ * that servers can answer with an unchanged report. Reports for a text that has been modified
+ * since the request was scheduled are dropped.
+ */
+class DocumentDiagnosticsScheduler(private val editor: LspEditor) {
+
+    private val lock = Any()
+
+    private var job: Job? = null
+
+    /**
+     * Result id of the report currently shown
+     */
+    @Volatile
+    private var previousResultId: String? = null
+
+    /**
+     * Request diagnostics for the given text, which has been sent to the server
+     *
+     * @param text The text object of editor
+     * @param documentVersion Document version of [text] when it is sent
+     */
+    fun schedule(text: Content, documentVersion: Long) {
+        synchronized(lock) {
+            job?.cancel()
+            job = editor.coroutineScope.launch(Dispatchers.IO) {
+                query(text, documentVersion)
+            }
+        }
+    }
+
+    /**
+     * Cancel the request in flight, if any
+     */
+    fun cancel() {
+        synchronized(lock) {
+            job?.cancel()
+            job = null
+        }
+    }
+
+    /**
+     * Forget the result id, so that next report is always published in full
+     */
+    fun reset() {
+        cancel()
+        previousResultId = null
+    }
+
+    private suspend fun query(text: Content, documentVersion: Long) {
+        val report = editor.eventManager.emitAsync(EventType.queryDocumentDiagnostics) {
+            previousResultId?.let { put("previous-result-id", it) }
+        }.getOrNull<DocumentDiagnosticReport>("diagnostics") ?: return
+
+        coroutineContext.ensureActive()
+        if (isStale(text, documentVersion)) {
+            return
+        }
+
+        if (report.isRelatedUnchangedDocumentDiagnosticReport) {
+            // Diagnostics shown are still valid
+            previousResultId = report.relatedUnchangedDocumentDiagnosticReport.resultId
+            return
+        }
+
+        if (report.isRelatedFullDocumentDiagnosticReport) {
+            val fullReport = report.relatedFullDocumentDiagnosticReport
+            previousResultId = fullReport.resultId
+            editor.project.diagnosticsContainer.setDiagnostics(editor.uri, fullReport.items)
+            editor.onDiagnosticsUpdate()
+        }
+    }
+
+    private fun isStale(text: Content, documentVersion: Long): Boolean {
+        return editor.editor?.text !== text || text.documentVersion != documentVersion
+    }
+
+}
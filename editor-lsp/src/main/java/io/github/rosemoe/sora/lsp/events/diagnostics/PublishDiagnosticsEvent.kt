@@ -26,11 +26,15 @@ package io.github.rosemoe.sora.lsp.events.diagnostics
 
 import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer
 import io.github.rosemoe.sora.lsp.editor.LspEditor
+import io.github.rosemoe.sora.lsp.editor.diagnostics.DocumentDiagnostics
 import io.github.rosemoe.sora.lsp.events.EventContext
 import io.github.rosemoe.sora.lsp.events.EventListener
 import io.github.rosemoe.sora.lsp.events.EventType
 import io.github.rosemoe.sora.lsp.utils.transformToEditorDiagnostics
+import kotlinx.coroutines.launch
 import org.eclipse.lsp4j.Diagnostic
+import java.util.Collections
+import java.util.IdentityHashMap
 
 
 class PublishDiagnosticsEvent : EventListener {
@@ -42,18 +46,57 @@ class PublishDiagnosticsEvent : EventListener {
         val originEditor = lspEditor.editor ?: return
         val data = context.getOrNull<List<Diagnostic>>("data") ?: return
 
-        val diagnosticsContainer =
-            originEditor.diagnostics ?: DiagnosticsContainer()
+        val text = originEditor.text
+        val documentVersion = text.documentVersion
+        val documentDiagnostics = lspEditor.project.diagnosticsContainer
+            .getDocumentDiagnostics(lspEditor.uri)
+            .takeIf { it.all === data } ?: DocumentDiagnostics(data)
 
-        diagnosticsContainer.reset()
-
-        diagnosticsContainer.addDiagnostics(
-            data.transformToEditorDiagnostics(originEditor)
-        )
-
-        // run on ui thread
+        // Visible lines are queried from the layout, which is only safe in UI thread
         originEditor.post {
+            val diagnosticsContainer = DiagnosticsContainer()
+
+            // Convert diagnostics in visible lines first, so they are shown without waiting for others
+            val visibleDiagnostics = documentDiagnostics.getDiagnosticsInLines(
+                originEditor.firstVisibleLine,
+                originEditor.lastVisibleLine
+            )
+            diagnosticsContainer.addDiagnostics(
+                visibleDiagnostics.transformToEditorDiagnostics(originEditor)
+            )
             originEditor.diagnostics = diagnosticsContainer
+
+            if (visibleDiagnostics.size == documentDiagnostics.size) {
+                return@post
+            }
+
+            // Others are not needed if the text is modified, as new diagnostics will come
+            if (originEditor.text !== text || text.documentVersion != documentVersion) {
+                return@post
+            }
+            lspEditor.coroutineScope.launch {
+                val converted = Collections.newSetFromMap(IdentityHashMap<Diagnostic, Boolean>())
+                converted.addAll(visibleDiagnostics)
+                val regions = try {
+                    documentDiagnostics.all.filter { !converted.contains(it) }
+                        .transformToEditorDiagnostics(originEditor, visibleDiagnostics.size.toLong())
+                } catch (e: IndexOutOfBoundsException) {
+                    // Positions can be out of the text if it is modified meanwhile
+                    if (text.documentVersion != documentVersion) {
+                        return@launch
+                    }
+                    throw e
+                }
+                // Merge in UI thread, where the text is edited, so that regions can not be outdated
+                originEditor.post {
+                    if (originEditor.diagnostics === diagnosticsContainer && originEditor.text === text
+                        && text.documentVersion == documentVersion
+                    ) {
+                        diagnosticsContainer.addDiagnostics(regions)
+                        originEditor.invalidate()
+                    }
+                }
+            }
         }
     }
 
@@ -44,9 +44,12 @@ class QueryDocumentDiagnosticsEvent : AsyncEventListener() {
 
         val requestManager = editor.requestManager ?: return
 
+        val params = editor.uri.createDocumentDiagnosticParams()
+        params.previousResultId = context.getOrNull<String>("previous-result-id")
+
         val future = requestManager
             .diagnostic(
-                editor.uri.createDocumentDiagnosticParams()
+                params
             )
 
         this.future = future.thenAccept { }
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lsp.events.document
+
+import io.github.rosemoe.sora.event.ContentChangeEvent
+import io.github.rosemoe.sora.lsp.editor.LspEditor
+import io.github.rosemoe.sora.lsp.events.EventType
+import io.github.rosemoe.sora.lsp.utils.createPosition
+import io.github.rosemoe.sora.lsp.utils.createRange
+import io.github.rosemoe.sora.lsp.utils.createTextDocumentContentChangeEvent
+import io.github.rosemoe.sora.text.Content
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent
+import org.eclipse.lsp4j.TextDocumentSyncKind
+
+/**
+ * Batches content changes of an [LspEditor] into `textDocument/didChange` notifications.
+ *
+ * Changes are collected in order, and sent together when [batchWindow] has elapsed since the first
+ * pending change, or when [maxBatchSize] edits are pending. Consecutive typing and backspacing are
+ * merged into single content changes. Batches are sent one by one, so document versions are strictly
+ * increasing.
+ *
+ * For servers using full sync, a shallow snapshot of the text is taken on the thread making the
+ * change, and only the newest snapshot of a batch is converted to a string, off that thread. Older
+ * snapshots are released without being read.
+ *
+ * Requests depending on the latest text should call [flush] before they are sent.
+ */
+class DocumentChangeBatcher(private val editor: LspEditor) {
+
+    /**
+     * Time to wait for more changes after the first pending change, in milliseconds
+     */
+    var batchWindow = DEFAULT_BATCH_WINDOW
+
+    /**
+     * Count of pending edits that causes the batch to be sent immediately
+     */
+    var maxBatchSize = DEFAULT_MAX_BATCH_SIZE
+
+    /**
+     * Called after a batch is sent, with the last content change event of the batch, and the text
+     * and its document version right after that change
+     */
+    var onFlushed: (suspend (event: ContentChangeEvent, text: Content, documentVersion: Long) -> Unit)? =
+        null
+
+    private val lock = Any()
+
+    private val sendMutex = Mutex()
+
+    private val pendingChanges = mutableListOf<PendingChange>()
+
+    /**
+     * Newest text snapshot for full sync, if any
+     */
+    private var pendingSnapshot: Content? = null
+
+    private var pendingEditCount = 0
+
+    private var flushScheduled = false
+
+    private var lastEvent: ContentChangeEvent? = null
+
+    private var lastText: Content? = null
+
+    private var lastDocumentVersion = 0L
+
+    private val isFullSync: Boolean
+        get() {
+            val kind = editor.textDocumentSyncKind
+            return kind == TextDocumentSyncKind.None || kind == TextDocumentSyncKind.Full
+        }
+
+    /**
+     * Add a content change to current batch. Must be called in the order of changes.
+     */
+    fun onContentChange(event: ContentChangeEvent) {
+        synchronized(lock) {
+            if (isFullSync) {
+                // Shallow copy is cheap, text is converted when the batch is sent
+                pendingSnapshot?.release()
+                pendingSnapshot = event.editor.text.copyTextShallow()
+            } else if (event.action == ContentChangeEvent.ACTION_SET_NEW_TEXT) {
+                pendingChanges.clear()
+                pendingChanges.add(
+                    PendingChange(-1, -1, -1, -1, StringBuilder(event.editor.text), -1, -1)
+                )
+            } else {
+                appendChange(event)
+            }
+            lastEvent = event
+            lastText = event.editor.text
+            lastDocumentVersion = event.editor.text.documentVersion
+            pendingEditCount++
+            if (pendingEditCount >= maxBatchSize) {
+                scheduleFlush(0)
+            } else if (!flushScheduled) {
+                flushScheduled = true
+                scheduleFlush(batchWindow)
+            }
+        }
+    }
+
+    private fun scheduleFlush(delayMillis: Long) {
+        editor.coroutineScope.launch(Dispatchers.IO) {
+            if (delayMillis > 0) {
+                delay(delayMillis)
+            }
+            flush()
+        }
+    }
+
+    private fun appendChange(event: ContentChangeEvent) {
+        val start = event.changeStart
+        val end = event.changeEnd
+        val last = pendingChanges.lastOrNull()
+        if (event.action == ContentChangeEvent.ACTION_INSERT) {
+            if (last != null && last.textEndLine == start.line && last.textEndColumn == start.column) {
+                // Typing after last change
+                last.text.append(event.changedText)
+                last.textEndLine = end.line
+                last.textEndColumn = end.column
+                return
+            }
+            pendingChanges.add(
+                PendingChange(start.line, start.column, start.line, start.column, StringBuilder(event.changedText), end.line, end.column)
+            )
+        } else {
+            val deleted = event.changedText
+            if (last != null && last.textEndLine == end.line && last.textEndColumn == end.column) {
+                if (last.text.length >= deleted.length && last.text.endsWith(deleted)) {
+                    // Deleting text inserted by last change
+                    last.text.setLength(last.text.length - deleted.length)
+                    last.textEndLine = start.line
+                    last.textEndColumn = start.column
+                    if (last.text.isEmpty() && last.startLine == last.endLine && last.startColumn == last.endColumn) {
+                        pendingChanges.removeAt(pendingChanges.lastIndex)
+                    }
+                    return
+                }
+                if (last.text.isEmpty()) {
+                    // Backspacing before last deletion
+                    last.startLine = start.line
+                    last.startColumn = start.column
+                    last.textEndLine = start.line
+                    last.textEndColumn = start.column
+                    return
+                }
+            }
+            pendingChanges.add(
+                PendingChange(start.line, start.column, end.line, end.column, StringBuilder(), start.line, start.column)
+            )
+        }
+    }
+
+    /**
+     * Send pending changes now. Returns after the notification is sent, or immediately if there is
+     * nothing to send.
+     */
+    suspend fun flush() {
+        var flushedEvent: ContentChangeEvent? = null
+        var flushedText: Content? = null
+        var flushedVersion = 0L
+        sendMutex.withLock {
+            var changes: List<TextDocumentContentChangeEvent>
+            val snapshot: Content?
+            synchronized(lock) {
+                if (pendingEditCount == 0) {
+                    return@withLock
+                }
+                snapshot = pendingSnapshot
+                changes = pendingChanges.map { it.toContentChangeEvent() }
+                flushedEvent = lastEvent
+                flushedText = lastText
+                flushedVersion = lastDocumentVersion
+                pendingChanges.clear()
+                pendingSnapshot = null
+                pendingEditCount = 0
+                flushScheduled = false
+                lastEvent = null
+                lastText = null
+            }
+            if (snapshot != null) {
+                val text = try {
+                    snapshot.toString()
+                } finally {
+                    snapshot.release()
+                }
+                changes = listOf(editor.uri.createTextDocumentContentChangeEvent(text))
+            }
+            // Changes may cancel each other out
+            if (changes.isNotEmpty()) {
+                editor.eventManager.emitAsync(EventType.documentChange) {
+                    put("content-changes", changes)
+                }
+            }
+        }
+        val event = flushedEvent ?: return
+        val text = flushedText ?: return
+        val callback = onFlushed ?: return
+        editor.coroutineScope.launch(Dispatchers.IO) {
+            callback(event, text, flushedVersion)
+        }
+    }
+
+    /**
+     * A change to send. Positions are -1 if whole text is replaced.
+     */
+    private class PendingChange(
+        var startLine: Int,
+        var startColumn: Int,
+        val endLine: Int,
+        val endColumn: Int,
+        val text: StringBuilder,
+        /**
+         * End position of [text] after the change is applied
+         */
+        var textEndLine: Int,
+        var textEndColumn: Int
+    ) {
+
+        fun toContentChangeEvent() = if (startLine == -1) {
+            // Whole text is replaced
+            TextDocumentContentChangeEvent(text.toString())
+        } else {
+            TextDocumentContentChangeEvent(
+                createRange(createPosition(startLine, startColumn), createPosition(endLine, endColumn)),
+                text.toString()
+            )
+        }
+
+    }
+
+    companion object {
+        const val DEFAULT_BATCH_WINDOW = 50L
+        const val DEFAULT_MAX_BATCH_SIZE = 32
+    }
+
+}
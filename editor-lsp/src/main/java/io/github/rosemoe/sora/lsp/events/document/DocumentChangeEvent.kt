@@ -48,9 +48,15 @@ class DocumentChangeEvent : AsyncEventListener() {
 
     override suspend fun handleAsync(context: EventContext) {
         val editor = context.get<LspEditor>("lsp-editor")
-        val event = context.getByClass<ContentChangeEvent>() ?: return
-
-        val params = createDidChangeTextDocumentParams(editor, event)
+        // Batched changes from DocumentChangeBatcher, or a single content change event
+        val changes = context.getOrNull<List<TextDocumentContentChangeEvent>>("content-changes")
+
+        val params = if (changes != null) {
+            editor.uri.createDidChangeTextDocumentParams(changes)
+        } else {
+            val event = context.getByClass<ContentChangeEvent>() ?: return
+            createDidChangeTextDocumentParams(editor, event)
+        }
 
         editor.requestManager?.let { requestManager ->
             future = CompletableFuture.runAsync {
@@ -100,7 +106,6 @@ class DocumentChangeEvent : AsyncEventListener() {
     ): DidChangeTextDocumentParams {
         val kind = editor.textDocumentSyncKind
         val isFullSync = kind == TextDocumentSyncKind.None || kind == TextDocumentSyncKind.Full
-        println(isFullSync)
 
         return editor.uri.createDidChangeTextDocumentParams(
             if (isFullSync) createFullTextDocumentContentChangeEvent(editor) else createIncrementTextDocumentContentChangeEvent(
@@ -142,9 +142,12 @@ fun Position.getIndex(editor: CodeEditor): Int {
     return editor.text.getCharIndex(this.line, this.character)
 }
 
-fun List<Diagnostic>.transformToEditorDiagnostics(editor: CodeEditor): List<DiagnosticRegion> {
-    val result = ArrayList<DiagnosticRegion>()
-    var id = 0L
+fun List<Diagnostic>.transformToEditorDiagnostics(
+    editor: CodeEditor,
+    startId: Long = 0L
+): List<DiagnosticRegion> {
+    val result = ArrayList<DiagnosticRegion>(size)
+    var id = startId
     for (diagnosticSource in this) {
         Log.w("diagnostic message", "diagnostic: " + diagnosticSource.message)
         val diagnostic = DiagnosticRegion(
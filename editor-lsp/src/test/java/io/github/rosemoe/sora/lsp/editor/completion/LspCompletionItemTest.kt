@@ -0,0 +1,98 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2023  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lsp.editor.completion
+
+import io.github.rosemoe.sora.lang.completion.CompletionRefiner
+import io.github.rosemoe.sora.lang.completion.SimpleCompletionItem
+import io.github.rosemoe.sora.lsp.utils.createPosition
+import io.github.rosemoe.sora.lsp.utils.createRange
+import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
+import org.eclipse.lsp4j.CompletionItem
+import org.eclipse.lsp4j.TextEdit
+import org.eclipse.lsp4j.jsonrpc.messages.Either
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class LspCompletionItemTest {
+
+    private fun createItem(label: String, startColumn: Int, endColumn: Int) = CompletionItem(label).apply {
+        textEdit = Either.forLeft(
+            TextEdit(createRange(createPosition(0, startColumn), createPosition(0, endColumn)), label)
+        )
+    }
+
+    /**
+     * Request completion at the end of [requestLine], type [typed] and refine the items like the
+     * editor, then accept [item]
+     */
+    private fun acceptRefined(requestLine: String, typed: String, item: CompletionItem, prefixLength: Int): String {
+        val text = Content(requestLine + typed)
+        val column = text.getColumnCount(0)
+        var refinedPrefixLength = prefixLength
+        if (typed.isNotEmpty()) {
+            val refined = CompletionRefiner(listOf(SimpleCompletionItem(item.label, prefixLength, item.label)), null)
+                .refine(text.getLine(0), column, typed)
+            assertEquals(1, refined.size)
+            refinedPrefixLength = refined[0].prefixLength
+        }
+        val edit = item.createTextEdit(
+            text, CharPosition(0, column), refinedPrefixLength, refinedPrefixLength - prefixLength
+        )
+        text.replace(
+            edit.range.start.line, edit.range.start.character,
+            edit.range.end.line, edit.range.end.character, edit.newText
+        )
+        return text.toString()
+    }
+
+    @Test
+    fun `test accept refined item with text edit`() {
+        val item = createItem("getValue", 6, 7)
+        assertEquals("  x = getValue", acceptRefined("  x = g", "", item, 1))
+        assertEquals("  x = getValue", acceptRefined("  x = g", "etV", item, 1))
+    }
+
+    @Test
+    fun `test accept refined item with empty prefix`() {
+        val item = createItem("getValue", 2, 2)
+        assertEquals("a.getValue", acceptRefined("a.", "", item, 0))
+        assertEquals("a.getValue", acceptRefined("a.", "gV", item, 0))
+    }
+
+    @Test
+    fun `test accept refined item replacing text after request position`() {
+        // Request is made at "g|Value", and the server replaces the whole word
+        val item = createItem("getValue", 6, 12).apply { textEdit.left.newText = "getValue()" }
+        val text = Content("  x = gValue")
+        text.insert(0, 7, "et")
+        val refined = CompletionRefiner(listOf(SimpleCompletionItem("getValue", 1, "getValue")), null)
+            .refine(text.getLine(0), 9, "et")
+        val prefixLength = refined[0].prefixLength
+        val edit = item.createTextEdit(text, CharPosition(0, 9), prefixLength, prefixLength - 1)
+        assertEquals(createRange(createPosition(0, 6), createPosition(0, 14)), edit.range)
+    }
+
+}
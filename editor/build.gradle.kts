@@ -45,6 +45,11 @@ android {
             proguardFiles(getDefaultProguardFile("proguard-android-optimize.txt"), "proguard-rules.pro")
         }
     }
+
+    // Shared test code for language modules
+    testFixtures {
+        enable = true
+    }
 }
 
 dependencies {
@@ -54,6 +59,7 @@ dependencies {
     testImplementation(libs.junit)
     testImplementation(libs.tests.google.truth)
     testImplementation(libs.tests.robolectric)
+    testFixturesImplementation(libs.junit)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
 }
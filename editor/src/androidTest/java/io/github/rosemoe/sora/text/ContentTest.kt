@@ -54,7 +54,7 @@ class ContentTest {
         val content = Content("POM_SCM_URL=https://github.com/Rosemoe/sora-editor/tree/master\r\n" +
                 "POM_SCM_CONNECTION=scm:git:github.com/Rosemoe/sora-editor.git\r\n" +
                 "POM_SCM_DEV_CONNECTION=scm:git:ssh://github.com/Rosemoe/sora-editor.git")
-        val indexer = content.indexer as CachedIndexer
+        val indexer = CachedIndexer(content)
         val expected = CharPosition().also {
             it.index = 63
             it.line = 0
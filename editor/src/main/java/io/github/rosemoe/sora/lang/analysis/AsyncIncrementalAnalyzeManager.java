@@ -29,15 +29,24 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import io.github.rosemoe.sora.lang.styling.BlocksUpdater;
 import io.github.rosemoe.sora.lang.styling.CodeBlock;
 import io.github.rosemoe.sora.lang.styling.Span;
 import io.github.rosemoe.sora.lang.styling.SpanFactory;
@@ -46,6 +55,7 @@ import io.github.rosemoe.sora.lang.styling.Styles;
 import io.github.rosemoe.sora.lang.util.BaseAnalyzeManager;
 import io.github.rosemoe.sora.text.CharPosition;
 import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.text.ContentLine;
 import io.github.rosemoe.sora.util.IntPair;
 import io.github.rosemoe.sora.widget.schemes.EditorColorScheme;
 
@@ -61,15 +71,96 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
     private final static int MSG_BASE = 11451400;
     private final static int MSG_INIT = MSG_BASE + 1;
     private final static int MSG_MOD = MSG_BASE + 2;
+    /**
+     * Count of lines analyzed before the first styles are sent, if visible lines are unknown
+     */
+    private final static int INITIAL_VISIBLE_LINES = 100;
+    /**
+     * Count of lines analyzed after visible lines before an update is sent for modifications.
+     * Following lines are analyzed in background, so that edits changing states of many lines
+     * (for example, opening a block comment) do not block the next edits.
+     */
+    private final static int MODIFICATION_BUDGET_LINES = 1000;
+    /**
+     * Count of lines analyzed in background between checks of new messages
+     */
+    private final static int BACKGROUND_CHUNK_LINES = 500;
+    /**
+     * Min interval of style updates for lines analyzed in background, in milliseconds
+     */
+    private final static long BACKGROUND_UPDATE_INTERVAL = 100;
+    /**
+     * Min count of lines in a chunk for parallel tokenization
+     */
+    private final static int PARALLEL_CHUNK_LINES = 2000;
+    /**
+     * Max count of lines to search for a state reset candidate after the nominal start of a chunk
+     */
+    private final static int PARALLEL_CANDIDATE_SEARCH_LINES = 200;
+    /**
+     * Max time to wait for a chunk before checking new messages, in milliseconds
+     */
+    private final static long PARALLEL_WAIT_INTERVAL = 10;
     private static int sThreadId = 0;
+    private static ExecutorService sWorkerPool;
     private LooperThread thread;
+    private volatile boolean parallelTokenization;
     private volatile long runCount;
+    private volatile long modificationCount;
+    private volatile long coalescedModificationCount;
 
     private synchronized static int nextThreadId() {
         sThreadId++;
         return sThreadId;
     }
 
+    private synchronized static ExecutorService getWorkerPool() {
+        if (sWorkerPool == null) {
+            var workerId = new AtomicInteger();
+            sWorkerPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                var thread = new Thread(r, "AsyncAnalyzerWorker-" + workerId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sWorkerPool;
+    }
+
+    /**
+     * Enable or disable parallel tokenization on the first analysis of large text.
+     * <p>
+     * If enabled, lines are split into chunks at state reset candidates (see
+     * {@link #isStateResetCandidate(ContentLine)}), and each chunk is tokenized on a worker thread,
+     * speculatively starting from the initial state. Chunks are checked in order, and lines of a
+     * chunk are tokenized again if its actual incoming state differs, until the new state of a line
+     * equals its speculative state. So the result is the same as sequential tokenization.
+     * <p>
+     * {@link #tokenizeLine(CharSequence, Object, int)}, {@link #generateSpansForLine(LineTokenizeResult)}
+     * and {@link #getInitialState()} must be thread-safe if this is enabled. Takes effect on next
+     * {@link #rerun()}. Disabled by default.
+     */
+    public void setParallelTokenizationEnabled(boolean enabled) {
+        parallelTokenization = enabled;
+    }
+
+    /**
+     * @see #setParallelTokenizationEnabled(boolean)
+     */
+    public boolean isParallelTokenizationEnabled() {
+        return parallelTokenization;
+    }
+
+    /**
+     * Check whether the given line is likely to start with the initial state, so that a chunk of
+     * parallel tokenization can start at the line. By default, lines starting with a non-whitespace
+     * character are candidates.
+     * <p>
+     * This is called on the analysis thread, and only affects performance of parallel tokenization.
+     */
+    protected boolean isStateResetCandidate(@NonNull ContentLine line) {
+        return line.length() > 0 && !Character.isWhitespace(line.charAt(0));
+    }
+
     /**
      * Run the given code block only when the receiver is currently non-null
      */
@@ -113,11 +204,28 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
             thread.setName("AsyncAnalyzer-" + nextThreadId());
             thread.offerMessage(MSG_INIT, text);
             increaseRunCount();
+            modificationCount = 0;
+            coalescedModificationCount = 0;
             sendNewStyles(null);
             thread.start();
         }
     }
 
+    /**
+     * Get count of text modifications applied by the analysis thread since last rerun
+     */
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
+    /**
+     * Get count of text modifications that are analyzed together with previous modifications,
+     * without a separate tokenization and style update
+     */
+    public long getCoalescedModificationCount() {
+        return coalescedModificationCount;
+    }
+
     @Override
     public LineTokenizeResult<S, T> getState(int line) {
         final var thread = this.thread;
@@ -177,6 +285,26 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
      */
     public abstract List<CodeBlock> computeBlocks(Content text, CodeBlockAnalyzeDelegate delegate);
 
+    /**
+     * Update code blocks for changed lines only. {@code blocks} is the result of last computation,
+     * with line indices already updated for modifications by {@link BlocksUpdater}. Implementations
+     * should replace blocks affected by lines in [startLine, endLine] in place, for example with
+     * {@link BlocksUpdater#replace(List, int, int, List)}.
+     * <p>
+     * Return false if the blocks can not be updated incrementally, and then
+     * {@link #computeBlocks(Content, CodeBlockAnalyzeDelegate)} is called instead. By default, this
+     * always returns false. {@code blocks} must not be changed if the delegate is cancelled.
+     *
+     * @param text      The text. can be safely accessed.
+     * @param blocks    Current code blocks
+     * @param startLine First changed line
+     * @param endLine   Last changed line
+     * @return whether the blocks are updated
+     */
+    public boolean updateBlocks(Content text, List<CodeBlock> blocks, int startLine, int endLine, CodeBlockAnalyzeDelegate delegate) {
+        return false;
+    }
+
     public Styles getManagedStyles() {
         var thread = Thread.currentThread();
         if (thread.getClass() != AsyncIncrementalAnalyzeManager.LooperThread.class) {
@@ -389,6 +517,156 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
         }
     }
 
+    /**
+     * Lines tokenized speculatively from the initial state on a worker thread
+     */
+    private static class TokenizedChunk<S, T> {
+
+        private final int startLine;
+        private final List<LineTokenizeResult<S, T>> results;
+        private final List<List<Span>> spans;
+
+        TokenizedChunk(int startLine, int lineCount) {
+            this.startLine = startLine;
+            results = new ArrayList<>(lineCount);
+            spans = new ArrayList<>(lineCount);
+        }
+    }
+
+    /**
+     * Sorted and disjoint line ranges to tokenize. Lines in a range must be tokenized, and lines
+     * after a range must be tokenized until the new state of a line equals its old state.
+     * Lines that are not dirty always have their states consistent with previous lines.
+     */
+    private static class DirtyLines {
+
+        private int[] starts = new int[8];
+        private int[] ends = new int[8];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int getStart(int index) {
+            return starts[index];
+        }
+
+        int getEnd(int index) {
+            return ends[index];
+        }
+
+        /**
+         * Replace the range at given index. Order of ranges must be kept.
+         */
+        void set(int index, int start, int end) {
+            starts[index] = start;
+            ends[index] = end;
+            normalize();
+        }
+
+        void removeAt(int index) {
+            System.arraycopy(starts, index + 1, starts, index, size - index - 1);
+            System.arraycopy(ends, index + 1, ends, index, size - index - 1);
+            size--;
+        }
+
+        void add(int start, int end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            int index = size;
+            while (index > 0 && starts[index - 1] > start) {
+                index--;
+            }
+            System.arraycopy(starts, index, starts, index + 1, size - index);
+            System.arraycopy(ends, index, ends, index + 1, size - index);
+            starts[index] = start;
+            ends[index] = end;
+            size++;
+            normalize();
+        }
+
+        /**
+         * Remove lines in [start, end] from the ranges
+         */
+        void remove(int start, int end) {
+            if (start > end) {
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                if (ends[i] < start || starts[i] > end) {
+                    continue;
+                }
+                if (starts[i] < start && ends[i] > end) {
+                    // Split the range
+                    int rangeEnd = ends[i];
+                    ends[i] = start - 1;
+                    add(end + 1, rangeEnd);
+                    return;
+                }
+                if (starts[i] >= start && ends[i] <= end) {
+                    removeAt(i);
+                    i--;
+                } else if (starts[i] < start) {
+                    ends[i] = start - 1;
+                } else {
+                    starts[i] = end + 1;
+                }
+            }
+        }
+
+        /**
+         * Shift lines after {@code startLine} as lines are inserted
+         */
+        void onInsert(int startLine, int endLine) {
+            int delta = endLine - startLine;
+            for (int i = 0; i < size; i++) {
+                if (starts[i] > startLine) {
+                    starts[i] += delta;
+                }
+                if (ends[i] > startLine) {
+                    ends[i] += delta;
+                }
+            }
+        }
+
+        /**
+         * Shift lines after {@code endLine} as lines are deleted. Deleted lines are moved to {@code startLine}.
+         */
+        void onDelete(int startLine, int endLine) {
+            int delta = endLine - startLine;
+            for (int i = 0; i < size; i++) {
+                starts[i] = starts[i] > endLine ? starts[i] - delta : Math.min(starts[i], startLine);
+                ends[i] = ends[i] > endLine ? ends[i] - delta : Math.min(ends[i], startLine);
+            }
+            normalize();
+        }
+
+        /**
+         * Merge overlapping and adjacent ranges
+         */
+        private void normalize() {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (count > 0 && starts[i] <= ends[count - 1] + 1) {
+                    ends[count - 1] = Math.max(ends[count - 1], ends[i]);
+                } else {
+                    starts[count] = starts[i];
+                    ends[count] = ends[i];
+                    count++;
+                }
+            }
+            size = count;
+        }
+
+    }
+
     /**
      * Helper class for analyzing code block
      */
@@ -401,6 +679,13 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
             thread = lp;
         }
 
+        /**
+         * Create a delegate that is not bound to an analysis thread, and is never cancelled
+         */
+        CodeBlockAnalyzeDelegate() {
+            thread = null;
+        }
+
         public void setSuppressSwitch(int suppressSwitch) {
             this.suppressSwitch = suppressSwitch;
         }
@@ -410,7 +695,7 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
         }
 
         public boolean isCancelled() {
-            return thread.myRunCount != runCount || thread.abort || thread.isInterrupted();
+            return thread != null && (thread.myRunCount != runCount || thread.abort || thread.isInterrupted());
         }
 
         public boolean isNotCancelled() {
@@ -430,6 +715,23 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
         Styles styles;
         LockedSpans spans;
         CodeBlockAnalyzeDelegate delegate = new CodeBlockAnalyzeDelegate(this);
+        DirtyLines dirtyLines = new DirtyLines();
+        /**
+         * Pending chunks of parallel tokenization, in line order
+         */
+        ArrayDeque<Future<TokenizedChunk<S, T>>> pendingChunks = new ArrayDeque<>();
+        volatile boolean chunksCancelled;
+        int pendingUpdateStart = Integer.MAX_VALUE, pendingUpdateEnd = -1;
+        long lastUpdateTime;
+        /**
+         * Code blocks of shadowed text. Blocks in styles are copies, as they are shifted by the
+         * editor on modifications.
+         */
+        List<CodeBlock> blocks;
+        /**
+         * Lines changed since code blocks are computed
+         */
+        int blocksDirtyStart = Integer.MAX_VALUE, blocksDirtyEnd = -1;
 
         public void offerMessage(int what, @Nullable Object obj) {
             var msg = Message.obtain();
@@ -446,23 +748,415 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
 
         private void initialize() {
             styles = new Styles(spans = new LockedSpans());
-            S state = getInitialState();
+            int lineCount = shadowed.getLineCount();
+            // Lines are reserved, so that modifications can be applied before all lines are analyzed
             var mdf = spans.modify();
-            for (int i = 0; i < shadowed.getLineCount() && !abort && !isInterrupted(); i++) {
-                var line = shadowed.getLine(i);
-                var result = tokenizeLine(line, state, i);
-                state = result.state;
-                var spans = result.spans != null ? result.spans : generateSpansForLine(result);
-                states.add(result.clearSpans());
+            for (int i = 0; i < lineCount; i++) {
+                states.add(null);
+                mdf.addLineAt(i, createEmptySpans());
+            }
+            // Lines around the viewport are analyzed and sent first. If they do not start at the
+            // first line, they are analyzed with the initial state as a guess, and corrected later.
+            int visibleStart = 0, visibleEnd = INITIAL_VISIBLE_LINES - 1;
+            final var r = getReceiver();
+            long visibleRange = r == null ? -1 : r.getVisibleLineRange();
+            if (visibleRange != -1) {
+                visibleStart = IntPair.getFirst(visibleRange);
+                visibleEnd = IntPair.getSecond(visibleRange);
+            }
+            int margin = Math.max(0, visibleEnd - visibleStart) + 1;
+            int firstStart = Math.max(0, Math.min(lineCount - 1, visibleStart - margin));
+            int firstEnd = Math.max(firstStart, Math.min(lineCount - 1, visibleEnd + margin));
+            if (firstStart <= margin) {
+                // Not worth guessing
+                firstStart = 0;
+            }
+            tokenizeLines(firstStart, firstEnd + 1, getInitialState());
+            if (abort || isInterrupted()) {
+                return;
+            }
+            styles.finishBuilding();
+            sendNewStyles(styles);
+
+            // Other lines are analyzed in background. Guessed lines are corrected when the lines
+            // before them are analyzed, until a line ends with the guessed state. The first guessed
+            // line is also dirty, as its state is not consistent with the line before it.
+            if (firstStart > 0) {
+                dirtyLines.add(0, firstStart);
+            }
+            if (firstEnd + 1 < lineCount) {
+                dirtyLines.add(firstEnd + 1, lineCount - 1);
+            }
+            if (isParallelTokenizationEnabled()) {
+                if (firstStart > 0) {
+                    submitChunks(0, firstStart - 1);
+                }
+                if (firstEnd + 1 < lineCount) {
+                    submitChunks(firstEnd + 1, lineCount - 1);
+                }
+            }
+            if (dirtyLines.isEmpty()) {
+                updateBlocks();
+                if (!abort)
+                    sendUpdate(styles, 0, lineCount - 1);
+            }
+        }
+
+        /**
+         * Split lines in [startLine, endLine] into chunks at state reset candidates, and submit them
+         * for parallel tokenization
+         */
+        private void submitChunks(int startLine, int endLine) {
+            int parallelism = Runtime.getRuntime().availableProcessors();
+            int count = endLine - startLine + 1;
+            if (parallelism < 2 || count < PARALLEL_CHUNK_LINES * 2) {
+                return;
+            }
+            // Some more chunks than workers, so that workers are balanced
+            int chunkLines = Math.max(PARALLEL_CHUNK_LINES, count / (parallelism * 4));
+            int chunkStart = startLine;
+            while (chunkStart <= endLine) {
+                int chunkEnd = chunkStart + chunkLines;
+                if (chunkEnd + PARALLEL_CHUNK_LINES / 2 > endLine) {
+                    chunkEnd = endLine + 1;
+                } else {
+                    int searchEnd = Math.min(endLine, chunkEnd + PARALLEL_CANDIDATE_SEARCH_LINES);
+                    for (int i = chunkEnd; i <= searchEnd; i++) {
+                        if (isStateResetCandidate(shadowed.getLine(i))) {
+                            chunkEnd = i;
+                            break;
+                        }
+                    }
+                }
+                submitChunk(chunkStart, chunkEnd);
+                chunkStart = chunkEnd;
+            }
+        }
+
+        /**
+         * Submit lines in [startLine, endLine) for tokenization on worker thread
+         */
+        private void submitChunk(int startLine, int endLine) {
+            // Lines are shared with the worker, and copied on write by shadowed text
+            var lines = new ContentLine[endLine - startLine];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = shadowed.getLine(startLine + i);
+                lines[i].retain();
+            }
+            pendingChunks.add(getWorkerPool().submit(() -> {
+                try {
+                    var chunk = new TokenizedChunk<S, T>(startLine, lines.length);
+                    S state = getInitialState();
+                    for (int i = 0; i < lines.length && !chunksCancelled && !abort; i++) {
+                        var result = tokenizeLine(lines[i], state, startLine + i);
+                        chunk.spans.add(result.spans != null ? result.spans : generateSpansForLine(result));
+                        chunk.results.add(result.clearSpans());
+                        state = result.state;
+                    }
+                    return chunk;
+                } finally {
+                    for (var line : lines) {
+                        line.release();
+                    }
+                }
+            }));
+        }
+
+        /**
+         * Wait for the first pending chunk for a while, and apply it if done. Lines of the chunk
+         * become clean except its first line, so that its actual incoming state is checked when dirty
+         * lines are analyzed.
+         */
+        private boolean applyNextChunk() {
+            TokenizedChunk<S, T> chunk;
+            try {
+                chunk = pendingChunks.getFirst().get(PARALLEL_WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return true;
+            } catch (InterruptedException e) {
+                return false;
+            } catch (ExecutionException e) {
+                Log.w("AsyncAnalysis", "Parallel tokenization failed", e);
+                // Remaining lines are still dirty, and analyzed sequentially
+                cancelChunks();
+                return true;
+            }
+            pendingChunks.removeFirst();
+            if (abort || chunk.results.isEmpty()) {
+                return true;
+            }
+            int startLine = chunk.startLine;
+            int endLine = startLine + chunk.results.size() - 1;
+            var mdf = spans.modify();
+            for (int i = 0; i < chunk.results.size(); i++) {
+                var result = chunk.results.get(i);
+                mdf.setSpansOnLine(startLine + i, chunk.spans.get(i));
+                var old = states.set(startLine + i, result);
+                if (old != null) {
+                    onAbandonState(old.state);
+                }
                 onAddState(result.state);
-                mdf.addLineAt(i, spans);
             }
-            styles.blocks = computeBlocks(shadowed, delegate);
-            styles.setSuppressSwitch(delegate.suppressSwitch);
+            dirtyLines.remove(startLine + 1, endLine);
+            pendingUpdateStart = Math.min(pendingUpdateStart, startLine);
+            pendingUpdateEnd = Math.max(pendingUpdateEnd, endLine);
+            if (pendingChunks.isEmpty() || System.currentTimeMillis() - lastUpdateTime >= BACKGROUND_UPDATE_INTERVAL) {
+                sendPendingUpdate();
+            }
+            return true;
+        }
+
+        /**
+         * Cancel pending chunks, whose line indices are invalid after modifications
+         */
+        private void cancelChunks() {
+            if (pendingChunks.isEmpty()) {
+                return;
+            }
+            chunksCancelled = true;
+            for (var future : pendingChunks) {
+                future.cancel(false);
+            }
+            pendingChunks.clear();
+        }
+
+        private List<Span> createEmptySpans() {
+            var list = new ArrayList<Span>();
+            list.add(SpanFactory.obtain(0, EditorColorScheme.TEXT_NORMAL));
+            return list;
+        }
+
+        /**
+         * Tokenize lines in [startLine, endLine), and replace their states and spans
+         */
+        private void tokenizeLines(int startLine, int endLine, S state) {
+            var mdf = spans.modify();
+            for (int i = startLine; i < endLine && !abort && !isInterrupted(); i++) {
+                var result = tokenizeLine(shadowed.getLine(i), state, i);
+                mdf.setSpansOnLine(i, result.spans != null ? result.spans : generateSpansForLine(result));
+                var old = states.set(i, result.clearSpans());
+                if (old != null) {
+                    onAbandonState(old.state);
+                }
+                onAddState(result.state);
+                state = result.state;
+            }
+        }
+
+        /**
+         * Apply the modification to shadowed text, states and spans, without tokenizing.
+         * Lines of the modification are marked as dirty.
+         * <p>
+         * The old state of the last changed line is kept at the new last line of the change, so
+         * that it can be compared with the new state after tokenization.
+         */
+        private void applyModification(@NonNull TextModification mod) {
+            cancelChunks();
+            int startLine = IntPair.getFirst(mod.start);
+            int endLine = IntPair.getFirst(mod.end);
+            int delta = endLine - startLine;
+            var mdf = spans.modify();
+            if (mod.changedText == null) {
+                shadowed.delete(startLine, IntPair.getSecond(mod.start), endLine, IntPair.getSecond(mod.end));
+                for (int i = 0; i < delta; i++) {
+                    var old = states.remove(startLine);
+                    if (old != null) {
+                        onAbandonState(old.state);
+                    }
+                    mdf.deleteLineAt(startLine);
+                }
+                dirtyLines.onDelete(startLine, endLine);
+                dirtyLines.add(startLine, startLine);
+                if (blocks != null) {
+                    BlocksUpdater.updateOnDelete(blocks, startLine, endLine);
+                }
+                if (blocksDirtyEnd != -1) {
+                    blocksDirtyStart = blocksDirtyStart > endLine ? blocksDirtyStart - delta : Math.min(blocksDirtyStart, startLine);
+                    blocksDirtyEnd = blocksDirtyEnd > endLine ? blocksDirtyEnd - delta : Math.min(blocksDirtyEnd, startLine);
+                }
+                markBlocksDirty(startLine, startLine);
+            } else {
+                shadowed.insert(startLine, IntPair.getSecond(mod.start), mod.changedText);
+                for (int i = 0; i < delta; i++) {
+                    states.add(startLine, null);
+                    mdf.addLineAt(startLine, createEmptySpans());
+                }
+                dirtyLines.onInsert(startLine, endLine);
+                dirtyLines.add(startLine, endLine);
+                if (blocks != null) {
+                    BlocksUpdater.update(blocks, startLine + 1, delta);
+                }
+                if (blocksDirtyEnd != -1) {
+                    if (blocksDirtyStart > startLine) {
+                        blocksDirtyStart += delta;
+                    }
+                    if (blocksDirtyEnd > startLine) {
+                        blocksDirtyEnd += delta;
+                    }
+                }
+                markBlocksDirty(startLine, endLine);
+            }
+        }
+
+        /**
+         * Tokenize dirty lines, and following lines until the new state of a line equals its old
+         * state.
+         * <p>
+         * Dirty ranges that end before {@code fromLine} are skipped. Tokenization stops before
+         * {@code limitLine} is exceeded, and the rest is kept as dirty.
+         *
+         * @return first and last tokenized line packed by {@link IntPair#pack(int, int)}, or -1 if
+         * no line is tokenized
+         */
+        private long tokenizeDirtyLines(int fromLine, int limitLine) {
+            var mdf = spans.modify();
+            int lineCount = shadowed.getLineCount();
+            int first = Integer.MAX_VALUE, last = -1;
+            int index = 0;
+            while (index < dirtyLines.size() && !abort && !isInterrupted()) {
+                int line = dirtyLines.getStart(index);
+                int end = dirtyLines.getEnd(index);
+                if (end < fromLine) {
+                    // Lines before this range are never dirty, so it can be analyzed later
+                    index++;
+                    continue;
+                }
+                if (line > limitLine) {
+                    break;
+                }
+                if (line >= lineCount) {
+                    dirtyLines.removeAt(index);
+                    continue;
+                }
+                S state = line == 0 ? getInitialState() : states.get(line - 1).state;
+                first = Math.min(first, line);
+                boolean finished = false;
+                while (line <= limitLine && !abort && !isInterrupted()) {
+                    if (line >= lineCount) {
+                        finished = true;
+                        break;
+                    }
+                    if (index + 1 < dirtyLines.size() && line >= dirtyLines.getStart(index + 1)) {
+                        end = Math.max(end, dirtyLines.getEnd(index + 1));
+                        dirtyLines.removeAt(index + 1);
+                    }
+                    var res = tokenizeLine(shadowed.getLine(line), state, line);
+                    mdf.setSpansOnLine(line, res.spans != null ? res.spans : generateSpansForLine(res));
+                    var old = states.set(line, res.clearSpans());
+                    if (old != null) {
+                        onAbandonState(old.state);
+                    }
+                    onAddState(res.state);
+                    state = res.state;
+                    line++;
+                    if (line > end && old != null && stateEquals(old.state, res.state)) {
+                        finished = true;
+                        break;
+                    }
+                }
+                last = Math.max(last, line - 1);
+                if (!finished) {
+                    dirtyLines.set(index, line, Math.max(end, line));
+                    break;
+                }
+                dirtyLines.removeAt(index);
+            }
+            if (last == -1) {
+                return -1;
+            }
+            // States of the lines are changed
+            markBlocksDirty(first, last);
+            return IntPair.pack(first, last);
+        }
+
+        private void markBlocksDirty(int startLine, int endLine) {
+            blocksDirtyStart = Math.min(blocksDirtyStart, startLine);
+            blocksDirtyEnd = Math.max(blocksDirtyEnd, endLine);
+        }
+
+        /**
+         * Update code blocks for changed lines, or compute all code blocks if it is not supported,
+         * and replace them in styles if not cancelled
+         */
+        private void updateBlocks() {
+            if (blocks != null && blocksDirtyEnd == -1) {
+                return;
+            }
+            boolean updated = false;
+            if (blocks != null) {
+                int lastLine = shadowed.getLineCount() - 1;
+                updated = AsyncIncrementalAnalyzeManager.this.updateBlocks(shadowed, blocks, Math.min(blocksDirtyStart, lastLine),
+                        Math.min(blocksDirtyEnd, lastLine), delegate);
+            }
+            List<CodeBlock> result = null;
+            if (!updated) {
+                result = computeBlocks(shadowed, delegate);
+            }
+            // Do not update incomplete code blocks. Changed lines are kept for next update.
+            if (delegate.isCancelled()) {
+                return;
+            }
+            if (!updated) {
+                // Make sure the list is modifiable
+                blocks = result == null ? null : new ArrayList<>(result);
+            }
+            blocksDirtyStart = Integer.MAX_VALUE;
+            blocksDirtyEnd = -1;
+            styles.blocks = copyBlocks(blocks);
             styles.finishBuilding();
+            styles.setSuppressSwitch(delegate.suppressSwitch);
+        }
 
-            if (!abort)
-                sendNewStyles(styles);
+        private List<CodeBlock> copyBlocks(List<CodeBlock> blocks) {
+            if (blocks == null) {
+                return null;
+            }
+            var result = new ArrayList<CodeBlock>(blocks.size());
+            for (var block : blocks) {
+                var copy = new CodeBlock();
+                copy.startLine = block.startLine;
+                copy.startColumn = block.startColumn;
+                copy.endLine = block.endLine;
+                copy.endColumn = block.endColumn;
+                copy.toBottomOfEndLine = block.toBottomOfEndLine;
+                result.add(copy);
+            }
+            return result;
+        }
+
+        /**
+         * Tokenize next chunk of dirty lines in background, and send updates of tokenized lines
+         * every {@link #BACKGROUND_UPDATE_INTERVAL} ms
+         */
+        private boolean continueDirtyLines() {
+            try {
+                myRunCount = runCount;
+                delegate.reset();
+                long range = tokenizeDirtyLines(0, dirtyLines.getStart(0) + BACKGROUND_CHUNK_LINES);
+                if (range != -1) {
+                    pendingUpdateStart = Math.min(pendingUpdateStart, IntPair.getFirst(range));
+                    pendingUpdateEnd = Math.max(pendingUpdateEnd, IntPair.getSecond(range));
+                }
+                if (dirtyLines.isEmpty()) {
+                    updateBlocks();
+                    sendPendingUpdate();
+                } else if (System.currentTimeMillis() - lastUpdateTime >= BACKGROUND_UPDATE_INTERVAL) {
+                    sendPendingUpdate();
+                }
+                return true;
+            } catch (Exception e) {
+                Log.w("AsyncAnalysis", "Thread " + Thread.currentThread().getName() + " failed", e);
+            }
+            return false;
+        }
+
+        private void sendPendingUpdate() {
+            if (pendingUpdateEnd != -1 && !abort) {
+                sendUpdate(styles, pendingUpdateStart, pendingUpdateEnd);
+            }
+            pendingUpdateStart = Integer.MAX_VALUE;
+            pendingUpdateEnd = -1;
+            lastUpdateTime = System.currentTimeMillis();
         }
 
         public boolean handleMessage(@NonNull Message msg) {
@@ -477,95 +1171,36 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
                         }
                         break;
                     case MSG_MOD:
-                        int updateStart = 0, updateEnd = 0;
                         if (!abort && !isInterrupted()) {
-                            var mod = (TextModification) msg.obj;
-                            int startLine = IntPair.getFirst(mod.start);
-                            int endLine = IntPair.getFirst(mod.end);
-
-                            updateStart = startLine;
-                            if (mod.changedText == null) {
-                                shadowed.delete(IntPair.getFirst(mod.start), IntPair.getSecond(mod.start),
-                                        IntPair.getFirst(mod.end), IntPair.getSecond(mod.end));
-                                S state = startLine == 0 ? getInitialState() : states.get(startLine - 1).state;
-                                // Remove states
-                                if (endLine >= startLine + 1) {
-                                    var subList = states.subList(startLine + 1, endLine + 1);
-                                    for (LineTokenizeResult<S, T> stLineTokenizeResult : subList) {
-                                        onAbandonState(stLineTokenizeResult.state);
-                                    }
-                                    subList.clear();
-                                }
-                                var mdf = spans.modify();
-                                for (int i = startLine + 1; i <= endLine; i++) {
-                                    mdf.deleteLineAt(startLine + 1);
-                                }
-                                int line = startLine;
-                                while (line < shadowed.getLineCount()) {
-                                    var res = tokenizeLine(shadowed.getLine(line), state, line);
-                                    mdf.setSpansOnLine(line, res.spans != null ? res.spans : generateSpansForLine(res));
-                                    var old = states.set(line, res.clearSpans());
-                                    if (old != null) {
-                                        onAbandonState(old.state);
-                                    }
-                                    onAddState(res.state);
-                                    if (stateEquals(old == null ? null : old.state, res.state)) {
-                                        break;
-                                    }
-                                    state = res.state;
-                                    line++;
-                                }
-                                updateEnd = line;
-                            } else {
-                                shadowed.insert(IntPair.getFirst(mod.start), IntPair.getSecond(mod.start), mod.changedText);
-                                S state = startLine == 0 ? getInitialState() : states.get(startLine - 1).state;
-                                int line = startLine;
-                                var spans = styles.spans.modify();
-                                // Add Lines
-                                while (line <= endLine) {
-                                    var res = tokenizeLine(shadowed.getLine(line), state, line);
-                                    if (line == startLine) {
-                                        spans.setSpansOnLine(line, res.spans != null ? res.spans : generateSpansForLine(res));
-                                        var old = states.set(line, res.clearSpans());
-                                        if (old != null) {
-                                            onAbandonState(old.state);
-                                        }
-                                    } else {
-                                        spans.addLineAt(line, res.spans != null ? res.spans : generateSpansForLine(res));
-                                        states.add(line, res.clearSpans());
-                                    }
-                                    onAddState(res.state);
-                                    state = res.state;
-                                    line++;
-                                }
-                                // line = end.line + 1, check whether the state equals
-                                boolean flag = true;
-                                while (line < shadowed.getLineCount() && flag) {
-                                    var res = tokenizeLine(shadowed.getLine(line), state, line);
-                                    if (stateEquals(res.state, states.get(line).state)) {
-                                        flag = false;
-                                    }
-                                    spans.setSpansOnLine(line, res.spans != null ? res.spans : generateSpansForLine(res));
-                                    var old = states.set(line, res.clearSpans());
-                                    if (old != null) {
-                                        onAbandonState(old.state);
-                                    }
-                                    onAddState(res.state);
-                                    state = res.state;
-                                    line++;
-                                }
-                                updateEnd = line;
+                            // Apply all pending modifications, and tokenize their lines at once
+                            applyModification((TextModification) msg.obj);
+                            int count = 1;
+                            Message next;
+                            while ((next = messageQueue.peek()) != null && next.what == MSG_MOD) {
+                                messageQueue.poll();
+                                applyModification((TextModification) next.obj);
+                                next.recycle();
+                                count++;
+                            }
+                            myRunCount = runCount;
+                            modificationCount += count;
+                            coalescedModificationCount += count - 1;
+                            // Tokenize visible lines and a limited count of lines after them, so
+                            // that the update is sent soon. Remaining lines are analyzed in background.
+                            int fromLine = 0, limitLine = dirtyLines.getStart(0);
+                            final var r = getReceiver();
+                            long visibleRange = r == null ? -1 : r.getVisibleLineRange();
+                            if (visibleRange != -1) {
+                                fromLine = IntPair.getFirst(visibleRange);
+                                limitLine = Math.max(fromLine, IntPair.getSecond(visibleRange));
+                            }
+                            long range = tokenizeDirtyLines(fromLine, limitLine + MODIFICATION_BUDGET_LINES);
+                            if (dirtyLines.isEmpty()) {
+                                updateBlocks();
+                            }
+                            if (range != -1 && !abort) {
+                                sendUpdate(styles, IntPair.getFirst(range), IntPair.getSecond(range));
                             }
-                        }
-                        // Do not update incomplete code blocks
-                        var blocks = computeBlocks(shadowed, delegate);
-                        if (delegate.isNotCancelled()) {
-                            styles.blocks = blocks;
-                            styles.finishBuilding();
-                            styles.setSuppressSwitch(delegate.suppressSwitch);
-                        }
-                        if (!abort) {
-                            sendUpdate(styles, updateStart, updateEnd);
                         }
                         break;
                 }
@@ -580,7 +1215,17 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
         public void run() {
             try {
                 while (!abort && !isInterrupted()) {
-                    var msg = messageQueue.take();
+                    // Continue analysis of dirty lines when there is no new message
+                    var msg = dirtyLines.isEmpty() ? messageQueue.take() : messageQueue.poll();
+                    if (msg == null) {
+                        // Dirty lines are analyzed after parallel tokenization is done
+                        if (!(pendingChunks.isEmpty() ? continueDirtyLines() : applyNextChunk())) {
+                            break;
+                        }
+                        continue;
+                    }
+                    // Line indices of pending update can be changed by the message
+                    sendPendingUpdate();
                     if (!handleMessage(msg)) {
                         break;
                     }
@@ -589,10 +1234,10 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
             } catch (InterruptedException e) {
                 // ignored
             }
+            cancelChunks();
         }
     }
 
-
     public interface ReceiverConsumer {
 
         void accept(@NonNull StyleReceiver receiver);
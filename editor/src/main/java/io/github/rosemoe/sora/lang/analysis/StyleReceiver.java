@@ -29,6 +29,7 @@ import androidx.annotation.Nullable;
 import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
 import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer;
 import io.github.rosemoe.sora.lang.styling.Styles;
+import io.github.rosemoe.sora.util.IntPair;
 
 /**
  * A {@link StyleReceiver} receives spans and other styles from analyzers.
@@ -86,4 +87,14 @@ public interface StyleReceiver {
      */
     void updateBracketProvider(@NonNull AnalyzeManager sourceManager, @Nullable BracketsProvider provider);
 
+    /**
+     * Get the line range that is currently visible to the user, so that analyzers can analyze
+     * those lines first. You can call it in any thread.
+     *
+     * @return first and last visible line packed by {@link IntPair#pack(int, int)}, or -1 if unknown
+     */
+    default long getVisibleLineRange() {
+        return -1;
+    }
+
 }
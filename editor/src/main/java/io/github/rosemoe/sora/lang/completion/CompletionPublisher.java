@@ -52,6 +52,11 @@ import io.github.rosemoe.sora.lang.Language;
  * your side to release.
  * If you want to disable this feature, you may want to set it to {@link Integer#MAX_VALUE}
  * <p>
+ * Each batch of pending items is sorted in the thread committing it, and merged into the displayed
+ * items in UI thread. With an item limit set by {@link CompletionPublisher#setItemLimit(int)}, only
+ * the first items are kept in the displayed list, and others are added when the user scrolls to
+ * the end of the list.
+ * <p>
  * You can set a comparator by {@link CompletionPublisher#setComparator(Comparator)} to sort your
  * result items, but you should not make it too complex, which will cause laggy in UI thread. It is
  * recommended that you set the comparator before all your actions.
@@ -69,19 +74,32 @@ public class CompletionPublisher {
      * Default value for {@link CompletionPublisher#setUpdateThreshold(int)}
      */
     public final static int DEFAULT_UPDATE_THRESHOLD = 5;
+    /**
+     * Batches not larger than this are inserted item by item, instead of being merged linearly
+     */
+    private final static int INSERTION_MERGE_THRESHOLD = 32;
     private final List<CompletionItem> items;
+    /**
+     * Items not in {@link #items} because of item limit. They are never less than displayed items.
+     */
+    private final List<CompletionItem> overflowItems;
     private final List<CompletionItem> candidates;
     private final Lock lock;
     private final Handler handler;
     private final Runnable callback;
     private final int languageInterruptionLevel;
-    private Comparator<CompletionItem> comparator;
+    private volatile Comparator<CompletionItem> comparator;
     private int updateThreshold;
     private boolean invalid = false;
+    private volatile boolean complete = false;
+    private volatile int committedCount = 0;
+    private int itemLimit = Integer.MAX_VALUE;
+    private int displayLimit = Integer.MAX_VALUE;
 
     public CompletionPublisher(@NonNull Handler handler, @NonNull Runnable callback, int languageInterruptionLevel) {
         this.handler = handler;
         this.items = new ArrayList<>();
+        this.overflowItems = new ArrayList<>();
         this.candidates = new ArrayList<>();
         lock = new ReentrantLock(true);
         updateThreshold = DEFAULT_UPDATE_THRESHOLD;
@@ -93,7 +111,7 @@ public class CompletionPublisher {
      * Checks whether there is data
      */
     public boolean hasData() {
-        return items.size() + candidates.size() > 0;
+        return committedCount + candidates.size() > 0;
     }
 
     /**
@@ -104,6 +122,79 @@ public class CompletionPublisher {
         return items;
     }
 
+    /**
+     * Check whether some items are not displayed because of item limit
+     *
+     * @see #setItemLimit(int)
+     */
+    @UnsupportedUserUsage
+    public boolean hasMoreItems() {
+        return !overflowItems.isEmpty();
+    }
+
+    /**
+     * Display more items not displayed because of item limit. Must be called on UI thread.
+     *
+     * @see #setItemLimit(int)
+     */
+    @UnsupportedUserUsage
+    public void loadMoreItems() {
+        if (invalid || overflowItems.isEmpty()) {
+            return;
+        }
+        final var comparator = this.comparator;
+        if (comparator != null) {
+            Collections.sort(overflowItems, comparator);
+        }
+        displayLimit = (int) Math.min(Integer.MAX_VALUE, (long) displayLimit + itemLimit);
+        var head = overflowItems.subList(0, Math.min(overflowItems.size(), displayLimit - items.size()));
+        items.addAll(head);
+        head.clear();
+        callback.run();
+    }
+
+    /**
+     * Get all items committed, including those not displayed because of item limit. Must be called on UI thread.
+     */
+    @UnsupportedUserUsage
+    @NonNull
+    public List<CompletionItem> getAllItems() {
+        var result = new ArrayList<CompletionItem>(items.size() + overflowItems.size());
+        result.addAll(items);
+        result.addAll(overflowItems);
+        return result;
+    }
+
+    /**
+     * Replace all committed items with the given sorted items. Must be called on UI thread.
+     */
+    @UnsupportedUserUsage
+    public void setItems(@NonNull List<CompletionItem> sortedItems) {
+        if (invalid) {
+            return;
+        }
+        items.clear();
+        overflowItems.clear();
+        displayLimit = itemLimit;
+        mergeItems(sortedItems, comparator);
+        callback.run();
+    }
+
+    /**
+     * Set the max count of items displayed at first. More items are sorted and displayed when
+     * the user scrolls to the end of the list. It should be set before adding items.
+     * <p>
+     * With a large item count, this reduces work in UI thread to merge new items.
+     * By default, there is no limit.
+     */
+    public void setItemLimit(int itemLimit) {
+        if (itemLimit <= 0) {
+            throw new IllegalArgumentException("item limit must be positive");
+        }
+        this.itemLimit = itemLimit;
+        this.displayLimit = itemLimit;
+    }
+
     /**
      * Set the max pending items in analyzing thread.
      * See class javadoc for more information.
@@ -123,17 +214,56 @@ public class CompletionPublisher {
             return;
         }
         this.comparator = comparator;
-        if (!items.isEmpty() && comparator != null) {
+        if (committedCount > 0 && comparator != null) {
             handler.post(() -> {
                 if (invalid) {
                     return;
                 }
-                Collections.sort(items, comparator);
+                var all = getAllItems();
+                Collections.sort(all, comparator);
+                items.clear();
+                overflowItems.clear();
+                mergeItems(all, comparator);
                 callback.run();
             });
         }
     }
 
+    /**
+     * Get the result's comparator
+     *
+     * @see #setComparator(Comparator)
+     */
+    @Nullable
+    public Comparator<CompletionItem> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Mark whether the items are complete for longer prefixes.
+     * <p>
+     * If the result is complete, typing more characters of the word can only remove items from the
+     * result. The editor then filters and sorts the published items again by itself as the user types,
+     * instead of requesting completion from the language. Languages whose results depend on more than the
+     * prefix should leave this false, which is the default.
+     * <p>
+     * Refined items are completed at the cursor after the typed characters, and their prefix lengths
+     * include the typed characters. Items that replace ranges computed at request time must move the
+     * ranges by the typed characters.
+     *
+     * @see CompletionRefiner
+     */
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * @see #setComplete(boolean)
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
     /**
      * Add items in the completion list.
      * <p>
@@ -194,69 +324,104 @@ public class CompletionPublisher {
     /**
      * Update completion items on main thread
      *
-     * @param forced If true, the main thread will wait for the lock. Otherwise, when the lock is
+     * @param forced If true, the calling thread will wait for the lock. Otherwise, when the lock is
      *               currently available for the thread, the update will be executed.
      */
     public void updateList(boolean forced) {
         if (invalid) {
             return;
         }
+        // Lock the candidate list accordingly
+        if (forced) {
+            lock.lock();
+        } else if (!lock.tryLock()) {
+            return;
+        }
+        List<CompletionItem> batch = null;
+        final Comparator<CompletionItem> comparator;
+        try {
+            if (!candidates.isEmpty()) {
+                batch = new ArrayList<>(candidates);
+                candidates.clear();
+                committedCount += batch.size();
+            }
+            comparator = this.comparator;
+        } finally {
+            lock.unlock();
+        }
+        if (batch != null && comparator != null) {
+            // Sort outside of UI thread, so that UI thread only merges
+            Collections.sort(batch, comparator);
+        }
+        final var sortedBatch = batch;
         handler.post(() -> {
-            // Lock the candidate list accordingly
             if (invalid) {
                 callback.run();
                 return;
             }
-            var locked = false;
-            if (forced) {
-                lock.lock();
-                locked = true;
-            } else {
-                locked = lock.tryLock();
+            if (sortedBatch != null) {
+                final var current = this.comparator;
+                if (current != comparator && current != null) {
+                    // Comparator is changed after sorting
+                    Collections.sort(sortedBatch, current);
+                }
+                mergeItems(sortedBatch, current);
             }
+            callback.run();
+        });
+    }
 
-            if (locked) {
-                try {
-                    if (candidates.isEmpty()) {
-                        callback.run();
-                        return;
-                    }
-                    final var comparator = this.comparator;
-                    if (comparator != null) {
-                        while (!candidates.isEmpty()) {
-                            var candidate = candidates.remove(0);
-                            // Insert the value by binary search
-                            int left = 0, right = items.size();
-                            var size = right;
-                            while (left <= right) {
-                                var mid = (left + right) / 2;
-                                if (mid < 0 || mid >= size) {
-                                    left = mid;
-                                    break;
-                                }
-                                var cmp = comparator.compare(items.get(mid), candidate);
-                                if (cmp < 0) {
-                                    left = mid + 1;
-                                } else if (cmp > 0) {
-                                    right = mid - 1;
-                                } else {
-                                    left = mid;
-                                    break;
-                                }
-                            }
-                            left = Math.max(0, Math.min(size, left));
-                            items.add(left, candidate);
-                        }
+    /**
+     * Merge sorted items into displayed items, and move items exceeding item limit to overflow items
+     */
+    private void mergeItems(List<CompletionItem> sortedItems, Comparator<CompletionItem> comparator) {
+        if (comparator == null || items.isEmpty()) {
+            if (items.size() >= displayLimit) {
+                overflowItems.addAll(sortedItems);
+                return;
+            }
+            items.addAll(sortedItems);
+        } else if (sortedItems.size() <= INSERTION_MERGE_THRESHOLD) {
+            // Few items, find their positions by binary search. Positions are increasing.
+            int left = 0;
+            for (int index = 0; index < sortedItems.size(); index++) {
+                var item = sortedItems.get(index);
+                int right = items.size();
+                while (left < right) {
+                    int mid = (left + right) >>> 1;
+                    if (comparator.compare(items.get(mid), item) <= 0) {
+                        left = mid + 1;
                     } else {
-                        items.addAll(candidates);
-                        candidates.clear();
+                        right = mid;
                     }
-                    callback.run();
-                } finally {
-                    lock.unlock();
                 }
+                if (left >= displayLimit) {
+                    // This and following items are not displayed
+                    overflowItems.addAll(sortedItems.subList(index, sortedItems.size()));
+                    break;
+                }
+                items.add(left, item);
+                left++;
             }
-        });
+        } else {
+            // Merge from the end, so that each item is moved once
+            int i = items.size() - 1;
+            int j = sortedItems.size() - 1;
+            items.addAll(sortedItems);
+            int k = items.size() - 1;
+            while (j >= 0) {
+                if (i >= 0 && comparator.compare(items.get(i), sortedItems.get(j)) > 0) {
+                    items.set(k--, items.get(i--));
+                } else {
+                    items.set(k--, sortedItems.get(j--));
+                }
+            }
+        }
+        if (items.size() > displayLimit) {
+            var tail = items.subList(displayLimit, items.size());
+            overflowItems.addAll(tail);
+            tail.clear();
+        }
     }
 
 
@@ -0,0 +1,206 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import io.github.rosemoe.sora.util.CharCode;
+import io.github.rosemoe.sora.util.MyCharacter;
+
+/**
+ * Refines a complete completion result as the user keeps typing the word, without requesting
+ * completion from the language again.
+ * <p>
+ * Items are filtered and scored with the longer prefix in the same way as
+ * {@link Comparators#getCompletionItemComparator}: an item with sort text must match the prefix
+ * with both its sort text and its label, and is ranked by the label score. Other items are matched
+ * with their labels. Scores stored by the comparator are updated, and items are sorted again by the
+ * comparator of the result, so that the ranking is the same as in a new completion pass. Prefix lengths of items are
+ * updated in place, so that the completion replaces the whole prefix.
+ * <p>
+ * When the typed text grows, only items matched last time are matched again.
+ *
+ * @author Rosemoe
+ * @see CompletionPublisher#setComplete(boolean)
+ */
+public class CompletionRefiner {
+
+    private final List<CompletionItem> items;
+    private final int[] prefixLengths;
+    private final String[] labels;
+    private final String[] labelsLow;
+    private final String[] filterTexts;
+    private final String[] filterTextsLow;
+    private final Comparator<CompletionItem> comparator;
+    private int[] lastMatched;
+    private int lastMatchedCount;
+    private String lastTyped;
+
+    /**
+     * Create a refiner for a complete completion result
+     *
+     * @param items      Items of the result
+     * @param comparator Comparator of the result
+     */
+    public CompletionRefiner(@NonNull List<CompletionItem> items, @Nullable Comparator<CompletionItem> comparator) {
+        this.items = new ArrayList<>(items);
+        this.comparator = comparator;
+        int size = this.items.size();
+        prefixLengths = new int[size];
+        labels = new String[size];
+        labelsLow = new String[size];
+        filterTexts = new String[size];
+        filterTextsLow = new String[size];
+        for (int i = 0; i < size; i++) {
+            var item = this.items.get(i);
+            prefixLengths[i] = item.prefixLength;
+            labels[i] = item.label == null ? " " : item.label.toString();
+            labelsLow[i] = labels[i].toLowerCase(Locale.ROOT);
+            if (item.sortText != null && !item.sortText.isEmpty()) {
+                // Same sort text and label instance needs only one match
+                filterTexts[i] = item.sortText == item.label ? labels[i] : item.sortText;
+                filterTextsLow[i] = filterTexts[i] == labels[i] ? labelsLow[i] : filterTexts[i].toLowerCase(Locale.ROOT);
+            }
+        }
+    }
+
+    /**
+     * Check if the given text typed after the completion position only extends the word
+     */
+    public static boolean isWordPart(@NonNull CharSequence typed) {
+        for (int i = 0; i < typed.length(); i++) {
+            if (!MyCharacter.isJavaIdentifierPart(typed.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Refine the items with the text typed after the completion position.
+     *
+     * @param line   Text of the line
+     * @param column Column after the typed text
+     * @param typed  Text typed after the completion position
+     * @return Matched items, sorted by the comparator
+     */
+    @NonNull
+    public List<CompletionItem> refine(@NonNull CharSequence line, int column, @NonNull String typed) {
+        int[] candidates;
+        int candidateCount;
+        if (lastTyped != null && typed.startsWith(lastTyped)) {
+            // Matched items can only be fewer
+            candidates = lastMatched;
+            candidateCount = lastMatchedCount;
+        } else {
+            candidates = null;
+            candidateCount = items.size();
+        }
+        var longLine = line.length() > 2000;
+        var matched = new int[candidateCount];
+        var matchedCount = 0;
+        var result = new ArrayList<CompletionItem>(candidateCount);
+        String word = null, wordLow = null;
+        var wordPos = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            var index = candidates == null ? i : candidates[i];
+            var item = items.get(index);
+            var wordLen = prefixLengths[index] + typed.length();
+            if (word == null || word.length() != wordLen) {
+                word = line.subSequence(column - wordLen, column).toString();
+                wordLow = word.toLowerCase(Locale.ROOT);
+                // skip word characters that are whitespace
+                wordPos = 0;
+                while (wordPos < wordLen) {
+                    var ch = word.charAt(wordPos);
+                    if (ch == CharCode.Space || ch == CharCode.Tab) {
+                        wordPos++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            FuzzyScore score;
+            if (wordPos >= wordLen) {
+                // nothing to score against
+                score = FuzzyScore.getDefault();
+            } else if (filterTexts[index] != null) {
+                // The sort text must match, and the label gives the score
+                var match = score(word, wordLow, wordPos, filterTexts[index], filterTextsLow[index], longLine);
+                if (match == null) {
+                    continue;
+                }
+                if (filterTexts[index] == labels[index]) {
+                    score = match;
+                } else {
+                    score = score(word, wordLow, wordPos, labels[index], labelsLow[index], longLine);
+                    if (score == null) {
+                        continue;
+                    }
+                    if (!score.getMatches().isEmpty() && !match.getMatches().isEmpty()) {
+                        score.getMatches().set(0, match.getMatches().get(0));
+                    }
+                }
+            } else {
+                score = score(word, wordLow, wordPos, labels[index], labelsLow[index], longLine);
+                if (score == null) {
+                    continue;
+                }
+            }
+            if (item.extra instanceof SortedCompletionItem) {
+                ((SortedCompletionItem) item.extra).setScore(score);
+            } else if (item.extra == null) {
+                item.extra = new SortedCompletionItem(item, score);
+            }
+            item.prefixLength = wordLen;
+            matched[matchedCount++] = index;
+            result.add(item);
+        }
+        lastTyped = typed;
+        lastMatched = matched;
+        lastMatchedCount = matchedCount;
+        if (comparator != null) {
+            Collections.sort(result, comparator);
+        }
+        return result;
+    }
+
+    @Nullable
+    private static FuzzyScore score(String word, String wordLow, int wordPos, String text, String textLow,
+                                    boolean longLine) {
+        if (longLine) {
+            return FuzzyScoreEngine.fuzzyScore(word, wordLow, wordPos, text, textLow, 0, FuzzyScoreOptions.getDefault());
+        }
+        return FuzzyScoreEngine.fuzzyScoreWithPermutations(word, wordLow, wordPos, text, textLow, 0, true,
+                FuzzyScoreOptions.getDefault());
+    }
+
+}
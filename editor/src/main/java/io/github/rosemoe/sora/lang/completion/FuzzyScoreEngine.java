@@ -0,0 +1,620 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import io.github.rosemoe.sora.util.CharCode;
+import io.github.rosemoe.sora.util.MyCharacter;
+
+/**
+ * Fuzzy scoring engine behind {@link Filters#fuzzyScore(String, String, int, String, String, int, FuzzyScoreOptions)}
+ * and its graceful variants.
+ * <p>
+ * Each thread has its own engine with preallocated score tables, so scoring is thread-safe and does
+ * not allocate except for the returned {@link FuzzyScore}. Typo permutations of ASCII patterns are
+ * scored in place, without creating new strings.
+ * <p>
+ * {@link #scoreAll(String, int, List, boolean, FuzzyScoreOptions)} scores many words against one pattern
+ * and returns primitive scores. Words missing any char of the pattern are rejected by a char mask before
+ * scoring, and long lists are scored in parallel in the common {@link ForkJoinPool}.
+ *
+ * @author Rosemoe
+ */
+public final class FuzzyScoreEngine {
+
+    /**
+     * Score returned for words that are not matched
+     */
+    public final static int NO_MATCH = Integer.MIN_VALUE;
+
+    private final static int MAX_LEN = 32;
+    private final static int ARROW_DIAG = 1;
+    private final static int ARROW_LEFT = 2;
+    private final static int ARROW_LEFT_LEFT = 3;
+    /**
+     * Word count scored by a single task in {@link #scoreAll(String, int, List, boolean, FuzzyScoreOptions)}
+     */
+    private final static int BATCH_SIZE = 512;
+    private final static ThreadLocal<FuzzyScoreEngine> sLocal = new ThreadLocal<>();
+
+    private final int[] minWordMatchPos = new int[2 * MAX_LEN];
+    private final int[] maxWordMatchPos = new int[2 * MAX_LEN];
+    private final int[][] diag = new int[MAX_LEN][MAX_LEN];
+    private final int[][] table = new int[MAX_LEN][MAX_LEN];
+    private final int[][] arrows = new int[MAX_LEN][MAX_LEN];
+    private boolean hasStrongFirstMatch;
+    private final int[] matches = new int[MAX_LEN];
+    private int matchCount;
+    private final int[] bestMatches = new int[MAX_LEN];
+    private int bestMatchCount;
+    private final char[] patternBuffer = new char[MAX_LEN];
+    private final char[] patternLowBuffer = new char[MAX_LEN];
+    private final char[] permutationBuffer = new char[MAX_LEN];
+    private final char[] permutationLowBuffer = new char[MAX_LEN];
+
+    private FuzzyScoreEngine() {
+    }
+
+    @NonNull
+    private static FuzzyScoreEngine getInstance() {
+        var engine = sLocal.get();
+        if (engine == null) {
+            engine = new FuzzyScoreEngine();
+            sLocal.set(engine);
+        }
+        return engine;
+    }
+
+    /**
+     * Score the word with the pattern.
+     *
+     * @see Filters#fuzzyScore(String, String, int, String, String, int, FuzzyScoreOptions)
+     */
+    @Nullable
+    public static FuzzyScore fuzzyScore(@NonNull String pattern, @NonNull String patternLow, int patternStart,
+                                        @NonNull String word, @NonNull String wordLow, int wordStart,
+                                        @Nullable FuzzyScoreOptions options) {
+        var engine = getInstance();
+        engine.loadPattern(pattern, patternLow);
+        var score = engine.score(engine.patternBuffer, engine.patternLowBuffer, pattern.length(), patternStart,
+                word, wordLow, wordStart, options);
+        if (score == NO_MATCH) {
+            return null;
+        }
+        return engine.createResult(score, wordStart, engine.matches, engine.matchCount);
+    }
+
+    /**
+     * Score the word with the pattern, and also with some typo permutations of the pattern.
+     *
+     * @param aggressive Try permutations even if the pattern itself matches the word
+     * @see Filters#fuzzyScoreGracefulAggressive(String, String, int, String, String, int, FuzzyScoreOptions)
+     */
+    @Nullable
+    public static FuzzyScore fuzzyScoreWithPermutations(@NonNull String pattern, @NonNull String patternLow, int patternPos,
+                                                        @NonNull String word, @NonNull String wordLow, int wordPos,
+                                                        boolean aggressive, @Nullable FuzzyScoreOptions options) {
+        var engine = getInstance();
+        engine.loadPattern(pattern, patternLow);
+        var score = engine.scoreWithPermutations(pattern, patternPos, word, wordLow, wordPos, aggressive,
+                options == null ? FuzzyScoreOptions.getDefault() : options);
+        if (score == NO_MATCH) {
+            return null;
+        }
+        return engine.createResult(score, wordPos, engine.bestMatches, engine.bestMatchCount);
+    }
+
+    /**
+     * Score words with the pattern, in the same way as
+     * {@link #fuzzyScoreWithPermutations(String, String, int, String, String, int, boolean, FuzzyScoreOptions)},
+     * with lowercase forms of the pattern and words computed by {@link String#toLowerCase(Locale)} with
+     * {@link Locale#ROOT}. Long lists are scored in parallel.
+     *
+     * @param pattern    The pattern
+     * @param patternPos Start position of pattern
+     * @param words      Words to score, from position 0
+     * @param aggressive Try permutations even if the pattern itself matches the word
+     * @param options    Options for scoring
+     * @return Score of each word, or {@link #NO_MATCH} if a word is not matched
+     */
+    @NonNull
+    public static int[] scoreAll(@NonNull String pattern, int patternPos, @NonNull List<String> words,
+                                 boolean aggressive, @Nullable FuzzyScoreOptions options) {
+        var batch = new Batch(pattern, patternPos, words instanceof RandomAccess ? words : new ArrayList<>(words),
+                aggressive, options == null ? FuzzyScoreOptions.getDefault() : options);
+        if (batch.words.size() <= BATCH_SIZE || ForkJoinPool.getCommonPoolParallelism() <= 1) {
+            batch.score(0, batch.words.size());
+        } else {
+            ForkJoinPool.commonPool().invoke(new BatchTask(batch, 0, batch.words.size()));
+        }
+        return batch.scores;
+    }
+
+    private void loadPattern(String pattern, String patternLow) {
+        pattern.getChars(0, Math.min(pattern.length(), MAX_LEN), patternBuffer, 0);
+        patternLow.getChars(0, Math.min(patternLow.length(), MAX_LEN), patternLowBuffer, 0);
+    }
+
+    private FuzzyScore createResult(int score, int wordStart, int[] matches, int matchCount) {
+        var list = new ArrayList<Integer>(matchCount);
+        for (int i = 0; i < matchCount; i++) {
+            list.add(matches[i]);
+        }
+        return new FuzzyScore(score, wordStart, list);
+    }
+
+    /**
+     * Score with the pattern in buffers and its permutations. Matches of the result are stored in
+     * {@link #bestMatches}.
+     */
+    private int scoreWithPermutations(String pattern, int patternPos, String word, String wordLow, int wordPos,
+                                      boolean aggressive, FuzzyScoreOptions options) {
+        var top = score(patternBuffer, patternLowBuffer, pattern.length(), patternPos, word, wordLow, wordPos, options);
+        if (top != NO_MATCH) {
+            System.arraycopy(matches, 0, bestMatches, 0, matchCount);
+            bestMatchCount = matchCount;
+            if (!aggressive) {
+                return top;
+            }
+        }
+        if (pattern.length() >= 3) {
+            // When the pattern is long enough then try a few (max 7) permutations of the pattern to
+            // find a better match. The permutations only swap neighbouring characters.
+            var tries = Math.min(7, pattern.length() - 1);
+            for (int movingPatternPos = patternPos + 1; movingPatternPos < tries; movingPatternPos++) {
+                var candidate = scorePermutation(pattern, patternPos, movingPatternPos, word, wordLow, wordPos, options);
+                if (candidate != NO_MATCH) {
+                    // permutation penalty
+                    candidate -= 3;
+                    if (top == NO_MATCH || candidate > top) {
+                        top = candidate;
+                        System.arraycopy(matches, 0, bestMatches, 0, matchCount);
+                        bestMatchCount = matchCount;
+                    }
+                }
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Score with the pattern whose chars at swapPos and swapPos + 1 are swapped
+     */
+    private int scorePermutation(String pattern, int patternPos, int swapPos, String word, String wordLow,
+                                 int wordPos, FuzzyScoreOptions options) {
+        if (swapPos + 1 >= pattern.length()) {
+            return NO_MATCH;
+        }
+        var swap1 = pattern.charAt(swapPos);
+        var swap2 = pattern.charAt(swapPos + 1);
+        if (swap1 == swap2) {
+            return NO_MATCH;
+        }
+        var length = Math.min(pattern.length(), MAX_LEN);
+        char[] permuted, permutedLow;
+        if (isAscii(pattern, length)) {
+            permuted = permutationBuffer;
+            permutedLow = permutationLowBuffer;
+            pattern.getChars(0, length, permuted, 0);
+            permuted[swapPos] = swap2;
+            permuted[swapPos + 1] = swap1;
+            for (int i = 0; i < length; i++) {
+                var ch = permuted[i];
+                permutedLow[i] = ch >= 'A' && ch <= 'Z' ? (char) (ch + ('a' - 'A')) : ch;
+            }
+        } else {
+            var newPattern = pattern.substring(0, swapPos) + swap2 + swap1 + pattern.substring(swapPos + 2);
+            permuted = newPattern.toCharArray();
+            permutedLow = newPattern.toLowerCase(Locale.ROOT).toCharArray();
+        }
+        return score(permuted, permutedLow, pattern.length(), patternPos, word, wordLow, wordPos, options);
+    }
+
+    private static boolean isAscii(String text, int length) {
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute fuzzy score. Matches are stored in {@link #matches}.
+     *
+     * @return The score, or {@link #NO_MATCH}
+     */
+    private int score(char[] pattern, char[] patternLow, int patternLength, int patternStart,
+                      String word, String wordLow, int wordStart, @Nullable FuzzyScoreOptions options) {
+        var patternLen = Math.min(patternLength, MAX_LEN);
+        var wordLen = Math.min(word.length(), MAX_LEN - 1);
+
+        if (patternStart >= patternLen || wordStart >= wordLen || (patternLen - patternStart) > (wordLen - wordStart)) {
+            return NO_MATCH;
+        }
+
+        // Run a simple check if the characters of pattern occur (in order) at all in word, and
+        // remember the min word position for each pattern position
+        var patternPos = patternStart;
+        var wordPos = wordStart;
+        while (patternPos < patternLen && wordPos < wordLen) {
+            if (patternLow[patternPos] == wordLow.charAt(wordPos)) {
+                minWordMatchPos[patternPos] = wordPos;
+                patternPos++;
+            }
+            wordPos++;
+        }
+        if (patternPos != patternLen) {
+            return NO_MATCH;
+        }
+
+        // Find the max matching word position for each pattern position
+        patternPos = patternLen - 1;
+        wordPos = wordLen - 1;
+        while (patternPos >= patternStart && wordPos >= wordStart) {
+            if (patternLow[patternPos] == wordLow.charAt(wordPos)) {
+                maxWordMatchPos[patternPos] = wordPos;
+                patternPos--;
+            }
+            wordPos--;
+        }
+
+        var row = 1;
+        var column = 1;
+        patternPos = patternStart;
+        hasStrongFirstMatch = false;
+
+        // There will be a match, fill in tables
+        while (patternPos < patternLen) {
+            // Reduce search space to possible matching word positions and to possible access from next row
+            var minPos = minWordMatchPos[patternPos];
+            var maxPos = maxWordMatchPos[patternPos];
+            var nextMaxPos = patternPos + 1 < patternLen ? maxWordMatchPos[patternPos + 1] : wordLen;
+            var tableRow = table[row];
+            var lastTableRow = table[row - 1];
+            var diagRow = diag[row];
+            var lastDiagRow = diag[row - 1];
+            var arrowRow = arrows[row];
+
+            column = minPos - wordStart + 1;
+            wordPos = minPos;
+
+            while (wordPos < nextMaxPos) {
+                var score = Integer.MIN_VALUE;
+                var canComeDiag = false;
+
+                if (wordPos <= maxPos) {
+                    score = doScore(pattern, patternLow, patternPos, patternStart, word, wordLow, wordPos,
+                            wordLen, wordStart, lastDiagRow[column - 1] == 0);
+                }
+
+                var diagScore = 0;
+                if (score != Integer.MIN_VALUE) {
+                    canComeDiag = true;
+                    diagScore = score + lastTableRow[column - 1];
+                }
+
+                var canComeLeft = wordPos > minPos;
+                // penalty for a gap start
+                var leftScore = canComeLeft ? tableRow[column - 1] + (diagRow[column - 1] > 0 ? -5 : 0) : 0;
+
+                var canComeLeftLeft = wordPos > minPos + 1 && diagRow[column - 1] > 0;
+                var leftLeftScore = canComeLeftLeft ? tableRow[column - 2] + (diagRow[column - 2] > 0 ? -5 : 0) : 0;
+
+                if (canComeLeftLeft && (!canComeLeft || leftLeftScore >= leftScore) && (!canComeDiag || leftLeftScore >= diagScore)) {
+                    // always prefer choosing left left to jump over a diagonal because that means a match is earlier in the word
+                    tableRow[column] = leftLeftScore;
+                    arrowRow[column] = ARROW_LEFT_LEFT;
+                    diagRow[column] = 0;
+                } else if (canComeLeft && (!canComeDiag || leftScore >= diagScore)) {
+                    // always prefer choosing left since that means a match is earlier in the word
+                    tableRow[column] = leftScore;
+                    arrowRow[column] = ARROW_LEFT;
+                    diagRow[column] = 0;
+                } else if (canComeDiag) {
+                    tableRow[column] = diagScore;
+                    arrowRow[column] = ARROW_DIAG;
+                    diagRow[column] = lastDiagRow[column - 1] + 1;
+                } else {
+                    throw new IllegalStateException("not possible");
+                }
+                column++;
+                wordPos++;
+            }
+            row++;
+            patternPos++;
+        }
+
+        if (!hasStrongFirstMatch && options != null && !options.getFirstMatchCanBeWeak()) {
+            return NO_MATCH;
+        }
+
+        row--;
+        column--;
+
+        var result = table[row][column];
+        var backwardsDiagLength = 0;
+        var maxMatchColumn = 0;
+        matchCount = 0;
+
+        while (row >= 1) {
+            // Find the column where we go diagonally up
+            var diagColumn = column;
+            do {
+                var arrow = arrows[row][diagColumn];
+                if (arrow == ARROW_LEFT_LEFT) {
+                    diagColumn -= 2;
+                } else if (arrow == ARROW_LEFT) {
+                    diagColumn -= 1;
+                } else {
+                    // found the diagonal
+                    break;
+                }
+            } while (diagColumn >= 1);
+
+            // Overturn the "forwards" decision if keeping the "backwards" diagonal would give a better match
+            if (backwardsDiagLength > 1 // only if we would have a contiguous match of 3 characters
+                    && patternLow[patternStart + row - 1] == wordLow.charAt(wordStart + column - 1) // only if we can do a contiguous match diagonally
+                    && !isUpperCaseAtPos(diagColumn + wordStart - 1, word, wordLow) // only if the forwards chose diagonal is not an uppercase
+                    && backwardsDiagLength + 1 > diag[row][diagColumn] // only if our contiguous match would be longer than the "forwards" contiguous match
+            ) {
+                diagColumn = column;
+            }
+
+            if (diagColumn == column) {
+                // this is a contiguous match
+                backwardsDiagLength++;
+            } else {
+                backwardsDiagLength = 1;
+            }
+
+            if (maxMatchColumn == 0) {
+                // remember the last matched column
+                maxMatchColumn = diagColumn;
+            }
+
+            row--;
+            column = diagColumn - 1;
+            matches[matchCount++] = column;
+        }
+
+        if (wordLen == patternLen && options != null && options.getBoostFullMatch()) {
+            // the word matches the pattern with all characters!
+            // giving the score a total match boost (to come up ahead other words)
+            result += 2;
+        }
+
+        // Add 1 penalty for each skipped character in the word
+        result -= maxMatchColumn - patternLen;
+
+        return result;
+    }
+
+    private int doScore(char[] pattern, char[] patternLow, int patternPos, int patternStart,
+                        String word, String wordLow, int wordPos, int wordLen, int wordStart,
+                        boolean newMatchStart) {
+        if (patternLow[patternPos] != wordLow.charAt(wordPos)) {
+            return Integer.MIN_VALUE;
+        }
+
+        var score = 1;
+        var isGapLocation = false;
+        if (wordPos == patternPos - patternStart) {
+            // common prefix: `foobar <-> foobaz`
+            score = pattern[patternPos] == word.charAt(wordPos) ? 7 : 5;
+        } else if (isUpperCaseAtPos(wordPos, word, wordLow) && (wordPos == 0 || !isUpperCaseAtPos(wordPos - 1, word, wordLow))) {
+            // hitting upper-case: `foo <-> forOthers`
+            score = pattern[patternPos] == word.charAt(wordPos) ? 7 : 5;
+            isGapLocation = true;
+        } else if (isSeparatorAtPos(wordLow, wordPos) && (wordPos == 0 || !isSeparatorAtPos(wordLow, wordPos - 1))) {
+            // hitting a separator: `. <-> foo.bar`
+            score = 5;
+        } else if (isSeparatorAtPos(wordLow, wordPos - 1) || isWhitespaceAtPos(wordLow, wordPos - 1)) {
+            // post separator: `foo <-> bar_foo`
+            score = 5;
+            isGapLocation = true;
+        }
+
+        if (score > 1 && patternPos == patternStart) {
+            hasStrongFirstMatch = true;
+        }
+
+        if (!isGapLocation) {
+            isGapLocation = isUpperCaseAtPos(wordPos, word, wordLow) || isSeparatorAtPos(wordLow, wordPos - 1)
+                    || isWhitespaceAtPos(wordLow, wordPos - 1);
+        }
+
+        if (patternPos == patternStart) {
+            // first character in pattern
+            if (wordPos > wordStart) {
+                // the first pattern character would match a word character that is not at the word start
+                // so introduce a penalty to account for the gap preceding this match
+                score -= isGapLocation ? 3 : 5;
+            }
+        } else {
+            if (newMatchStart) {
+                // this would be the beginning of a new match (i.e. there would be a gap before this location)
+                score += isGapLocation ? 2 : 0;
+            } else {
+                // this is part of a contiguous match, so give it a slight bonus, but do so only if it would not be a preferred gap location
+                score += isGapLocation ? 0 : 1;
+            }
+        }
+
+        if (wordPos + 1 == wordLen) {
+            // we always penalize gaps, but this gives unfair advantages to a match that would match the last character in the word
+            // so pretend there is a gap after the last character in the word to normalize things
+            score -= isGapLocation ? 3 : 5;
+        }
+
+        return score;
+    }
+
+    private static boolean isUpperCaseAtPos(int pos, String word, String wordLow) {
+        return word.charAt(pos) != wordLow.charAt(pos);
+    }
+
+    private static boolean isSeparatorAtPos(String value, int index) {
+        if (index < 0 || index >= value.length()) {
+            return false;
+        }
+        var code = value.codePointAt(index);
+        switch (code) {
+            case CharCode.Underline:
+            case CharCode.Dash:
+            case CharCode.Period:
+            case CharCode.Space:
+            case CharCode.Slash:
+            case CharCode.Backslash:
+            case CharCode.SingleQuote:
+            case CharCode.DoubleQuote:
+            case CharCode.Colon:
+            case CharCode.DollarSign:
+            case CharCode.LessThan:
+            case CharCode.GreaterThan:
+            case CharCode.OpenParen:
+            case CharCode.CloseParen:
+            case CharCode.OpenSquareBracket:
+            case CharCode.CloseSquareBracket:
+            case CharCode.OpenCurlyBrace:
+            case CharCode.CloseCurlyBrace:
+                return true;
+            default:
+                return MyCharacter.couldBeEmoji(code);
+        }
+    }
+
+    private static boolean isWhitespaceAtPos(String value, int index) {
+        if (index < 0 || index >= value.length()) {
+            return false;
+        }
+        var ch = value.charAt(index);
+        return ch == CharCode.Space || ch == CharCode.Tab;
+    }
+
+    private static long charBit(char ch) {
+        if (ch >= 'a' && ch <= 'z') {
+            return 1L << (ch - 'a');
+        } else if (ch >= '0' && ch <= '9') {
+            return 1L << (26 + ch - '0');
+        } else if (ch == '_') {
+            return 1L << 36;
+        }
+        return 1L << (37 + ch % 27);
+    }
+
+    /**
+     * Words scored with one pattern
+     */
+    private static class Batch {
+
+        final String pattern;
+        final String patternLow;
+        final int patternPos;
+        final List<String> words;
+        final boolean aggressive;
+        final FuzzyScoreOptions options;
+        final int[] scores;
+        /**
+         * Chars that a word must contain to be matched, or 0 if unknown
+         */
+        final long requiredChars;
+
+        Batch(String pattern, int patternPos, List<String> words, boolean aggressive, FuzzyScoreOptions options) {
+            this.pattern = pattern;
+            this.patternLow = pattern.toLowerCase(Locale.ROOT);
+            this.patternPos = patternPos;
+            this.words = words;
+            this.aggressive = aggressive;
+            this.options = options;
+            scores = new int[words.size()];
+            var patternLen = Math.min(pattern.length(), MAX_LEN);
+            long mask = 0;
+            // Permutations of ASCII patterns have the same chars to match
+            if (isAscii(pattern, patternLen) && patternLow.length() == pattern.length()) {
+                for (int i = Math.max(0, patternPos); i < patternLen; i++) {
+                    mask |= charBit(patternLow.charAt(i));
+                }
+            }
+            requiredChars = mask;
+        }
+
+        void score(int start, int end) {
+            var engine = getInstance();
+            engine.loadPattern(pattern, patternLow);
+            for (int i = start; i < end; i++) {
+                var word = words.get(i);
+                var wordLow = word.toLowerCase(Locale.ROOT);
+                if (requiredChars != 0) {
+                    // Only chars in scored length can be matched
+                    var wordLen = Math.min(Math.min(word.length(), wordLow.length()), MAX_LEN - 1);
+                    long mask = 0;
+                    for (int j = 0; j < wordLen; j++) {
+                        mask |= charBit(wordLow.charAt(j));
+                    }
+                    if ((mask & requiredChars) != requiredChars) {
+                        scores[i] = NO_MATCH;
+                        continue;
+                    }
+                }
+                scores[i] = engine.scoreWithPermutations(pattern, patternPos, word, wordLow, 0, aggressive, options);
+            }
+        }
+
+    }
+
+    private static class BatchTask extends RecursiveAction {
+
+        private final Batch batch;
+        private final int start;
+        private final int end;
+
+        BatchTask(Batch batch, int start, int end) {
+            this.batch = batch;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= BATCH_SIZE) {
+                batch.score(start, end);
+            } else {
+                var mid = (start + end) >>> 1;
+                invokeAll(new BatchTask(batch, start, mid), new BatchTask(batch, mid, end));
+            }
+        }
+
+    }
+
+}
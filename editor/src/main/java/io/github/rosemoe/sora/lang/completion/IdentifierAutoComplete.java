@@ -23,7 +23,6 @@
  */
 package io.github.rosemoe.sora.lang.completion;
 
-import android.os.Build;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
@@ -36,15 +35,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import io.github.rosemoe.sora.lang.Language;
 import io.github.rosemoe.sora.text.CharPosition;
 import io.github.rosemoe.sora.text.ContentReference;
 import io.github.rosemoe.sora.text.TextUtils;
-import io.github.rosemoe.sora.util.MutableInt;
 
 
 /**
@@ -73,6 +68,7 @@ public class IdentifierAutoComplete {
         return asString(p1.label).compareTo(asString(p2.label));
     };
     private String[] keywords;
+    private String[] keywordsLow;
     private boolean keywordsAreLowCase;
     private Map<String, Object> keywordMap;
 
@@ -91,6 +87,14 @@ public class IdentifierAutoComplete {
     public void setKeywords(String[] keywords, boolean lowCase) {
         this.keywords = keywords;
         keywordsAreLowCase = lowCase;
+        String[] low = null;
+        if (keywords != null) {
+            low = new String[keywords.length];
+            for (int i = 0; i < keywords.length; i++) {
+                low[i] = keywords[i].toLowerCase(Locale.ROOT);
+            }
+        }
+        keywordsLow = low;
         var map = new HashMap<String, Object>();
         if (keywords != null) {
             for (var keyword : keywords) {
@@ -134,36 +138,24 @@ public class IdentifierAutoComplete {
         }
         var result = new ArrayList<CompletionItem>();
         final var keywordArray = keywords;
+        final var keywordLowArray = keywordsLow;
         final var lowCase = keywordsAreLowCase;
         final var keywordMap = this.keywordMap;
         var match = prefix.toLowerCase(Locale.ROOT);
 
-        if (keywordArray != null) {
-            if (lowCase) {
-                for (var kw : keywordArray) {
-                    var fuzzyScore = Filters.fuzzyScoreGracefulAggressive(prefix,
-                            prefix.toLowerCase(Locale.ROOT),
-                            0, kw, kw.toLowerCase(Locale.ROOT), 0, FuzzyScoreOptions.getDefault());
+        if (keywordArray != null && keywordLowArray != null) {
+            for (int i = 0; i < keywordArray.length; i++) {
+                var kw = keywordArray[i];
+                var kwLow = keywordLowArray[i];
+                var fuzzyScore = Filters.fuzzyScoreGracefulAggressive(prefix,
+                        match,
+                        0, kw, kwLow, 0, FuzzyScoreOptions.getDefault());
 
-                    var score = fuzzyScore == null ? -100 : fuzzyScore.getScore();
+                var score = fuzzyScore == null ? -100 : fuzzyScore.getScore();
 
-                    if (kw.startsWith(match) || score >= -20) {
-                        result.add(new SimpleCompletionItem(kw, "Keyword", prefixLength, kw)
-                                .kind(CompletionItemKind.Keyword));
-                    }
-                }
-            } else {
-                for (var kw : keywordArray) {
-                    var fuzzyScore = Filters.fuzzyScoreGracefulAggressive(prefix,
-                            prefix.toLowerCase(Locale.ROOT),
-                            0, kw, kw.toLowerCase(Locale.ROOT), 0, FuzzyScoreOptions.getDefault());
-
-                    var score = fuzzyScore == null ? -100 : fuzzyScore.getScore();
-
-                    if (kw.toLowerCase(Locale.ROOT).startsWith(match) || score >= -20) {
-                        result.add(new SimpleCompletionItem(kw, "Keyword", prefixLength, kw)
-                                .kind(CompletionItemKind.Keyword));
-                    }
+                if ((lowCase ? kw : kwLow).startsWith(match) || score >= -20) {
+                    result.add(new SimpleCompletionItem(kw, "Keyword", prefixLength, kw)
+                            .kind(CompletionItemKind.Keyword));
                 }
             }
         }
@@ -254,12 +246,10 @@ public class IdentifierAutoComplete {
 
         @Override
         public void filterIdentifiers(@NonNull String prefix, @NonNull List<String> dest) {
-            for (String identifier : identifiers) {
-                var fuzzyScore = Filters.fuzzyScoreGracefulAggressive(prefix,
-                        prefix.toLowerCase(Locale.ROOT),
-                        0, identifier, identifier.toLowerCase(Locale.ROOT), 0, FuzzyScoreOptions.getDefault());
-
-                var score = fuzzyScore == null ? -100 : fuzzyScore.getScore();
+            var scores = FuzzyScoreEngine.scoreAll(prefix, 0, identifiers, true, FuzzyScoreOptions.getDefault());
+            for (int i = 0; i < scores.length; i++) {
+                var identifier = identifiers.get(i);
+                var score = scores[i];
 
                 if ((TextUtils.startsWith(identifier, prefix, true) || score >= -20) && !(prefix.length() == identifier.length() && TextUtils.startsWith(prefix, identifier, false))) {
                     dest.add(identifier);
@@ -268,86 +258,38 @@ public class IdentifierAutoComplete {
         }
     }
 
+    /**
+     * Identifiers counted by the analyzer. Counting and filtering can be done concurrently, and
+     * filtering never waits for the analyzer.
+     *
+     * @see IdentifierIndex
+     */
     public static class SyncIdentifiers implements Identifiers {
 
-        private final Lock lock = new ReentrantLock(true);
-        private final Map<String, MutableInt> identifierMap = new HashMap<>();
+        private final IdentifierIndex index = new IdentifierIndex();
 
         public void clear() {
-            lock.lock();
-            try {
-                identifierMap.clear();
-            } finally {
-                lock.unlock();
-            }
+            index.clear();
         }
 
         public void identifierIncrease(@NonNull String identifier) {
-            lock.lock();
-            try {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                    identifierMap.computeIfAbsent(identifier, (x) -> new MutableInt(0)).increase();
-                } else {
-                    var counter = identifierMap.get(identifier);
-                    if (counter == null) {
-                        counter = new MutableInt(0);
-                        identifierMap.put(identifier, counter);
-                    }
-                    counter.increase();
-                }
-            } finally {
-                lock.unlock();
-            }
+            index.increase(identifier);
         }
 
         public void identifierDecrease(@NonNull String identifier) {
-            lock.lock();
-            try {
-                var count = identifierMap.get(identifier);
-                if (count != null) {
-                    if (count.decreaseAndGet() <= 0) {
-                        identifierMap.remove(identifier);
-                    }
-                }
-            } finally {
-                lock.unlock();
-            }
+            index.decrease(identifier);
         }
 
         @Override
         public void filterIdentifiers(@NonNull String prefix, @NonNull List<String> dest) {
-            filterIdentifiers(prefix, dest, false);
+            index.filter(prefix, dest);
         }
 
+        /**
+         * @param waitForLock Not used. Filtering no longer takes a lock.
+         */
         public void filterIdentifiers(@NonNull String prefix, @NonNull List<String> dest, boolean waitForLock) {
-            boolean acquired;
-            if (waitForLock) {
-                lock.lock();
-                acquired = true;
-            } else {
-                try {
-                    acquired = lock.tryLock(3, TimeUnit.MILLISECONDS);
-                } catch (InterruptedException e) {
-                    acquired = false;
-                }
-            }
-            if (acquired) {
-                try {
-                    for (String s : identifierMap.keySet()) {
-                        var fuzzyScore = Filters.fuzzyScoreGracefulAggressive(prefix,
-                                prefix.toLowerCase(Locale.ROOT),
-                                0, s, s.toLowerCase(Locale.ROOT), 0, FuzzyScoreOptions.getDefault());
-
-                        var score = fuzzyScore == null ? -100 : fuzzyScore.getScore();
-
-                        if ((TextUtils.startsWith(s, prefix, true) || score >= -20)  && !(prefix.length() == s.length() && TextUtils.startsWith(prefix, s, false))) {
-                            dest.add(s);
-                        }
-                    }
-                } finally {
-                    lock.unlock();
-                }
-            }
+            filterIdentifiers(prefix, dest);
         }
 
     }
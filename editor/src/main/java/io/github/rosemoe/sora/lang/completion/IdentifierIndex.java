@@ -0,0 +1,317 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.completion;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.rosemoe.sora.text.TextUtils;
+
+/**
+ * Index of identifiers for completion. Identifiers are counted by a single writer at a time, and
+ * the index can be queried concurrently without locks.
+ * <p>
+ * Lowercase forms and character masks of an identifier are computed once, when it is added. Readers
+ * work on an immutable snapshot sorted by lowercase form, plus the identifiers added since the
+ * snapshot is built. Prefix matches are found by binary search in the snapshot. For other identifiers,
+ * the masks skip the ones that can not be matched by fuzzy matching, before the fuzzy score is
+ * computed. The snapshot is rebuilt by the writer when enough identifiers are added or removed.
+ *
+ * @author Rosemoe
+ */
+public class IdentifierIndex {
+
+    /**
+     * Pattern length used by fuzzy matching at most
+     */
+    private final static int FUZZY_PATTERN_MAX_LENGTH = 32;
+    /**
+     * Word length used by fuzzy matching at most
+     */
+    private final static int FUZZY_WORD_MAX_LENGTH = 31;
+    private final static int MIN_REBUILD_THRESHOLD = 256;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private volatile Snapshot snapshot = new Snapshot(new Entry[0]);
+    private int removedSinceSnapshot;
+
+    /**
+     * Increase the count of the given identifier
+     */
+    public synchronized void increase(@NonNull String identifier) {
+        var entry = entries.get(identifier);
+        if (entry == null) {
+            entry = new Entry(identifier);
+            entries.put(identifier, entry);
+            snapshot.added.put(identifier, entry);
+            rebuildIfNeeded();
+        }
+        entry.count++;
+    }
+
+    /**
+     * Decrease the count of the given identifier. The identifier is removed when the count reaches zero.
+     */
+    public synchronized void decrease(@NonNull String identifier) {
+        var entry = entries.get(identifier);
+        if (entry == null || --entry.count > 0) {
+            return;
+        }
+        entries.remove(identifier);
+        entry.removed = true;
+        if (!snapshot.added.remove(identifier, entry)) {
+            removedSinceSnapshot++;
+            rebuildIfNeeded();
+        }
+    }
+
+    /**
+     * Remove all identifiers
+     */
+    public synchronized void clear() {
+        for (var entry : entries.values()) {
+            entry.removed = true;
+        }
+        entries.clear();
+        snapshot = new Snapshot(new Entry[0]);
+        removedSinceSnapshot = 0;
+    }
+
+    /**
+     * Get the count of different identifiers
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void rebuildIfNeeded() {
+        var current = snapshot;
+        var threshold = Math.max(MIN_REBUILD_THRESHOLD, current.entries.length >> 3);
+        if (current.added.size() + removedSinceSnapshot > threshold) {
+            var array = entries.values().toArray(new Entry[0]);
+            Arrays.sort(array, (a, b) -> a.fold.compareTo(b.fold));
+            snapshot = new Snapshot(array);
+            removedSinceSnapshot = 0;
+        }
+    }
+
+    /**
+     * Add identifiers that start with the given prefix ignoring case, or that are matched by fuzzy
+     * matching, to the given list. The identifier that equals to the prefix is not added.
+     *
+     * @param prefix The prefix to filter
+     * @param dest   Result list
+     */
+    public void filter(@NonNull String prefix, @NonNull List<String> dest) {
+        var snapshot = this.snapshot;
+        var query = new Query(prefix);
+        var array = snapshot.entries;
+        // Entries in [from, to) start with the prefix
+        int from = lowerBound(array, query.fold);
+        int to = from;
+        while (to < array.length && array[to].fold.startsWith(query.fold)) {
+            to++;
+        }
+        for (int i = 0; i < from; i++) {
+            query.testFuzzy(array[i], dest);
+        }
+        for (int i = from; i < to; i++) {
+            query.acceptPrefixed(array[i], dest);
+        }
+        for (int i = to; i < array.length; i++) {
+            query.testFuzzy(array[i], dest);
+        }
+        for (var entry : snapshot.added.values()) {
+            if (entry.fold.startsWith(query.fold)) {
+                query.acceptPrefixed(entry, dest);
+            } else {
+                query.testFuzzy(entry, dest);
+            }
+        }
+    }
+
+    private static int lowerBound(Entry[] array, String key) {
+        int low = 0, high = array.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid].fold.compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Lowercase each char separately, as {@link TextUtils#startsWith(CharSequence, CharSequence, boolean)} does
+     */
+    private static String foldCase(String text) {
+        char[] chars = null;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            char lower = Character.toLowerCase(ch);
+            if (ch != lower) {
+                if (chars == null) {
+                    chars = text.toCharArray();
+                }
+                chars[i] = lower;
+            }
+        }
+        return chars == null ? text : new String(chars);
+    }
+
+    private static long charBit(char ch) {
+        if (ch >= 'a' && ch <= 'z') {
+            return 1L << (ch - 'a');
+        } else if (ch >= '0' && ch <= '9') {
+            return 1L << (26 + ch - '0');
+        } else if (ch == '_') {
+            return 1L << 36;
+        } else if (ch == '$') {
+            return 1L << 37;
+        }
+        return 1L << (38 + ch % 26);
+    }
+
+    private static long charMask(String text, int length) {
+        long mask = 0;
+        for (int i = 0; i < length; i++) {
+            mask |= charBit(text.charAt(i));
+        }
+        return mask;
+    }
+
+    /**
+     * Mask of chars at positions where the first pattern char can be matched by fuzzy matching. The
+     * positions include word start, camel humps, and positions at or after a non-letter char.
+     */
+    private static long strongCharMask(String word, String lower) {
+        if (word.length() != lower.length()) {
+            return -1L;
+        }
+        long mask = 0;
+        for (int i = 0; i < lower.length(); i++) {
+            char ch = lower.charAt(i);
+            if (i == 0 || word.charAt(i) != ch || !Character.isLetterOrDigit(ch)
+                    || !Character.isLetterOrDigit(lower.charAt(i - 1))) {
+                mask |= charBit(ch);
+            }
+        }
+        return mask;
+    }
+
+    private static class Entry {
+
+        final String word;
+        /**
+         * Chars lowercased one by one, for prefix matching
+         */
+        final String fold;
+        /**
+         * Lowercase form used by fuzzy matching
+         */
+        final String lower;
+        final long mask;
+        final long strongMask;
+        /**
+         * Modified by writer only
+         */
+        int count;
+        volatile boolean removed;
+
+        Entry(String word) {
+            this.word = word;
+            fold = foldCase(word);
+            var lower = word.toLowerCase(Locale.ROOT);
+            this.lower = lower.equals(fold) ? fold : lower;
+            mask = charMask(this.lower, this.lower.length());
+            strongMask = strongCharMask(word, this.lower);
+        }
+
+    }
+
+    private static class Snapshot {
+
+        /**
+         * Entries sorted by {@link Entry#fold}
+         */
+        final Entry[] entries;
+        /**
+         * Entries added after the snapshot is built
+         */
+        final Map<String, Entry> added = new ConcurrentHashMap<>();
+
+        Snapshot(Entry[] entries) {
+            this.entries = entries;
+        }
+
+    }
+
+    private static class Query {
+
+        final String prefix;
+        final String fold;
+        final String lower;
+        final int fuzzyLength;
+        final long mask;
+        final long firstCharBit;
+
+        Query(String prefix) {
+            this.prefix = prefix;
+            fold = foldCase(prefix);
+            lower = prefix.toLowerCase(Locale.ROOT);
+            fuzzyLength = Math.min(prefix.length(), FUZZY_PATTERN_MAX_LENGTH);
+            mask = charMask(lower, Math.min(fuzzyLength, lower.length()));
+            firstCharBit = lower.isEmpty() ? 0 : charBit(lower.charAt(0));
+        }
+
+        void acceptPrefixed(Entry entry, List<String> dest) {
+            if (!entry.removed && !(prefix.length() == entry.word.length() && prefix.equals(entry.word))) {
+                dest.add(entry.word);
+            }
+        }
+
+        void testFuzzy(Entry entry, List<String> dest) {
+            // Chars of pattern must occur in the word, and the first one must be at a strong position
+            if (fuzzyLength == 0 || (entry.mask & mask) != mask || (entry.strongMask & firstCharBit) == 0
+                    || fuzzyLength > Math.min(entry.word.length(), FUZZY_WORD_MAX_LENGTH) || entry.removed) {
+                return;
+            }
+            var fuzzyScore = Filters.fuzzyScoreGracefulAggressive(prefix, lower, 0,
+                    entry.word, entry.lower, 0, FuzzyScoreOptions.getDefault());
+            if (fuzzyScore != null && fuzzyScore.getScore() >= -20) {
+                dest.add(entry.word);
+            }
+        }
+
+    }
+
+}
@@ -29,13 +29,19 @@ import java.util.List;
 
 /**
  * A thread-safe class for containing diagnostics
+ * <p>
+ * Regions are kept in a treap ordered by start index, where each node records the max end index in its
+ * subtree. Shifting is applied lazily to whole subtrees, so querying and shifting cost O(log n + k),
+ * where k is the count of regions that are returned, or that contain the modified position.
+ * Pending shifts are applied to the {@link DiagnosticRegion} objects before they are returned.
  *
  * @author Rosemoe
  */
 public class DiagnosticsContainer {
 
-    private final List<DiagnosticRegion> regions = new ArrayList<>();
     private final boolean shiftEnabled;
+    private Node root;
+    private int seed = 0x2545F491;
 
     /**
      * Create a new DiagnosticsContainer, with auto-shifting enabled
@@ -57,14 +63,19 @@ public class DiagnosticsContainer {
      * Add multiple diagnostics
      */
     public synchronized void addDiagnostics(Collection<DiagnosticRegion> regions) {
-        this.regions.addAll(regions);
+        for (var region : regions) {
+            addDiagnostic(region);
+        }
     }
 
     /**
      * Add single diagnostic item
      */
     public synchronized void addDiagnostic(DiagnosticRegion diagnostic) {
-        regions.add(diagnostic);
+        var node = new Node(diagnostic, nextPriority());
+        var parts = new Node[2];
+        split(root, diagnostic.startIndex, parts);
+        root = merge(merge(parts[0], node), parts[1]);
     }
 
     /**
@@ -75,10 +86,21 @@ public class DiagnosticsContainer {
      * @param endIndex   End index of query
      */
     public synchronized void queryInRegion(List<DiagnosticRegion> result, int startIndex, int endIndex) {
-        for (var region : regions) {
-            if (region.endIndex > startIndex && region.startIndex <= endIndex) {
+        query(root, result, startIndex, endIndex);
+    }
+
+    private static void query(Node node, List<DiagnosticRegion> result, int startIndex, int endIndex) {
+        if (node == null || node.maxEnd <= startIndex) {
+            return;
+        }
+        node.pushDown();
+        query(node.left, result, startIndex, endIndex);
+        var region = node.region;
+        if (region.startIndex <= endIndex) {
+            if (region.endIndex > startIndex) {
                 result.add(region);
             }
+            query(node.right, result, startIndex, endIndex);
         }
     }
 
@@ -87,18 +109,34 @@ public class DiagnosticsContainer {
             return;
         }
         var length = insertEnd - insertStart;
-        for (var region : regions) {
-            // Type 1, text is inserted inside a diagnostic
-            if (region.startIndex <= insertStart && region.endIndex >= insertStart) {
-                region.endIndex += length;
-            }
-            // Type 2, text is inserted before a diagnostic
-            if (region.startIndex > insertStart) {
+        var parts = new Node[2];
+        split(root, insertStart, parts);
+        // Type 1, text is inserted inside a diagnostic
+        var left = extendOnInsert(parts[0], insertStart, length);
+        // Type 2, text is inserted before a diagnostic
+        var right = parts[1];
+        if (right != null) {
+            right.shift(length);
+        }
+        root = merge(left, right);
+    }
 
-                region.startIndex += length;
-                region.endIndex += length;
-            }
+    /**
+     * Extend regions containing the insertion position. All regions in the given tree start at or
+     * before the position.
+     */
+    private static Node extendOnInsert(Node node, int insertStart, int length) {
+        if (node == null || node.maxEnd < insertStart) {
+            return node;
+        }
+        node.pushDown();
+        node.left = extendOnInsert(node.left, insertStart, length);
+        node.right = extendOnInsert(node.right, insertStart, length);
+        if (node.region.endIndex >= insertStart) {
+            node.region.endIndex += length;
         }
+        node.update();
+        return node;
     }
 
     public synchronized void shiftOnDelete(int deleteStart, int deleteEnd) {
@@ -106,42 +144,179 @@ public class DiagnosticsContainer {
             return;
         }
         var length = deleteEnd - deleteStart;
-        var garbage = new ArrayList<DiagnosticRegion>();
-        for (var region : regions) {
-            // Compute cross length
-            var sharedStart = Math.max(deleteStart, region.startIndex);
-            var sharedEnd = Math.min(deleteEnd, region.endIndex);
-            if (sharedEnd <= sharedStart) {
-                // No shared region
-                if (region.startIndex >= deleteEnd) {
-                    // Shift left
-                    region.startIndex -= length;
-                    region.endIndex -= length;
-                }
-            } else {
-                // Has shared region
-                var sharedLength = sharedEnd - sharedStart;
-                region.endIndex -= sharedLength;
-                if (region.startIndex > deleteStart) {
-                    // Shift left
-                    var shiftLeftCount = region.startIndex - deleteStart;
-                    region.startIndex -= shiftLeftCount;
-                    region.endIndex -= shiftLeftCount;
-                }
+        var parts = new Node[2];
+        split(root, deleteEnd - 1, parts);
+        // Regions starting before deleteEnd may share text with deleted region
+        var detached = new ArrayList<DiagnosticRegion>();
+        var left = shrinkOnDelete(parts[0], deleteStart, deleteEnd, detached);
+        // Regions after deleted region are shifted left
+        var right = parts[1];
+        if (right != null) {
+            right.shift(-length);
+        }
+        root = merge(left, right);
+        for (var region : detached) {
+            addDiagnostic(region);
+        }
+    }
 
-                if (region.startIndex == region.endIndex) {
-                    garbage.add(region);
-                }
+    /**
+     * Shrink regions sharing text with the deleted region, and remove the ones that become empty.
+     * All regions in the given tree start before deleteEnd.
+     * <p>
+     * Empty regions inside the deleted text are kept unchanged, so they are detached and stored in
+     * {@code detached}, for the caller to insert them again at the right place.
+     */
+    private static Node shrinkOnDelete(Node node, int deleteStart, int deleteEnd, List<DiagnosticRegion> detached) {
+        if (node == null || node.maxEnd <= deleteStart) {
+            return node;
+        }
+        node.pushDown();
+        node.left = shrinkOnDelete(node.left, deleteStart, deleteEnd, detached);
+        node.right = shrinkOnDelete(node.right, deleteStart, deleteEnd, detached);
+        var region = node.region;
+        // Compute cross length
+        var sharedStart = Math.max(deleteStart, region.startIndex);
+        var sharedEnd = Math.min(deleteEnd, region.endIndex);
+        if (sharedEnd > sharedStart) {
+            // Has shared region
+            var sharedLength = sharedEnd - sharedStart;
+            region.endIndex -= sharedLength;
+            if (region.startIndex > deleteStart) {
+                // Shift left
+                var shiftLeftCount = region.startIndex - deleteStart;
+                region.startIndex -= shiftLeftCount;
+                region.endIndex -= shiftLeftCount;
+            }
+
+            if (region.startIndex == region.endIndex) {
+                return merge(node.left, node.right);
             }
+        } else if (region.startIndex > deleteStart) {
+            detached.add(region);
+            return merge(node.left, node.right);
         }
-        regions.removeAll(garbage);
+        node.update();
+        return node;
     }
 
     /**
      * Remove all items
      */
     public synchronized void reset() {
-        regions.clear();
+        root = null;
+    }
+
+    private int nextPriority() {
+        // xorshift32
+        int x = seed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seed = x;
+        return x;
+    }
+
+    /**
+     * Merge two trees. All regions in {@code a} are placed before regions in {@code b}
+     */
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.pushDown();
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        } else {
+            b.pushDown();
+            b.left = merge(a, b.left);
+            b.update();
+            return b;
+        }
+    }
+
+    /**
+     * Split the tree so that regions whose start index is not greater than {@code key} are in
+     * {@code dest[0]}, and others are in {@code dest[1]}
+     */
+    private static void split(Node node, int key, Node[] dest) {
+        if (node == null) {
+            dest[0] = dest[1] = null;
+            return;
+        }
+        node.pushDown();
+        if (node.region.startIndex <= key) {
+            split(node.right, key, dest);
+            node.right = dest[0];
+            node.update();
+            dest[0] = node;
+        } else {
+            split(node.left, key, dest);
+            node.left = dest[1];
+            node.update();
+            dest[1] = node;
+        }
+    }
+
+    private static class Node {
+
+        final DiagnosticRegion region;
+        final int priority;
+        Node left;
+        Node right;
+        /**
+         * Max end index of regions in this subtree
+         */
+        int maxEnd;
+        /**
+         * Pending shift for the regions in child subtrees
+         */
+        int pendingShift;
+
+        Node(DiagnosticRegion region, int priority) {
+            this.region = region;
+            this.priority = priority;
+            this.maxEnd = region.endIndex;
+        }
+
+        /**
+         * Shift all regions in this subtree
+         */
+        void shift(int delta) {
+            region.startIndex += delta;
+            region.endIndex += delta;
+            maxEnd += delta;
+            pendingShift += delta;
+        }
+
+        void pushDown() {
+            if (pendingShift != 0) {
+                if (left != null) {
+                    left.shift(pendingShift);
+                }
+                if (right != null) {
+                    right.shift(pendingShift);
+                }
+                pendingShift = 0;
+            }
+        }
+
+        void update() {
+            int max = region.endIndex;
+            if (left != null) {
+                max = Math.max(max, left.maxEnd);
+            }
+            if (right != null) {
+                max = Math.max(max, right.maxEnd);
+            }
+            maxEnd = max;
+        }
+
     }
 
 }
@@ -23,6 +23,7 @@
  */
 package io.github.rosemoe.sora.lang.styling;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -56,4 +57,57 @@ public class BlocksUpdater {
         }
     }
 
+    /**
+     * Update blocks on deletion of lines. Positions in deleted lines are moved to {@code startLine},
+     * and blocks becoming empty are removed.
+     *
+     * @param blocks    Block lines to update
+     * @param startLine Start line of deletion
+     * @param endLine   End line of deletion
+     */
+    public static void updateOnDelete(List<CodeBlock> blocks, int startLine, int endLine) {
+        int delta = endLine - startLine;
+        if (delta == 0) {
+            return;
+        }
+        int count = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            var block = blocks.get(i);
+            block.startLine = block.startLine > endLine ? block.startLine - delta : Math.min(block.startLine, startLine);
+            block.endLine = block.endLine > endLine ? block.endLine - delta : Math.min(block.endLine, startLine);
+            if (block.startLine < block.endLine) {
+                blocks.set(count++, block);
+            }
+        }
+        truncate(blocks, count);
+    }
+
+    /**
+     * Replace blocks starting in the given line range with new blocks. Blocks are sorted by
+     * {@link CodeBlock#COMPARATOR_END} after replacement.
+     *
+     * @param blocks    Block lines to update
+     * @param startLine First line of the range
+     * @param endLine   Last line of the range
+     * @param newBlocks Blocks starting in the range
+     */
+    public static void replace(List<CodeBlock> blocks, int startLine, int endLine, List<CodeBlock> newBlocks) {
+        int count = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            var block = blocks.get(i);
+            if (block.startLine < startLine || block.startLine > endLine) {
+                blocks.set(count++, block);
+            }
+        }
+        truncate(blocks, count);
+        blocks.addAll(newBlocks);
+        Collections.sort(blocks, CodeBlock.COMPARATOR_END);
+    }
+
+    private static void truncate(List<CodeBlock> blocks, int size) {
+        if (size < blocks.size()) {
+            blocks.subList(size, blocks.size()).clear();
+        }
+    }
+
 }
@@ -36,11 +36,19 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import io.github.rosemoe.sora.text.bidi.ContentBidi;
 import io.github.rosemoe.sora.text.bidi.Directions;
+import io.github.rosemoe.sora.util.TreeList;
 
 /**
  * This class saves the text content for editor and maintains line widths.
  * It is thread-safe by default. Use {@link #Content(CharSequence, boolean)} constructor to
  * create a non thread-safe one.
+ * <p>
+ * Lines are stored in an array list by default. For huge documents, use {@link StorageType#TREE} with
+ * {@link #Content(CharSequence, boolean, StorageType)} so that inserting or deleting large blocks of
+ * lines does not shift the whole line list.
+ * <p>
+ * Read-only Content objects with lazily decoded lines can be created from files by
+ * {@link ContentIO#createFromMappedFile(java.io.File, java.nio.charset.Charset)}.
  *
  * @author Rosemoe
  */
@@ -56,6 +64,7 @@ public class Content implements CharSequence {
     }
 
     private final List<ContentLine> lines;
+    private final StorageType storageType;
     private final List<ContentListener> contentListeners;
     private final ReadWriteLock lock;
     private int textLength;
@@ -88,6 +97,19 @@ public class Content implements CharSequence {
      * to single instance is enabled.
      */
     public Content(CharSequence src, boolean threadSafe) {
+        this(src, threadSafe, StorageType.ARRAY);
+    }
+
+    /**
+     * Create a Content object with the given content text. Specify whether thread-safe access
+     * to single instance is enabled, and the storage engine for text lines.
+     *
+     * @see StorageType
+     */
+    public Content(CharSequence src, boolean threadSafe, @NonNull StorageType storageType) {
+        if (storageType == StorageType.MAPPED) {
+            throw new IllegalArgumentException("mapped storage can only be created by ContentIO");
+        }
         if (src == null) {
             src = "";
         }
@@ -98,13 +120,14 @@ public class Content implements CharSequence {
         }
         textLength = 0;
         nestedBatchEdit = 0;
-        lines = new ArrayList<>(getInitialLineCapacity());
+        this.storageType = Objects.requireNonNull(storageType);
+        lines = storageType == StorageType.TREE ? new TreeList<>() : new ArrayList<>(getInitialLineCapacity());
         lines.add(new ContentLine());
         contentListeners = new ArrayList<>();
         bidi = new ContentBidi(this);
         undoManager = new UndoManager();
         setMaxUndoStackSize(Content.DEFAULT_MAX_UNDO_STACK_SIZE);
-        indexer = new CachedIndexer(this);
+        indexer = new PrefixSumIndexer(this);
         if (src.length() == 0) {
             setUndoEnabled(true);
             return;
@@ -114,6 +137,27 @@ public class Content implements CharSequence {
         setUndoEnabled(true);
     }
 
+    /**
+     * Create a read-only Content object with lines decoded on demand
+     */
+    Content(@NonNull MappedLineList lines, boolean threadSafe) {
+        if (threadSafe) {
+            lock = new ReentrantReadWriteLock();
+        } else {
+            lock = null;
+        }
+        this.storageType = StorageType.MAPPED;
+        this.lines = lines;
+        textLength = lines.getTextLength();
+        nestedBatchEdit = 0;
+        contentListeners = new ArrayList<>();
+        bidi = new ContentBidi(this);
+        undoManager = new UndoManager();
+        setMaxUndoStackSize(Content.DEFAULT_MAX_UNDO_STACK_SIZE);
+        indexer = new PrefixSumIndexer(this);
+        setUndoEnabled(false);
+    }
+
     /**
      * Returns the default capacity of text line list
      *
@@ -161,6 +205,28 @@ public class Content implements CharSequence {
         return lock != null;
     }
 
+    /**
+     * Get the storage engine used for text lines
+     */
+    @NonNull
+    public StorageType getStorageType() {
+        return storageType;
+    }
+
+    /**
+     * Check whether this text can not be modified. Only texts with {@link StorageType#MAPPED} storage
+     * are read-only.
+     */
+    public boolean isReadOnly() {
+        return storageType == StorageType.MAPPED;
+    }
+
+    private void checkWritable() {
+        if (isReadOnly()) {
+            throw new UnsupportedOperationException("the text is read-only");
+        }
+    }
+
     protected void lock(boolean write) {
         if (lock == null) {
             return;
@@ -272,6 +338,9 @@ public class Content implements CharSequence {
      * @return Character count on line
      */
     public int getColumnCount(int line) {
+        if (lines instanceof MappedLineList mapped) {
+            return mapped.getColumnCount(line);
+        }
         return getLine(line).length();
     }
 
@@ -364,6 +433,7 @@ public class Content implements CharSequence {
      * @param text   The text you want to insert at the position
      */
     public void insert(int line, int column, CharSequence text) {
+        checkWritable();
         lock(true);
         documentVersion.getAndIncrement();
         try {
@@ -438,6 +508,7 @@ public class Content implements CharSequence {
      * @param end   End position in content
      */
     public void delete(int start, int end) {
+        checkWritable();
         lock(true);
         checkIndex(start);
         checkIndex(end);
@@ -462,6 +533,7 @@ public class Content implements CharSequence {
      * @param columnOnEndLine   The end column position
      */
     public void delete(int startLine, int columnOnStartLine, int endLine, int columnOnEndLine) {
+        checkWritable();
         lock(true);
         documentVersion.getAndIncrement();
         try {
@@ -571,6 +643,7 @@ public class Content implements CharSequence {
         if (text == null) {
             throw new IllegalArgumentException("text can not be null");
         }
+        checkWritable();
         lock(true);
         documentVersion.getAndIncrement();
         try {
@@ -765,6 +838,15 @@ public class Content implements CharSequence {
         return indexer;
     }
 
+    /**
+     * Rebuild the index after lines are changed directly
+     */
+    private void rebuildIndexer() {
+        if (indexer instanceof PrefixSumIndexer prefixSumIndexer) {
+            prefixSumIndexer.rebuild();
+        }
+    }
+
     /**
      * Quick method to get sub string of this object
      *
@@ -834,6 +916,7 @@ public class Content implements CharSequence {
         } else {
             throw new StringIndexOutOfBoundsException("start > end");
         }
+        c.rebuildIndexer();
         c.setUndoEnabled(true);
         return c;
     }
@@ -1097,8 +1180,7 @@ public class Content implements CharSequence {
      */
     protected void checkLineAndColumn(int line, int column) {
         checkLine(line);
-        var text = lines.get(line);
-        int len = text.length() + text.getLineSeparator().getLength();
+        int len = getColumnCountUnsafe(line) + getLineSeparatorUnsafe(line).getLength();
         if (column > len || column < 0) {
             throw new StringIndexOutOfBoundsException(
                     "Column " + column + " out of bounds. line: " + line + " , column count (line separator included):" + len);
@@ -1129,9 +1211,15 @@ public class Content implements CharSequence {
     public Content copyText(boolean newContentThreadSafe, boolean shallow) {
         lock(false);
         try {
-            var n = new Content(null, newContentThreadSafe);
+            if (lines instanceof MappedLineList mapped) {
+                // Mapped lines are immutable, share the line index
+                return new Content(mapped.copy(), newContentThreadSafe);
+            }
+            var n = new Content(null, newContentThreadSafe, storageType);
             n.lines.remove(0);
-            ((ArrayList<ContentLine>) n.lines).ensureCapacity(getLineCount());
+            if (n.lines instanceof ArrayList) {
+                ((ArrayList<ContentLine>) n.lines).ensureCapacity(getLineCount());
+            }
             if (shallow) {
                 for (ContentLine line : lines) {
                     line.retain();
@@ -1143,6 +1231,7 @@ public class Content implements CharSequence {
                 }
             }
             n.textLength = textLength;
+            n.rebuildIndexer();
             return n;
         } finally {
             unlock(false);
@@ -1174,8 +1263,10 @@ public class Content implements CharSequence {
     public void release() {
         lock(true);
         try {
-            for (ContentLine line : lines) {
-                line.release();
+            if (!(lines instanceof MappedLineList)) {
+                for (ContentLine line : lines) {
+                    line.release();
+                }
             }
             lines.clear();
             textLength = 0;
@@ -1187,11 +1278,17 @@ public class Content implements CharSequence {
     }
 
     protected int getColumnCountUnsafe(int line) {
+        if (lines instanceof MappedLineList mapped) {
+            return mapped.getColumnCount(line);
+        }
         return lines.get(line).length();
     }
 
     @NonNull
     protected LineSeparator getLineSeparatorUnsafe(int line) {
+        if (lines instanceof MappedLineList mapped) {
+            return mapped.getLineSeparator(line);
+        }
         return lines.get(line).getLineSeparator();
     }
 
@@ -1233,6 +1330,33 @@ public class Content implements CharSequence {
     }
 
 
+    /**
+     * Storage engines for text lines in {@link Content}
+     */
+    public enum StorageType {
+
+        /**
+         * Lines are stored in a flat array list. Line access is O(1), but inserting or deleting
+         * lines costs O(n) as the elements after the modified position are shifted.
+         */
+        ARRAY,
+
+        /**
+         * Lines are stored in a balanced tree. Line access is O(log n), and inserting or deleting
+         * k lines costs O(log n + k) regardless of the document size. Recommended for huge documents.
+         */
+        TREE,
+
+        /**
+         * Lines are decoded on demand from a memory-mapped file, and only a bounded count of decoded
+         * lines are kept in memory. The text is read-only.
+         *
+         * @see ContentIO#createFromMappedFile(java.io.File, java.nio.charset.Charset)
+         */
+        MAPPED
+
+    }
+
     public interface ContentLineConsumer {
 
         void accept(int lineIndex, @NonNull ContentLine line, @NonNull Directions dirs);
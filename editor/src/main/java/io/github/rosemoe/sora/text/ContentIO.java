@@ -26,6 +26,7 @@ package io.github.rosemoe.sora.text;
 import androidx.annotation.NonNull;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -33,7 +34,9 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Helper class for creating or saving {@link Content} objects, with minimal extra memory usage when
@@ -108,6 +111,45 @@ public class ContentIO {
         return content;
     }
 
+    /**
+     * Create a read-only {@link Content} from file, with lines decoded on demand.
+     *
+     * @see #createFromMappedFile(File, Charset, int)
+     */
+    @NonNull
+    public static Content createFromMappedFile(@NonNull File file, @NonNull Charset charset) throws IOException {
+        return createFromMappedFile(file, charset, MappedLineList.DEFAULT_CACHE_LINE_COUNT);
+    }
+
+    /**
+     * Create a read-only {@link Content} from file, with lines decoded on demand.
+     * <p>
+     * The file is memory-mapped, and only a line index is built when loading. Text of lines is decoded
+     * when the lines are accessed, and at most {@code cacheLineCount} decoded lines are kept. This makes
+     * opening huge files (such as logs) fast, with heap usage independent of the file size.
+     * <p>
+     * The returned text can not be modified, and the file should not be modified while the text is
+     * in use. The charset must be ASCII-compatible (such as UTF-8 or ISO-8859-1). Files larger than
+     * 2GB are not supported.
+     *
+     * @param file           Source file
+     * @param charset        Charset for decoding the content
+     * @param cacheLineCount Max count of decoded lines kept in memory
+     * @see Content#isReadOnly()
+     */
+    @NonNull
+    public static Content createFromMappedFile(@NonNull File file, @NonNull Charset charset, int cacheLineCount) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file is too large: " + size + " bytes");
+            }
+            // The mapping stays valid after the channel is closed
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new Content(MappedLineList.create(buffer, charset, cacheLineCount), true);
+        }
+    }
+
     /**
      * Write the text to the given stream with default charset. Close the stream if {@code closeOnSucceed} is true.
      *
@@ -0,0 +1,244 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Load text from a {@link Reader} into a {@link Content} progressively.
+ * <p>
+ * Characters are read and decoded on a background thread, and appended to the end of the target text
+ * in batches. The batches are applied by the given {@link Executor}. If the target text is displayed
+ * by a {@link io.github.rosemoe.sora.widget.CodeEditor}, use the editor's main thread (for example,
+ * {@code editor::post}) so that each batch is published as a normal insertion: the editor
+ * dispatches a {@link io.github.rosemoe.sora.event.ContentChangeEvent}, and the layout and language
+ * analyzers can work on the first part of the text while the rest is still being loaded.
+ * <p>
+ * Undo is disabled on the target text when loading, and restored when the task ends. The target text
+ * should not be modified by others during loading.
+ * <p>
+ * Example:
+ * <pre>
+ *     var text = new Content();
+ *     editor.setText(text);
+ *     var loader = new ContentLoader(text, reader, editor::post, callback);
+ *     loader.start();
+ * </pre>
+ *
+ * @author Rosemoe
+ */
+public class ContentLoader {
+
+    public final static int DEFAULT_BATCH_SIZE = 65536;
+    /**
+     * Max count of batches that are read but not yet applied
+     */
+    private final static int MAX_PENDING_BATCHES = 2;
+
+    private final Content target;
+    private final Reader reader;
+    private final Executor executor;
+    private final Callback callback;
+    private final int batchSize;
+    private final Semaphore pendingBatches = new Semaphore(MAX_PENDING_BATCHES);
+    private volatile boolean cancelled;
+    private volatile boolean started;
+    /**
+     * Error thrown when applying a batch
+     */
+    private volatile Throwable applyError;
+    private boolean undoEnabled;
+    private long loadedLength;
+
+    public ContentLoader(@NonNull Content target, @NonNull Reader reader, @NonNull Executor executor, @Nullable Callback callback) {
+        this(target, reader, executor, callback, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param target    Text to append loaded characters to
+     * @param reader    Source reader. It is closed when the task ends.
+     * @param executor  Executor for applying batches and invoking callbacks
+     * @param callback  Callback for progress and result
+     * @param batchSize Max count of characters in a single batch
+     * @throws IllegalArgumentException if the target text is read-only, or the batch size is less than 2
+     */
+    public ContentLoader(@NonNull Content target, @NonNull Reader reader, @NonNull Executor executor, @Nullable Callback callback, int batchSize) {
+        if (batchSize < 2) {
+            throw new IllegalArgumentException("batch size must be at least 2");
+        }
+        if (target.isReadOnly()) {
+            throw new IllegalArgumentException("target text is read-only");
+        }
+        this.target = target;
+        this.reader = reader;
+        this.executor = executor;
+        this.callback = callback;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Start loading on a new background thread
+     */
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("the task is already started");
+        }
+        started = true;
+        executor.execute(() -> {
+            undoEnabled = target.isUndoEnabled();
+            target.setUndoEnabled(false);
+        });
+        var thread = new Thread(this::run);
+        thread.setName("ContentLoader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Cancel the loading. Characters that are already appended are kept in the target text.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void run() {
+        Throwable error = null;
+        try {
+            var buffer = new char[batchSize];
+            // A trailing CR is held back, in case a LF follows in the next read
+            boolean pendingCR = false;
+            int count;
+            while (!cancelled) {
+                int offset = pendingCR ? 1 : 0;
+                if (pendingCR) {
+                    buffer[0] = '\r';
+                }
+                count = reader.read(buffer, offset, buffer.length - offset);
+                if (count == -1) {
+                    if (pendingCR) {
+                        submitBatch(new String(buffer, 0, 1));
+                    }
+                    break;
+                }
+                count += offset;
+                pendingCR = buffer[count - 1] == '\r';
+                if (pendingCR) {
+                    count--;
+                }
+                if (count > 0) {
+                    submitBatch(new String(buffer, 0, count));
+                }
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            error = e;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        final var finalError = error;
+        executor.execute(() -> {
+            target.setUndoEnabled(undoEnabled);
+            if (callback == null) {
+                return;
+            }
+            // Batches are applied before this, so their error is visible here
+            var reportedError = finalError != null ? finalError : applyError;
+            if (reportedError != null) {
+                callback.onFailed(reportedError);
+            } else if (cancelled) {
+                callback.onCancelled(loadedLength);
+            } else {
+                callback.onCompleted(loadedLength);
+            }
+        });
+    }
+
+    private void submitBatch(@NonNull String batch) throws InterruptedException {
+        pendingBatches.acquire();
+        executor.execute(() -> {
+            try {
+                if (cancelled) {
+                    return;
+                }
+                int line = target.getLineCount() - 1;
+                target.insert(line, target.getColumnCount(line), batch);
+                loadedLength += batch.length();
+                if (callback != null) {
+                    callback.onProgress(loadedLength);
+                }
+            } catch (RuntimeException e) {
+                // Stop loading, and report the error when the task ends
+                applyError = e;
+                cancelled = true;
+            } finally {
+                pendingBatches.release();
+            }
+        });
+    }
+
+    /**
+     * Callback for loading. All methods are invoked by the executor of task.
+     */
+    public interface Callback {
+
+        /**
+         * A batch is appended to the text
+         *
+         * @param loadedLength Count of characters loaded so far
+         */
+        void onProgress(long loadedLength);
+
+        /**
+         * All text is loaded
+         */
+        void onCompleted(long loadedLength);
+
+        /**
+         * The loading is cancelled by {@link #cancel()}
+         */
+        void onCancelled(long loadedLength);
+
+        /**
+         * Failed to read text, or to append it to the target text
+         */
+        void onFailed(@NonNull Throwable error);
+
+    }
+
+}
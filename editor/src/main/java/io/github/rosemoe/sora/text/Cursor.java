@@ -39,7 +39,7 @@ public final class Cursor {
     public final static int DIRECTION_RTL = 2;
 
     private final Content content;
-    private final CachedIndexer indexer;
+    private final PrefixSumIndexer indexer;
     private CharPosition leftSel, rightSel;
     private CharPosition cache0, cache1, cache2;
     private int selDirection = DIRECTION_NONE;
@@ -51,7 +51,7 @@ public final class Cursor {
      */
     public Cursor(@NonNull Content content) {
         this.content = content;
-        indexer = new CachedIndexer(content);
+        indexer = new PrefixSumIndexer(content);
         leftSel = new CharPosition().toBOF();
         rightSel = new CharPosition().toBOF();
     }
@@ -175,14 +175,14 @@ public final class Cursor {
     /**
      * Notify the Indexer to update its cache for current display position
      * <p>
-     * This will make querying actions quicker
-     * <p>
-     * Especially when the editor user want to set a new cursor position after scrolling long time
+     * No longer required, as the indexer answers queries for any position in O(log n)
      *
      * @param line First visible line
+     * @deprecated The indexer does not use position cache any more
      */
+    @Deprecated
     public void updateCache(int line) {
-        indexer.getCharIndex(line, 0);
+        // Intentionally empty
     }
 
     /**
@@ -190,7 +190,7 @@ public final class Cursor {
      *
      * @return Using Indexer
      */
-    public CachedIndexer getIndexer() {
+    public Indexer getIndexer() {
         return indexer;
     }
 
@@ -0,0 +1,151 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Find a literal pattern in char arrays by Boyer-Moore-Horspool algorithm.
+ * <p>
+ * When case is ignored, chars are compared by {@link Character#toLowerCase(char)}, which is the same
+ * as {@link TextUtils#indexOf(CharSequence, CharSequence, boolean, int)}. The bad char shift table is
+ * indexed by the low byte of folded chars, taking the minimum shift of chars sharing the same low byte.
+ * <p>
+ * Instances are immutable, and can be shared by threads.
+ *
+ * @author Rosemoe
+ */
+public final class LiteralMatcher {
+
+    private final static char[] ASCII_LOWER_CASE = new char[128];
+
+    static {
+        for (char ch = 0; ch < 128; ch++) {
+            ASCII_LOWER_CASE[ch] = Character.toLowerCase(ch);
+        }
+    }
+
+    private final char[] pattern;
+    private final boolean ignoreCase;
+    private final int[] shifts = new int[256];
+
+    /**
+     * @param pattern    Non-empty pattern text
+     * @param ignoreCase Compare chars case-insensitively
+     */
+    public LiteralMatcher(@NonNull CharSequence pattern, boolean ignoreCase) {
+        if (pattern.length() == 0) {
+            throw new IllegalArgumentException("pattern length must be > 0");
+        }
+        this.ignoreCase = ignoreCase;
+        this.pattern = new char[pattern.length()];
+        for (int i = 0; i < this.pattern.length; i++) {
+            this.pattern[i] = ignoreCase ? fold(pattern.charAt(i)) : pattern.charAt(i);
+        }
+        int last = this.pattern.length - 1;
+        Arrays.fill(shifts, this.pattern.length);
+        for (int i = 0; i < last; i++) {
+            shifts[this.pattern[i] & 0xff] = last - i;
+        }
+    }
+
+    private static char fold(char ch) {
+        return ch < 128 ? ASCII_LOWER_CASE[ch] : Character.toLowerCase(ch);
+    }
+
+    /**
+     * Get length of the pattern
+     */
+    public int getPatternLength() {
+        return pattern.length;
+    }
+
+    /**
+     * Find the first occurrence of the pattern in the given region of text
+     *
+     * @param text      Text array
+     * @param fromIndex Start index of region, inclusive
+     * @param toIndex   End index of region, exclusive. Matches must be fully in the region
+     * @return Start index of the occurrence, or -1 if not found
+     */
+    public int indexOf(@NonNull char[] text, int fromIndex, int toIndex) {
+        final var pattern = this.pattern;
+        final var shifts = this.shifts;
+        final int last = pattern.length - 1;
+        final char lastChar = pattern[last];
+        final int max = toIndex - pattern.length;
+        int i = Math.max(0, fromIndex);
+        if (ignoreCase) {
+            while (i <= max) {
+                char ch = fold(text[i + last]);
+                if (ch == lastChar) {
+                    int j = last - 1;
+                    while (j >= 0 && fold(text[i + j]) == pattern[j]) {
+                        j--;
+                    }
+                    if (j < 0) {
+                        return i;
+                    }
+                }
+                i += shifts[ch & 0xff];
+            }
+        } else {
+            while (i <= max) {
+                char ch = text[i + last];
+                if (ch == lastChar) {
+                    int j = last - 1;
+                    while (j >= 0 && text[i + j] == pattern[j]) {
+                        j--;
+                    }
+                    if (j < 0) {
+                        return i;
+                    }
+                }
+                i += shifts[ch & 0xff];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check if the given region of text is a whole word, that is, there are word boundaries at both ends
+     * as regex '\b'. Chars out of [regionStart, regionEnd) are treated as non-word chars.
+     */
+    public static boolean isWholeWord(@NonNull char[] text, int regionStart, int regionEnd, int start, int end) {
+        return isWordBoundary(text, regionStart, regionEnd, start) && isWordBoundary(text, regionStart, regionEnd, end);
+    }
+
+    private static boolean isWordBoundary(@NonNull char[] text, int regionStart, int regionEnd, int index) {
+        boolean left = index > regionStart && isWordChar(Character.codePointBefore(text, index, regionStart));
+        boolean right = index < regionEnd && isWordChar(Character.codePointAt(text, index, regionEnd));
+        return left != right;
+    }
+
+    private static boolean isWordChar(int codePoint) {
+        return codePoint == '_' || Character.isLetterOrDigit(codePoint);
+    }
+
+}
@@ -0,0 +1,349 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Read-only line list for {@link Content}, whose lines are decoded on demand from a memory-mapped
+ * file.
+ * <p>
+ * A streaming pass over the mapped bytes builds a line index, which records the byte offset, the
+ * character count and the line separator of every line. Lines are decoded only when they are
+ * accessed, and kept in a bounded LRU cache. So the heap usage depends on line count and cache size,
+ * rather than file size.
+ * <p>
+ * Line index is shared between copies (see {@link #copy()}). Each copy has its own decoder and cache.
+ *
+ * @author Rosemoe
+ * @see ContentIO#createFromMappedFile(java.io.File, Charset)
+ */
+final class MappedLineList extends AbstractList<ContentLine> {
+
+    public final static int DEFAULT_CACHE_LINE_COUNT = 512;
+
+    private final static LineSeparator[] SEPARATORS = LineSeparator.values();
+    private final static int COUNT_BUFFER_SIZE = 8192;
+
+    private final LineIndex index;
+    private final ByteBuffer buffer;
+    private final CharsetDecoder decoder;
+    private final Map<Integer, ContentLine> cache;
+    private final int cacheLineCount;
+    private char[] decodeBuffer = new char[256];
+    private boolean released;
+
+    private MappedLineList(@NonNull LineIndex index, int cacheLineCount) {
+        this.index = index;
+        this.buffer = index.buffer.duplicate();
+        this.decoder = newDecoder(index.charset);
+        this.cacheLineCount = cacheLineCount;
+        this.cache = new LinkedHashMap<>(Math.min(cacheLineCount, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ContentLine> eldest) {
+                return size() > cacheLineCount;
+            }
+        };
+    }
+
+    /**
+     * Build line index for the given bytes, and create a list for the lines
+     *
+     * @param buffer         Mapped file bytes
+     * @param charset        Charset of the bytes. Must be ASCII-compatible, so that CR and LF are
+     *                       always encoded as single bytes
+     * @param cacheLineCount Max count of decoded lines to keep
+     */
+    @NonNull
+    public static MappedLineList create(@NonNull ByteBuffer buffer, @NonNull Charset charset, int cacheLineCount) {
+        if (cacheLineCount <= 0) {
+            throw new IllegalArgumentException("cache line count must be positive");
+        }
+        if (!Arrays.equals("\r\n".getBytes(charset), new byte[]{'\r', '\n'})) {
+            throw new IllegalArgumentException("charset " + charset.name() + " is not ASCII-compatible");
+        }
+        return new MappedLineList(LineIndex.build(buffer, charset), cacheLineCount);
+    }
+
+    @NonNull
+    private static CharsetDecoder newDecoder(@NonNull Charset charset) {
+        return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Create a new list sharing the line index with this one
+     */
+    @NonNull
+    public MappedLineList copy() {
+        return new MappedLineList(index, cacheLineCount);
+    }
+
+    /**
+     * Total character count of the text, with line separators included
+     */
+    public int getTextLength() {
+        return index.textLength;
+    }
+
+    /**
+     * Get character count of the given line, without decoding it
+     */
+    public int getColumnCount(int line) {
+        checkAccessIndex(line);
+        return index.charCounts[line];
+    }
+
+    /**
+     * Get line separator of the given line, without decoding it
+     */
+    @NonNull
+    public LineSeparator getLineSeparator(int line) {
+        checkAccessIndex(line);
+        return SEPARATORS[index.separators[line]];
+    }
+
+    private void checkAccessIndex(int line) {
+        if (line < 0 || line >= size()) {
+            throw new IndexOutOfBoundsException("index " + line + " out of bounds. length = " + size());
+        }
+    }
+
+    @Override
+    public synchronized ContentLine get(int line) {
+        checkAccessIndex(line);
+        var cached = cache.get(line);
+        if (cached != null) {
+            return cached;
+        }
+        int length = index.charCounts[line];
+        var separator = SEPARATORS[index.separators[line]];
+        int start = index.lineStarts[line];
+        int end = index.lineStarts[line + 1] - separator.getLength();
+        if (decodeBuffer.length < length) {
+            decodeBuffer = new char[Math.max(length, decodeBuffer.length * 2)];
+        }
+        var out = CharBuffer.wrap(decodeBuffer, 0, length);
+        var in = buffer.duplicate();
+        in.limit(end).position(start);
+        decoder.reset();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        var text = new ContentLine(length + 16);
+        text.insert(0, new CharArrayWrapper(decodeBuffer, out.position()));
+        text.setLineSeparator(separator);
+        cache.put(line, text);
+        return text;
+    }
+
+    @Override
+    public int size() {
+        return released ? 0 : index.lineCount;
+    }
+
+    /**
+     * Drop the decoded lines and detach this list from the line index. The list is empty after
+     * this call.
+     */
+    @Override
+    public synchronized void clear() {
+        cache.clear();
+        released = true;
+    }
+
+    /**
+     * Immutable line index of the mapped bytes
+     */
+    private static class LineIndex {
+
+        final ByteBuffer buffer;
+        final Charset charset;
+        int lineCount;
+        int textLength;
+        int[] lineStarts = new int[1024];
+        int[] charCounts = new int[1024];
+        byte[] separators = new byte[1024];
+
+        private LineIndex(ByteBuffer buffer, Charset charset) {
+            this.buffer = buffer;
+            this.charset = charset;
+        }
+
+        static LineIndex build(@NonNull ByteBuffer buffer, @NonNull Charset charset) {
+            var index = new LineIndex(buffer, charset);
+            // Without decoding, the char count equals to byte count for single-byte charsets, and for
+            // pure ASCII lines in UTF-8
+            final boolean singleByte = charset.newEncoder().maxBytesPerChar() == 1f;
+            final boolean utf8 = StandardCharsets.UTF_8.equals(charset);
+            var decoder = newDecoder(charset);
+            var countBuffer = CharBuffer.allocate(COUNT_BUFFER_SIZE);
+            final int limit = buffer.limit();
+            int lineStart = buffer.position();
+            boolean ascii = true;
+            int i = lineStart;
+            while (i <= limit) {
+                LineSeparator separator;
+                int contentEnd = i;
+                if (i == limit) {
+                    separator = LineSeparator.NONE;
+                } else {
+                    byte b = buffer.get(i);
+                    if (b == '\n') {
+                        separator = LineSeparator.LF;
+                    } else if (b == '\r') {
+                        if (i + 1 < limit && buffer.get(i + 1) == '\n') {
+                            separator = LineSeparator.CRLF;
+                        } else {
+                            separator = LineSeparator.CR;
+                        }
+                    } else {
+                        if (b < 0) {
+                            ascii = false;
+                        }
+                        i++;
+                        continue;
+                    }
+                }
+                int charCount;
+                if (singleByte || (utf8 && ascii)) {
+                    charCount = contentEnd - lineStart;
+                } else {
+                    charCount = utf8 ? countUtf8Chars(buffer, lineStart, contentEnd) : -1;
+                    if (charCount == -1) {
+                        charCount = countChars(buffer, lineStart, contentEnd, decoder, countBuffer);
+                    }
+                }
+                index.append(lineStart, charCount, separator);
+                i = contentEnd + separator.getLength();
+                if (separator == LineSeparator.NONE) {
+                    break;
+                }
+                lineStart = i;
+                ascii = true;
+            }
+            index.lineStarts[index.lineCount] = limit;
+            return index;
+        }
+
+        /**
+         * Count chars of well-formed UTF-8 bytes without decoding them.
+         *
+         * @return -1 if the bytes are malformed and the decoder is required to count them
+         */
+        private static int countUtf8Chars(ByteBuffer buffer, int start, int end) {
+            int count = 0;
+            int i = start;
+            while (i < end) {
+                int b = buffer.get(i) & 0xff;
+                int extra, min, max;
+                if (b < 0x80) {
+                    count++;
+                    i++;
+                    continue;
+                } else if (b >= 0xC2 && b <= 0xDF) {
+                    extra = 1;
+                    min = 0x80;
+                    max = 0xBF;
+                } else if (b >= 0xE0 && b <= 0xEF) {
+                    extra = 2;
+                    // Reject overlong forms and surrogates
+                    min = b == 0xE0 ? 0xA0 : 0x80;
+                    max = b == 0xED ? 0x9F : 0xBF;
+                } else if (b >= 0xF0 && b <= 0xF4) {
+                    extra = 3;
+                    min = b == 0xF0 ? 0x90 : 0x80;
+                    max = b == 0xF4 ? 0x8F : 0xBF;
+                } else {
+                    return -1;
+                }
+                if (i + extra >= end) {
+                    return -1;
+                }
+                int second = buffer.get(i + 1) & 0xff;
+                if (second < min || second > max) {
+                    return -1;
+                }
+                for (int j = 2; j <= extra; j++) {
+                    int next = buffer.get(i + j) & 0xff;
+                    if (next < 0x80 || next > 0xBF) {
+                        return -1;
+                    }
+                }
+                // Supplementary characters are decoded as surrogate pairs
+                count += extra == 3 ? 2 : 1;
+                i += extra + 1;
+            }
+            return count;
+        }
+
+        private static int countChars(ByteBuffer buffer, int start, int end, CharsetDecoder decoder, CharBuffer out) {
+            var in = buffer.duplicate();
+            in.limit(end).position(start);
+            decoder.reset();
+            int count = 0;
+            CoderResult result;
+            do {
+                out.clear();
+                result = decoder.decode(in, out, true);
+                count += out.position();
+            } while (result.isOverflow());
+            do {
+                out.clear();
+                result = decoder.flush(out);
+                count += out.position();
+            } while (result.isOverflow());
+            return count;
+        }
+
+        private void append(int start, int charCount, LineSeparator separator) {
+            // Reserve one more slot in lineStarts for the end sentinel
+            if (lineCount + 1 >= lineStarts.length) {
+                int newSize = lineStarts.length << 1;
+                lineStarts = Arrays.copyOf(lineStarts, newSize);
+                charCounts = Arrays.copyOf(charCounts, newSize);
+                separators = Arrays.copyOf(separators, newSize);
+            }
+            lineStarts[lineCount] = start;
+            charCounts[lineCount] = charCount;
+            separators[lineCount] = (byte) separator.ordinal();
+            lineCount++;
+            textLength += charCount + separator.getLength();
+        }
+
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.text;
+
+import androidx.annotation.NonNull;
+
+import io.github.rosemoe.sora.annotations.UnsupportedUserUsage;
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.PrefixSumIntList;
+
+/**
+ * Indexer Impl for Content
+ * <p>
+ * Lengths of lines (with line separators) are maintained in a {@link PrefixSumIntList}, so that
+ * conversions between index and (line,column) are O(log n) for any position, and modifications of
+ * text update the index in O(log n) for each changed line. Compared with {@link CachedIndexer}, queries
+ * do not depend on the distance from recently queried positions.
+ *
+ * @author Rosemoe
+ */
+public class PrefixSumIndexer implements Indexer, ContentListener {
+
+    private final Content content;
+    private final PrefixSumIntList lineLengths = new PrefixSumIntList();
+    private int[] buffer = new int[64];
+
+    /**
+     * Create a new PrefixSumIndexer for the given content
+     *
+     * @param content Content to manage
+     */
+    PrefixSumIndexer(@NonNull Content content) {
+        this.content = content;
+        rebuild();
+    }
+
+    /**
+     * Rebuild the index with all lines in text. This is required if the lines of text are changed
+     * without notifying the indexer.
+     */
+    void rebuild() {
+        lineLengths.clear();
+        insertLines(0, content.getLineCount());
+    }
+
+    private int getLineLength(int line) {
+        return content.getColumnCountUnsafe(line) + content.getLineSeparatorUnsafe(line).getLength();
+    }
+
+    /**
+     * Insert lengths of lines [startLine, endLine) to the index
+     */
+    private void insertLines(int startLine, int endLine) {
+        int count = endLine - startLine;
+        if (buffer.length < count) {
+            buffer = new int[count];
+        }
+        for (int i = 0; i < count; i++) {
+            buffer[i] = getLineLength(startLine + i);
+        }
+        lineLengths.addAll(startLine, buffer, count);
+        if (buffer.length > 4096) {
+            // Do not hold large temporary buffers
+            buffer = new int[64];
+        }
+    }
+
+    @Override
+    public int getCharIndex(int line, int column) {
+        return getCharPosition(line, column).index;
+    }
+
+    @Override
+    public int getCharLine(int index) {
+        return getCharPosition(index).line;
+    }
+
+    @Override
+    public int getCharColumn(int index) {
+        return getCharPosition(index).column;
+    }
+
+    @NonNull
+    @Override
+    public CharPosition getCharPosition(int index) {
+        var pos = new CharPosition();
+        getCharPosition(index, pos);
+        return pos;
+    }
+
+    @Override
+    public void getCharPosition(int index, @NonNull CharPosition dest) {
+        content.checkIndex(index);
+        content.lock(false);
+        try {
+            long result = lineLengths.findByPrefixSum(index);
+            dest.index = index;
+            dest.line = IntPair.getFirst(result);
+            dest.column = index - IntPair.getSecond(result);
+        } finally {
+            content.unlock(false);
+        }
+    }
+
+    @NonNull
+    @Override
+    public CharPosition getCharPosition(int line, int column) {
+        var pos = new CharPosition();
+        getCharPosition(line, column, pos);
+        return pos;
+    }
+
+    @Override
+    public void getCharPosition(int line, int column, @NonNull CharPosition dest) {
+        content.checkLineAndColumn(line, column);
+        content.lock(false);
+        try {
+            dest.index = lineLengths.prefixSum(line) + column;
+            dest.line = line;
+            dest.column = column;
+        } finally {
+            content.unlock(false);
+        }
+    }
+
+    @Override
+    @UnsupportedUserUsage
+    public void beforeReplace(@NonNull Content content) {
+        //Do nothing
+    }
+
+    @Override
+    @UnsupportedUserUsage
+    public void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
+                            @NonNull CharSequence insertedContent) {
+        lineLengths.set(startLine, getLineLength(startLine));
+        if (endLine > startLine) {
+            insertLines(startLine + 1, endLine + 1);
+        }
+    }
+
+    @Override
+    @UnsupportedUserUsage
+    public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn,
+                            @NonNull CharSequence deletedContent) {
+        if (endLine > startLine) {
+            lineLengths.removeRange(startLine + 1, endLine + 1);
+        }
+        lineLengths.set(startLine, getLineLength(startLine));
+    }
+
+}
@@ -49,6 +49,20 @@ public class LongArrayList {
         }
     }
 
+    /**
+     * Add all values in the given list at end
+     */
+    public void addAll(LongArrayList list) {
+        int newLength = length + list.length;
+        if (newLength >= data.length) {
+            long[] newData = new long[Math.max(newLength + 1, data.length << 1)];
+            System.arraycopy(data, 0, newData, 0, length);
+            data = newData;
+        }
+        System.arraycopy(list.data, 0, data, length, list.length);
+        length = newLength;
+    }
+
     /**
      * Get length of the list
      */
@@ -0,0 +1,467 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.util;
+
+import java.util.Arrays;
+
+/**
+ * A list of non-negative ints, which supports prefix sum queries.
+ * <p>
+ * Elements are stored in blocks of limited size, and two Fenwick trees (binary indexed trees) over
+ * the blocks maintain the element counts and sums of blocks. Let B be the block capacity, and n be
+ * the element count:
+ * <ul>
+ *     <li>{@link #get(int)}: O(log(n/B))</li>
+ *     <li>{@link #set(int, int)}, {@link #prefixSum(int)} and {@link #findByPrefixSum(int)}: O(log(n/B) + B)</li>
+ *     <li>{@link #add(int, int)}: O(log(n/B) + B), with O(n/B) rebuild of the Fenwick trees when a block is split</li>
+ *     <li>{@link #addAll(int, int[], int)} and {@link #removeRange(int, int)}: O(n/B + k)</li>
+ * </ul>
+ * The sum of all elements must not exceed {@link Integer#MAX_VALUE}.
+ * <p>
+ * This class is not thread-safe for modifications, but concurrent queries are safe when there is no
+ * modification.
+ *
+ * @author Rosemoe
+ */
+public class PrefixSumIntList {
+
+    public final static int DEFAULT_BLOCK_CAPACITY = 256;
+
+    private final int blockCapacity;
+    private int[][] blocks;
+    private int[] blockSizes;
+    private int[] blockSums;
+    private int blockCount;
+    /**
+     * Fenwick trees over blocks, 1-based
+     */
+    private int[] countTree;
+    private int[] sumTree;
+    private int size;
+    private int total;
+
+    public PrefixSumIntList() {
+        this(DEFAULT_BLOCK_CAPACITY);
+    }
+
+    public PrefixSumIntList(int blockCapacity) {
+        if (blockCapacity < 8) {
+            throw new IllegalArgumentException("block capacity should be at least 8");
+        }
+        this.blockCapacity = blockCapacity;
+        blocks = new int[8][];
+        blockSizes = new int[8];
+        blockSums = new int[8];
+        countTree = new int[9];
+        sumTree = new int[9];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sum of all elements
+     */
+    public int sum() {
+        return total;
+    }
+
+    private void checkAccessIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds. length = " + size);
+        }
+    }
+
+    private void checkInsertIndex(int index) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds. length = " + size);
+        }
+    }
+
+    // ---------------- Fenwick tree operations ----------------
+
+    private static void treeAdd(int[] tree, int count, int block, int delta) {
+        for (int i = block + 1; i <= count; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Sum of values of blocks [0, block)
+     */
+    private static int treePrefix(int[] tree, int block) {
+        int sum = 0;
+        for (int i = block; i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Find the max block count {@code pos} so that the sum of values of blocks [0, pos) is not greater
+     * than {@code target}
+     */
+    private static int treeSearch(int[] tree, int count, int target) {
+        int pos = 0;
+        for (int step = Integer.highestOneBit(Math.max(count, 1)); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= count && tree[next] <= target) {
+                pos = next;
+                target -= tree[next];
+            }
+        }
+        return pos;
+    }
+
+    private void rebuildTrees() {
+        if (countTree.length < blockCount + 1) {
+            countTree = new int[blocks.length + 1];
+            sumTree = new int[blocks.length + 1];
+        }
+        for (int i = 1; i <= blockCount; i++) {
+            countTree[i] = blockSizes[i - 1];
+            sumTree[i] = blockSums[i - 1];
+        }
+        for (int i = 1; i <= blockCount; i++) {
+            int parent = i + (i & -i);
+            if (parent <= blockCount) {
+                countTree[parent] += countTree[i];
+                sumTree[parent] += sumTree[i];
+            }
+        }
+    }
+
+    // ---------------- Block operations ----------------
+
+    /**
+     * Find the block containing the element at given index. For {@code index == size}, the last block
+     * is returned.
+     *
+     * @return Packed (block, offset in block)
+     */
+    private long locate(int index) {
+        int block = treeSearch(countTree, blockCount, index);
+        if (block >= blockCount) {
+            block = blockCount - 1;
+        }
+        return IntPair.pack(block, index - treePrefix(countTree, block));
+    }
+
+    private void ensureBlockSlots(int count) {
+        if (blocks.length < count) {
+            int newLength = Math.max(count, blocks.length * 2);
+            blocks = Arrays.copyOf(blocks, newLength);
+            blockSizes = Arrays.copyOf(blockSizes, newLength);
+            blockSums = Arrays.copyOf(blockSums, newLength);
+        }
+    }
+
+    /**
+     * Insert {@code count} empty block slots at the given position. Fenwick trees are not updated.
+     */
+    private void insertBlockSlots(int position, int count) {
+        ensureBlockSlots(blockCount + count);
+        System.arraycopy(blocks, position, blocks, position + count, blockCount - position);
+        System.arraycopy(blockSizes, position, blockSizes, position + count, blockCount - position);
+        System.arraycopy(blockSums, position, blockSums, position + count, blockCount - position);
+        blockCount += count;
+    }
+
+    /**
+     * Remove block slots [from, to). Fenwick trees are not updated.
+     */
+    private void removeBlockSlots(int from, int to) {
+        System.arraycopy(blocks, to, blocks, from, blockCount - to);
+        System.arraycopy(blockSizes, to, blockSizes, from, blockCount - to);
+        System.arraycopy(blockSums, to, blockSums, from, blockCount - to);
+        for (int i = blockCount - (to - from); i < blockCount; i++) {
+            blocks[i] = null;
+        }
+        blockCount -= to - from;
+    }
+
+    private static int sumOf(int[] data, int from, int to) {
+        int sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += data[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Split the given block at the given offset, so that the elements from offset are in the next
+     * block. Fenwick trees are not updated.
+     */
+    private void splitBlock(int block, int offset) {
+        var data = blocks[block];
+        int blockSize = blockSizes[block];
+        var newData = new int[blockCapacity];
+        System.arraycopy(data, offset, newData, 0, blockSize - offset);
+        insertBlockSlots(block + 1, 1);
+        blocks[block + 1] = newData;
+        blockSizes[block + 1] = blockSize - offset;
+        blockSums[block + 1] = sumOf(newData, 0, blockSize - offset);
+        blockSizes[block] = offset;
+        blockSums[block] -= blockSums[block + 1];
+    }
+
+    // ---------------- Public operations ----------------
+
+    public int get(int index) {
+        checkAccessIndex(index);
+        long pos = locate(index);
+        return blocks[IntPair.getFirst(pos)][IntPair.getSecond(pos)];
+    }
+
+    public int set(int index, int value) {
+        checkAccessIndex(index);
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value");
+        }
+        long pos = locate(index);
+        int block = IntPair.getFirst(pos);
+        var data = blocks[block];
+        int offset = IntPair.getSecond(pos);
+        int old = data[offset];
+        int delta = value - old;
+        if (delta != 0) {
+            data[offset] = value;
+            blockSums[block] += delta;
+            total += delta;
+            treeAdd(sumTree, blockCount, block, delta);
+        }
+        return old;
+    }
+
+    public void add(int value) {
+        add(size, value);
+    }
+
+    public void add(int index, int value) {
+        checkInsertIndex(index);
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value");
+        }
+        if (blockCount == 0) {
+            ensureBlockSlots(1);
+            blocks[0] = new int[blockCapacity];
+            blockCount = 1;
+            rebuildTrees();
+        }
+        long pos = locate(index);
+        int block = IntPair.getFirst(pos);
+        int offset = IntPair.getSecond(pos);
+        var data = blocks[block];
+        int blockSize = blockSizes[block];
+        System.arraycopy(data, offset, data, offset + 1, blockSize - offset);
+        data[offset] = value;
+        blockSizes[block]++;
+        blockSums[block] += value;
+        size++;
+        total += value;
+        if (blockSizes[block] == blockCapacity) {
+            splitBlock(block, blockCapacity / 2);
+            rebuildTrees();
+        } else {
+            treeAdd(countTree, blockCount, block, 1);
+            treeAdd(sumTree, blockCount, block, value);
+        }
+    }
+
+    /**
+     * Insert the first {@code count} elements in {@code values} at the given index
+     */
+    public void addAll(int index, int[] values, int count) {
+        checkInsertIndex(index);
+        if (count < blockCapacity / 4) {
+            for (int i = 0; i < count; i++) {
+                add(index + i, values[i]);
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (values[i] < 0) {
+                throw new IllegalArgumentException("negative value");
+            }
+        }
+        // Split at insertion point, and put the new elements in new blocks
+        int insertBlock;
+        if (blockCount == 0) {
+            insertBlock = 0;
+        } else if (index == size) {
+            insertBlock = blockCount;
+        } else {
+            long pos = locate(index);
+            int block = IntPair.getFirst(pos);
+            int offset = IntPair.getSecond(pos);
+            if (offset != 0) {
+                splitBlock(block, offset);
+                insertBlock = block + 1;
+            } else {
+                insertBlock = block;
+            }
+        }
+        // Leave some space in new blocks for later insertions
+        int fill = blockCapacity * 3 / 4;
+        int newBlockCount = (count + fill - 1) / fill;
+        insertBlockSlots(insertBlock, newBlockCount);
+        for (int i = 0; i < newBlockCount; i++) {
+            int from = i * fill;
+            int length = Math.min(fill, count - from);
+            var data = new int[blockCapacity];
+            System.arraycopy(values, from, data, 0, length);
+            blocks[insertBlock + i] = data;
+            blockSizes[insertBlock + i] = length;
+            int sum = sumOf(data, 0, length);
+            blockSums[insertBlock + i] = sum;
+            total += sum;
+        }
+        size += count;
+        rebuildTrees();
+    }
+
+    public int remove(int index) {
+        int value = get(index);
+        removeRange(index, index + 1);
+        return value;
+    }
+
+    /**
+     * Remove elements in [from, to)
+     */
+    public void removeRange(int from, int to) {
+        if (from > to) throw new IndexOutOfBoundsException("start > end");
+        if (from < 0 || to > size)
+            throw new IndexOutOfBoundsException("start = " + from + ", end = " + to + ", length = " + size);
+        if (from == to) return;
+        long pos = locate(from);
+        int block = IntPair.getFirst(pos);
+        int offset = IntPair.getSecond(pos);
+        int remaining = to - from;
+        boolean structureChanged = false;
+        int firstBlock = block;
+        while (remaining > 0) {
+            int blockSize = blockSizes[block];
+            int removeCount = Math.min(remaining, blockSize - offset);
+            var data = blocks[block];
+            int removedSum = sumOf(data, offset, offset + removeCount);
+            System.arraycopy(data, offset + removeCount, data, offset, blockSize - offset - removeCount);
+            blockSizes[block] -= removeCount;
+            blockSums[block] -= removedSum;
+            size -= removeCount;
+            total -= removedSum;
+            remaining -= removeCount;
+            if (blockSizes[block] == 0) {
+                structureChanged = true;
+            } else if (!structureChanged) {
+                treeAdd(countTree, blockCount, block, -removeCount);
+                treeAdd(sumTree, blockCount, block, -removedSum);
+            }
+            block++;
+            offset = 0;
+        }
+        int lastBlock = block - 1;
+        // Remove empty blocks
+        int write = firstBlock;
+        for (int i = firstBlock; i <= lastBlock; i++) {
+            if (blockSizes[i] != 0) {
+                blocks[write] = blocks[i];
+                blockSizes[write] = blockSizes[i];
+                blockSums[write] = blockSums[i];
+                write++;
+            }
+        }
+        if (write <= lastBlock) {
+            removeBlockSlots(write, lastBlock + 1);
+        }
+        // Merge small neighbor blocks
+        if (firstBlock > 0) {
+            firstBlock--;
+        }
+        for (int i = firstBlock; i < Math.min(write + 1, blockCount - 1); ) {
+            if (blockSizes[i] + blockSizes[i + 1] <= blockCapacity / 2) {
+                System.arraycopy(blocks[i + 1], 0, blocks[i], blockSizes[i], blockSizes[i + 1]);
+                blockSizes[i] += blockSizes[i + 1];
+                blockSums[i] += blockSums[i + 1];
+                removeBlockSlots(i + 1, i + 2);
+                structureChanged = true;
+            } else {
+                i++;
+            }
+        }
+        if (structureChanged) {
+            rebuildTrees();
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(blocks, null);
+        blockCount = 0;
+        size = 0;
+        total = 0;
+    }
+
+    /**
+     * Get sum of elements [0, index)
+     */
+    public int prefixSum(int index) {
+        checkInsertIndex(index);
+        if (index == size) {
+            return total;
+        }
+        long pos = locate(index);
+        int block = IntPair.getFirst(pos);
+        return treePrefix(sumTree, block) + sumOf(blocks[block], 0, IntPair.getSecond(pos));
+    }
+
+    /**
+     * Find the max index {@code i} in [0, size) so that {@code prefixSum(i) <= target}
+     *
+     * @return Packed (i, prefixSum(i)) by {@link IntPair}
+     */
+    public long findByPrefixSum(int target) {
+        if (size == 0) {
+            throw new IllegalStateException("list is empty");
+        }
+        if (target < 0) {
+            throw new IllegalArgumentException("negative target");
+        }
+        int block = treeSearch(sumTree, blockCount, target);
+        if (block >= blockCount) {
+            block = blockCount - 1;
+        }
+        int acc = treePrefix(sumTree, block);
+        int index = treePrefix(countTree, block);
+        var data = blocks[block];
+        int blockSize = blockSizes[block];
+        int offset = 0;
+        while (offset + 1 < blockSize && acc + data[offset] <= target) {
+            acc += data[offset];
+            offset++;
+        }
+        return IntPair.pack(index + offset, acc);
+    }
+
+}
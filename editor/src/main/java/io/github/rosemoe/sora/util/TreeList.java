@@ -0,0 +1,383 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list backed by an implicit-key treap (randomized balanced binary tree).
+ * <p>
+ * Compared with {@link java.util.ArrayList}, random access is O(log n) instead of O(1), but inserting
+ * or removing elements, including bulk insertion by {@link #addAll(int, Collection)} and range
+ * removal by {@code subList(from, to).clear()}, costs O(log n + k) instead of O(n), where k is the
+ * count of elements inserted. Elements are not shifted in memory on modification.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Rosemoe
+ */
+public class TreeList<T> extends AbstractList<T> {
+
+    private Node<T> root;
+    private int seed = 0x2545F491;
+    private T removed;
+
+    public TreeList() {
+
+    }
+
+    public TreeList(@NonNull Collection<? extends T> c) {
+        addAll(c);
+    }
+
+    private void checkInsertIndex(int index) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds. length = " + size());
+        }
+    }
+
+    private void checkAccessIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds. length = " + size());
+        }
+    }
+
+    private int nextPriority() {
+        // xorshift32
+        int x = seed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        seed = x;
+        return x;
+    }
+
+    private static int sizeOf(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private Node<T> findNode(int index) {
+        var node = root;
+        while (true) {
+            int leftSize = sizeOf(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Merge two trees. All elements in {@code a} are placed before elements in {@code b}
+     */
+    private static <T> Node<T> merge(Node<T> a, Node<T> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            b.update();
+            return b;
+        }
+    }
+
+    /**
+     * Split the tree so that the first {@code count} elements are in {@code dest[0]} and the
+     * remaining ones are in {@code dest[1]}
+     */
+    private static <T> void split(Node<T> node, int count, Node<T>[] dest) {
+        if (node == null) {
+            dest[0] = dest[1] = null;
+            return;
+        }
+        int leftSize = sizeOf(node.left);
+        if (count <= leftSize) {
+            split(node.left, count, dest);
+            node.left = dest[1];
+            node.update();
+            dest[1] = node;
+        } else {
+            split(node.right, count - leftSize - 1, dest);
+            node.right = dest[0];
+            node.update();
+            dest[0] = node;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<T>[] newSplitResult() {
+        return (Node<T>[]) new Node[2];
+    }
+
+    /**
+     * Build a balanced tree from the given array in linear time
+     */
+    @SuppressWarnings("unchecked")
+    private Node<T> build(Object[] elements, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        var node = new Node<>((T) elements[mid], nextPriority());
+        node.left = build(elements, from, mid);
+        node.right = build(elements, mid + 1, to);
+        node.size = to - from;
+        // Sift down the priority so that the heap property holds
+        var current = node;
+        while (true) {
+            var target = current;
+            if (current.left != null && current.left.priority > target.priority) {
+                target = current.left;
+            }
+            if (current.right != null && current.right.priority > target.priority) {
+                target = current.right;
+            }
+            if (target == current) {
+                break;
+            }
+            int tmp = target.priority;
+            target.priority = current.priority;
+            current.priority = tmp;
+            current = target;
+        }
+        return node;
+    }
+
+    @Override
+    public T get(int index) {
+        checkAccessIndex(index);
+        return findNode(index).value;
+    }
+
+    @Override
+    public T set(int index, T element) {
+        checkAccessIndex(index);
+        var node = findNode(index);
+        var old = node.value;
+        node.value = element;
+        return old;
+    }
+
+    @Override
+    public void add(int index, T element) {
+        checkInsertIndex(index);
+        var node = new Node<>(element, nextPriority());
+        if (index == size()) {
+            root = merge(root, node);
+        } else {
+            var parts = newSplitResult();
+            split(root, index, parts);
+            root = merge(merge(parts[0], node), parts[1]);
+        }
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(@NonNull Collection<? extends T> c) {
+        return addAll(size(), c);
+    }
+
+    @Override
+    public boolean addAll(int index, @NonNull Collection<? extends T> c) {
+        checkInsertIndex(index);
+        var elements = c.toArray();
+        if (elements.length == 0) {
+            return false;
+        }
+        var subtree = build(elements, 0, elements.length);
+        if (index == size()) {
+            root = merge(root, subtree);
+        } else {
+            var parts = newSplitResult();
+            split(root, index, parts);
+            root = merge(merge(parts[0], subtree), parts[1]);
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public T remove(int index) {
+        checkAccessIndex(index);
+        root = removeAt(root, index);
+        var res = removed;
+        removed = null;
+        modCount++;
+        return res;
+    }
+
+    private Node<T> removeAt(Node<T> node, int index) {
+        int leftSize = sizeOf(node.left);
+        if (index < leftSize) {
+            node.left = removeAt(node.left, index);
+        } else if (index > leftSize) {
+            node.right = removeAt(node.right, index - leftSize - 1);
+        } else {
+            removed = node.value;
+            return merge(node.left, node.right);
+        }
+        node.size--;
+        return node;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex > toIndex) throw new IndexOutOfBoundsException("start > end");
+        if (fromIndex < 0 || toIndex > size())
+            throw new IndexOutOfBoundsException("start = " + fromIndex + ", end = " + toIndex + ", length = " + size());
+        if (fromIndex == toIndex) return;
+        var parts = newSplitResult();
+        split(root, toIndex, parts);
+        var tail = parts[1];
+        split(parts[0], fromIndex, parts);
+        root = merge(parts[0], tail);
+        modCount++;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        modCount++;
+    }
+
+    @Override
+    public int size() {
+        return sizeOf(root);
+    }
+
+    @NonNull
+    @Override
+    public Iterator<T> iterator() {
+        return new Itr();
+    }
+
+    private static class Node<T> {
+
+        T value;
+        Node<T> left;
+        Node<T> right;
+        int size;
+        int priority;
+
+        Node(T value, int priority) {
+            this.value = value;
+            this.priority = priority;
+            this.size = 1;
+        }
+
+        void update() {
+            size = sizeOf(left) + sizeOf(right) + 1;
+        }
+
+    }
+
+    /**
+     * In-order iterator, which visits each node in amortized O(1) time
+     */
+    private class Itr implements Iterator<T> {
+
+        private final java.util.ArrayList<Node<T>> stack = new java.util.ArrayList<>();
+        private int cursor;
+        private int lastReturned = -1;
+        private int expectedModCount = modCount;
+
+        Itr() {
+            seek(0);
+        }
+
+        private void seek(int index) {
+            stack.clear();
+            cursor = index;
+            var node = root;
+            while (node != null) {
+                int leftSize = sizeOf(node.left);
+                if (index < leftSize) {
+                    stack.add(node);
+                    node = node.left;
+                } else if (index == leftSize) {
+                    stack.add(node);
+                    break;
+                } else {
+                    index -= leftSize + 1;
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor < size();
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            var node = stack.remove(stack.size() - 1);
+            var next = node.right;
+            while (next != null) {
+                stack.add(next);
+                next = next.left;
+            }
+            lastReturned = cursor++;
+            return node.value;
+        }
+
+        @Override
+        public void remove() {
+            if (lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            TreeList.this.remove(lastReturned);
+            expectedModCount = modCount;
+            seek(lastReturned);
+            lastReturned = -1;
+        }
+    }
+
+}
@@ -1381,16 +1381,14 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         if (editorSearcher.currentPattern == null || editorSearcher.searchOptions == null) {
             return;
         }
-        if (!editorSearcher.isResultValid()) {
-            return;
-        }
+        // Partial results are also displayed while searching
         var res = editorSearcher.lastResults;
         if (res == null) {
             return;
         }
         var lineLeft = text.getCharIndex(line, 0);
         var lineRight = lineLeft + text.getColumnCount(line);
-        for (int i = Math.max(0, positions.lowerBoundByFirst(lineLeft) - 1); i < res.size(); i++) {
+        for (int i = Math.max(0, res.lowerBoundByFirst(lineLeft) - 1); i < res.size(); i++) {
             var region = res.get(i);
             var start = IntPair.getFirst(region);
             var end = IntPair.getSecond(region);
@@ -1581,28 +1579,28 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      * Create layout for text
      */
     protected void createLayout(boolean clearWordwrapCache) {
-        if (layout != null) {
-            if (layout instanceof LineBreakLayout && !wordwrap) {
-                ((LineBreakLayout) layout).reuse(text);
-                return;
-            }
-            if (layout instanceof WordwrapLayout && wordwrap) {
-                var newLayout = new WordwrapLayout(this, text, antiWordBreaking, (WordwrapLayout) layout, clearWordwrapCache);
-                layout.destroyLayout();
-                layout = newLayout;
-                return;
-            }
+        if (layout instanceof LineBreakLayout && !wordwrap) {
+            ((LineBreakLayout) layout).reuse(text);
+        } else if (layout instanceof WordwrapLayout && wordwrap) {
+            var newLayout = new WordwrapLayout(this, text, antiWordBreaking, (WordwrapLayout) layout, clearWordwrapCache);
             layout.destroyLayout();
-        }
-        if (wordwrap) {
-            renderer.setCachedLineNumberWidth((int) measureLineNumber());
-            layout = new WordwrapLayout(this, text, antiWordBreaking, null, false);
+            layout = newLayout;
         } else {
-            layout = new LineBreakLayout(this, text);
-        }
-        if (touchHandler != null) {
-            touchHandler.scrollBy(0, 0);
+            if (layout != null) {
+                layout.destroyLayout();
+            }
+            if (wordwrap) {
+                renderer.setCachedLineNumberWidth((int) measureLineNumber());
+                layout = new WordwrapLayout(this, text, antiWordBreaking, null, false);
+            } else {
+                layout = new LineBreakLayout(this, text);
+            }
+            if (touchHandler != null) {
+                touchHandler.scrollBy(0, 0);
+            }
         }
+        // Visible lines can be changed by new text or layout
+        styleDelegate.updateVisibleLineRange();
     }
 
     /**
@@ -3122,7 +3120,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
      * @see #isFormatting()
      */
     public boolean isEditable() {
-        return editable && !layoutBusy && !isFormatting();
+        return editable && !layoutBusy && !isFormatting() && (text == null || !text.isReadOnly());
     }
 
     /**
@@ -4830,6 +4828,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         if (oldHeight > h && props.adjustToSelectionOnResize) {
             ensureSelectionVisible();
         }
+        styleDelegate.updateVisibleLineRange();
     }
 
     @Override
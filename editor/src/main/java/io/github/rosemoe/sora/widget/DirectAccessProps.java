@@ -141,6 +141,13 @@ public class DirectAccessProps implements Serializable {
      */
     public long cancelCompletionNs = 70 * 1000000;
 
+    /**
+     * Max count of completion items displayed at first. More items are sorted and displayed when
+     * the user scrolls to the end of the completion list.
+     * Must be positive. Set to {@link Integer#MAX_VALUE} to display all items at once.
+     */
+    public int completionItemLimit = 50;
+
     /**
      * Whether the editor should adjust its scroll position to make selection visible when its
      * layout height decreases.
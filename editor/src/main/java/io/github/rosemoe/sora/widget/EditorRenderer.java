@@ -525,8 +525,6 @@ public class EditorRenderer {
      * @param canvas Canvas you want to draw
      */
     public void drawView(Canvas canvas) {
-        cursor.updateCache(editor.getFirstVisibleLine());
-
         EditorColorScheme color = editor.getColorScheme();
         drawColor(canvas, color.getColor(EditorColorScheme.WHOLE_BACKGROUND), viewRect);
 
@@ -37,8 +37,6 @@ import io.github.rosemoe.sora.R;
 import io.github.rosemoe.sora.event.ContentChangeEvent;
 import io.github.rosemoe.sora.event.PublishSearchResultEvent;
 import io.github.rosemoe.sora.event.SelectionChangeEvent;
-import io.github.rosemoe.sora.text.Content;
-import io.github.rosemoe.sora.text.TextUtils;
 import io.github.rosemoe.sora.util.IntPair;
 import io.github.rosemoe.sora.util.LongArrayList;
 
@@ -47,6 +45,7 @@ import io.github.rosemoe.sora.util.LongArrayList;
  * Note that editor searches text in another thread, so results may not be available immediately. Also,
  * the searcher does not match empty text. For example, you will never match a single empty
  * line by regex '^.*$'. What's more, zero-length pattern is not permitted.
+ * Large text is searched by multiple threads, and matches found so far are displayed before the search is done.
  * The searcher updates its search results automatically when editor text is changed, even after {@link CodeEditor#setText(CharSequence)}
  * is invoked. So be careful that the search result is changing and {@link PublishSearchResultEvent} is
  * re-triggered when search result is available for changed text.
@@ -61,11 +60,15 @@ public class EditorSearcher {
     protected String currentPattern;
     protected SearchOptions searchOptions;
     protected Thread currentThread;
+    private ParallelSearchTask currentTask;
     /**
      * Search results. Note that it is naturally sorted by start index (and also end index).
      * No overlapping region is permitted.
+     * <p>
+     * While a search is in progress, this holds partial results found so far, or null.
      */
     protected LongArrayList lastResults;
+    private SearchStatistics lastStatistics;
     private boolean cyclicJumping = true;
 
     EditorSearcher(@NonNull CodeEditor editor) {
@@ -124,21 +127,33 @@ public class EditorSearcher {
      * Execute current match task. Cancel any previous tasks.
      */
     private void executeMatch() {
+        cancelCurrentTask();
+        // Results of previous text are no longer valid
+        lastResults = null;
+        var callback = new SearchCallback();
+        var task = new ParallelSearchTask(editor.getText().copyTextShallow(), currentPattern, searchOptions,
+                editor.getFirstVisibleLine(), callback);
+        callback.task = task;
+        currentTask = task;
+        currentThread = new Thread(task);
+        currentThread.start();
+    }
+
+    private void cancelCurrentTask() {
+        if (currentTask != null) {
+            currentTask.cancel();
+            currentTask = null;
+        }
         if (currentThread != null && currentThread.isAlive()) {
             currentThread.interrupt();
         }
-        var runnable = new SearchRunnable(editor.getText(), searchOptions, currentPattern);
-        currentThread = new Thread(runnable);
-        currentThread.start();
     }
 
     /**
      * Stop searching.
      */
     public void stopSearch() {
-        if (currentThread != null && currentThread.isAlive()) {
-            currentThread.interrupt();
-        }
+        cancelCurrentTask();
         currentThread = null;
         lastResults = null;
         currentPattern = null;
@@ -159,6 +174,14 @@ public class EditorSearcher {
         }
     }
 
+    /**
+     * Get statistics of last completed search, or {@code null} if no search is completed yet.
+     */
+    @Nullable
+    public SearchStatistics getLastSearchStatistics() {
+        return lastStatistics;
+    }
+
     /**
      * Find current selected region in search results and return the index in search result.
      * Or {@code -1} if result is not available or the current selected region is not in result.
@@ -417,75 +440,107 @@ public class EditorSearcher {
     }
 
     /**
-     * Run for regex matching
+     * Statistics of a completed search
+     *
+     * @see EditorSearcher#getLastSearchStatistics()
      */
-    private final class SearchRunnable implements Runnable {
+    public static class SearchStatistics {
 
-        private final StringBuilder text;
-        private final String pattern;
-        private final SearchOptions options;
-        private Thread localThread;
+        /**
+         * Length of searched text
+         */
+        public final int textLength;
+        /**
+         * Line count of searched text
+         */
+        public final int lineCount;
+        /**
+         * Count of line range chunks the text is partitioned into
+         */
+        public final int chunkCount;
+        /**
+         * Count of workers scanning the chunks at the same time
+         */
+        public final int workerCount;
+        public final int matchCount;
+        /**
+         * Time for copying the text, in nanoseconds
+         */
+        public final long prepareTime;
+        /**
+         * Time until first results are published, in nanoseconds
+         */
+        public final long firstResultTime;
+        /**
+         * Time of the whole search, in nanoseconds
+         */
+        public final long totalTime;
+
+        SearchStatistics(int textLength, int lineCount, int chunkCount, int workerCount, int matchCount,
+                         long prepareTime, long firstResultTime, long totalTime) {
+            this.textLength = textLength;
+            this.lineCount = lineCount;
+            this.chunkCount = chunkCount;
+            this.workerCount = workerCount;
+            this.matchCount = matchCount;
+            this.prepareTime = prepareTime;
+            this.firstResultTime = firstResultTime;
+            this.totalTime = totalTime;
+        }
+
+        /**
+         * Get searched chars per second
+         */
+        public double getThroughput() {
+            return totalTime == 0 ? 0 : textLength * 1e9 / totalTime;
+        }
 
-        public SearchRunnable(@NonNull Content content, @NonNull SearchOptions options, @NonNull String pattern) {
-            this.text = content.toStringBuilder();
-            this.options = options;
-            this.pattern = pattern;
+        @NonNull
+        @Override
+        public String toString() {
+            return "SearchStatistics{" +
+                    "textLength=" + textLength +
+                    ", lineCount=" + lineCount +
+                    ", chunkCount=" + chunkCount +
+                    ", workerCount=" + workerCount +
+                    ", matchCount=" + matchCount +
+                    ", prepareTime=" + prepareTime +
+                    ", firstResultTime=" + firstResultTime +
+                    ", totalTime=" + totalTime +
+                    ", throughput=" + getThroughput() +
+                    '}';
         }
+    }
+
+    /**
+     * Receive results of current search task
+     */
+    private final class SearchCallback implements ParallelSearchTask.Callback {
+
+        private ParallelSearchTask task;
 
-        private boolean checkNotCancelled() {
-            return currentThread == localThread && !Thread.interrupted();
+        @Override
+        public void onPartialResult(@NonNull LongArrayList results) {
+            editor.postInLifecycle(() -> {
+                if (currentTask == task) {
+                    lastResults = results;
+                    editor.invalidate();
+                }
+            });
         }
 
         @Override
-        public void run() {
-            localThread = Thread.currentThread();
-            var results = new LongArrayList();
-            var textLength = text.length();
-            var ignoreCase = options.caseInsensitive;
-            var pattern = this.pattern;
-            switch (options.type) {
-                case SearchOptions.TYPE_NORMAL: {
-                    int nextStart = 0;
-                    var patternLength = pattern.length();
-                    while (nextStart != -1 && nextStart < textLength && checkNotCancelled()) {
-                        nextStart = TextUtils.indexOf(text, pattern, ignoreCase, nextStart);
-                        if (nextStart != -1) {
-                            results.add(IntPair.pack(nextStart, nextStart + patternLength));
-                            nextStart += patternLength;
-                        }
-                    }
-                    break;
+        public void onCompleted(@NonNull LongArrayList results, @NonNull SearchStatistics statistics) {
+            editor.postInLifecycle(() -> {
+                if (currentTask == task) {
+                    lastResults = results;
+                    lastStatistics = statistics;
+                    currentTask = null;
+                    currentThread = null;
+                    editor.invalidate();
+                    editor.dispatchEvent(new PublishSearchResultEvent(editor));
                 }
-                case SearchOptions.TYPE_WHOLE_WORD:
-                    pattern = "\\b" + Pattern.quote(pattern) + "\\b";
-                    // fall-through
-                case SearchOptions.TYPE_REGULAR_EXPRESSION:
-                    var regex = Pattern.compile(pattern, (ignoreCase ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE);
-                    int lastEnd = 0;
-                    // Matcher will call toString() on input several times
-                    var string = text.toString();
-                    var matcher = regex.matcher(string);
-                    while (lastEnd < textLength && matcher.find(lastEnd) && checkNotCancelled()) {
-                        lastEnd = matcher.end();
-                        var start = matcher.start();
-                        if (start == lastEnd) {
-                            // Do not match empty text
-                            lastEnd ++;
-                            continue;
-                        }
-                        results.add(IntPair.pack(matcher.start(), lastEnd));
-                    }
-            }
-            if (checkNotCancelled()) {
-                editor.postInLifecycle(() -> {
-                    if (currentThread == localThread) {
-                        lastResults = results;
-                        editor.invalidate();
-                        editor.dispatchEvent(new PublishSearchResultEvent(editor));
-                        currentThread = null;
-                    }
-                });
-            }
+            });
         }
     }
 
@@ -30,6 +30,7 @@ import androidx.annotation.Nullable;
 
 import java.lang.ref.WeakReference;
 
+import io.github.rosemoe.sora.event.ScrollEvent;
 import io.github.rosemoe.sora.event.SelectionChangeEvent;
 import io.github.rosemoe.sora.lang.analysis.AnalyzeManager;
 import io.github.rosemoe.sora.lang.analysis.StyleReceiver;
@@ -38,12 +39,14 @@ import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
 import io.github.rosemoe.sora.lang.brackets.PairedBracket;
 import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer;
 import io.github.rosemoe.sora.lang.styling.Styles;
+import io.github.rosemoe.sora.util.IntPair;
 
 public class EditorStyleDelegate implements StyleReceiver {
 
     private final WeakReference<CodeEditor> editorRef;
     private PairedBracket foundPair;
     private BracketsProvider bracketsProvider;
+    private volatile long visibleLineRange = -1;
 
     EditorStyleDelegate(@NonNull CodeEditor editor) {
         editorRef = new WeakReference<>(editor);
@@ -52,6 +55,18 @@ public class EditorStyleDelegate implements StyleReceiver {
                 postUpdateBracketPair();
             }
         });
+        editor.subscribeEvent(ScrollEvent.class, (event, __) -> updateVisibleLineRange());
+    }
+
+    /**
+     * Save visible lines in UI thread, so that analyzers can read them in their own threads. Called
+     * when the editor is scrolled, and when its layout or size is changed.
+     */
+    void updateVisibleLineRange() {
+        var editor = editorRef.get();
+        if (editor != null) {
+            visibleLineRange = IntPair.pack(editor.getFirstVisibleLine(), editor.getLastVisibleLine());
+        }
     }
 
     void onTextChange() {
@@ -79,6 +94,8 @@ public class EditorStyleDelegate implements StyleReceiver {
     void reset() {
         foundPair = null;
         bracketsProvider = null;
+        // Lines of old text are not visible any more
+        visibleLineRange = -1;
     }
 
     private void runOnUiThread(Runnable operation) {
@@ -136,6 +153,11 @@ public class EditorStyleDelegate implements StyleReceiver {
         }
     }
 
+    @Override
+    public long getVisibleLineRange() {
+        return visibleLineRange;
+    }
+
     public void clearFoundBracketPair() {
         this.foundPair = null;
     }
@@ -0,0 +1,635 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.MutableIntList;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import io.github.rosemoe.sora.text.CharArrayWrapper;
+import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.text.ContentLine;
+import io.github.rosemoe.sora.text.LiteralMatcher;
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
+
+/**
+ * Search task for {@link EditorSearcher}.
+ * <p>
+ * The text snapshot is partitioned by line ranges into chunks, which are scanned by a shared worker
+ * pool. Literal patterns without line separators are found by {@link LiteralMatcher} on the backing
+ * arrays of lines directly. Other patterns are found in a flat copy of the text. The chunk containing the given prior line is scheduled first, so that matches on screen
+ * are found as early as possible. A chunk owns the matches starting in its range, and such matches
+ * may extend into the following chunks. Chunk results are merged in order by the thread running this
+ * task: when a match of previous chunk ends after the start of next chunk, next chunk is scanned
+ * again from that end until the scan meets a match found by the chunk itself. So the final results
+ * are exactly the same as scanning the whole text sequentially.
+ * <p>
+ * Partial results are published while the chunks are being scanned.
+ *
+ * @author Rosemoe
+ */
+final class ParallelSearchTask implements Runnable {
+
+    private final static int MIN_CHUNK_LENGTH = 64 * 1024;
+    private final static int MAX_CHUNK_LENGTH = 1024 * 1024;
+    private final static long PUBLISH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private final static long NOT_FOUND = -1L;
+    /**
+     * Escaped letters that never match a line separator in regex
+     */
+    private final static String LINE_LOCAL_ESCAPES = "dwSbBAzZtfaehk123456789";
+    private final static ThreadPoolExecutor executor;
+
+    static {
+        int poolSize = Math.max(2, Runtime.getRuntime().availableProcessors());
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Content text;
+    private final String pattern;
+    private final EditorSearcher.SearchOptions options;
+    private final int priorLine;
+    private final Callback callback;
+    private final BlockingQueue<Integer> completedChunks = new LinkedBlockingQueue<>();
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+    private boolean textReleased;
+    private int textLength;
+    private int lineCount;
+    /**
+     * Flat copy of text, if lines are not searched directly
+     */
+    private char[] buffer;
+    private ContentLine[] lines;
+    private int[] lineStarts;
+    private MutableIntList chunkStarts;
+    private MutableIntList chunkLines;
+    private LongArrayList[] chunkResults;
+    private Finder mergeFinder;
+    private LiteralMatcher literal;
+    private boolean wholeWord;
+    private boolean lineMode;
+    private Pattern regex;
+    private Pattern lookaheadRegex;
+    private boolean sequential;
+
+    /**
+     * @param text      Text snapshot to search in. It is released when its content is copied
+     * @param priorLine The line whose chunk is scanned first
+     */
+    ParallelSearchTask(@NonNull Content text, @NonNull String pattern, @NonNull EditorSearcher.SearchOptions options,
+                       int priorLine, @NonNull Callback callback) {
+        this.text = text;
+        this.pattern = pattern;
+        this.options = options;
+        this.priorLine = priorLine;
+        this.callback = callback;
+    }
+
+    /**
+     * Cancel this task. Chunks not yet scanned are skipped, and no result is published any more.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Get worker count of the shared pool
+     */
+    static int getParallelism() {
+        return executor.getMaximumPoolSize();
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!cancelled) {
+                search();
+            }
+        } finally {
+            releaseText();
+        }
+    }
+
+    private void releaseText() {
+        if (!textReleased) {
+            textReleased = true;
+            text.release();
+        }
+    }
+
+    private void search() {
+        long startTime = System.nanoTime();
+        compilePattern();
+        int priorChunk = prepareChunks();
+        if (priorChunk == -1) {
+            return;
+        }
+        if (!lineMode) {
+            // Lines are no longer used after copying
+            releaseText();
+        }
+        long prepareTime = System.nanoTime() - startTime;
+
+        int chunkCount = chunkStarts.getSize();
+        LongArrayList results;
+        long firstResultTime = 0;
+        if (chunkCount == 1) {
+            results = scanChunk(0);
+        } else {
+            chunkResults = new LongArrayList[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                final int chunk = (priorChunk + i) % chunkCount;
+                executor.execute(() -> runChunk(chunk));
+            }
+            results = new LongArrayList();
+            var completed = new boolean[chunkCount];
+            int receivedCount = 0;
+            int mergedCount = 0;
+            long nextPublishTime = 0;
+            while (receivedCount < chunkCount) {
+                Integer chunk;
+                try {
+                    chunk = completedChunks.poll(PUBLISH_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    cancelled = true;
+                    return;
+                }
+                if (failure != null) {
+                    cancelled = true;
+                    throw new RuntimeException("search failed", failure);
+                }
+                if (cancelled) {
+                    return;
+                }
+                if (chunk == null) {
+                    continue;
+                }
+                receivedCount++;
+                completed[chunk] = true;
+                while (mergedCount < chunkCount && completed[mergedCount]) {
+                    mergeChunk(results, mergedCount);
+                    chunkResults[mergedCount] = null;
+                    mergedCount++;
+                }
+                long now = System.nanoTime();
+                if (receivedCount < chunkCount && now >= nextPublishTime) {
+                    if (firstResultTime == 0) {
+                        firstResultTime = now - startTime;
+                    }
+                    callback.onPartialResult(collectPartialResults(results, completed, mergedCount));
+                    nextPublishTime = now + PUBLISH_INTERVAL_NANOS;
+                }
+            }
+        }
+        if (cancelled) {
+            return;
+        }
+        long totalTime = System.nanoTime() - startTime;
+        if (firstResultTime == 0) {
+            firstResultTime = totalTime;
+        }
+        callback.onCompleted(results, new EditorSearcher.SearchStatistics(textLength, lineCount, chunkCount,
+                Math.min(chunkCount, getParallelism()), results.size(), prepareTime, firstResultTime, totalTime));
+    }
+
+    /**
+     * Partition the text into chunks, and copy the text or collect its lines.
+     *
+     * @return The chunk containing prior line, or -1 if cancelled
+     */
+    private int prepareChunks() {
+        int priorChunk = 0;
+        lineCount = text.getLineCount();
+        textLength = text.length();
+        if (lineMode) {
+            lines = new ContentLine[lineCount];
+            lineStarts = new int[lineCount];
+            chunkLines = new MutableIntList();
+            chunkLines.add(0);
+        } else {
+            buffer = new char[textLength];
+        }
+        int chunkLength = sequential ? Integer.MAX_VALUE :
+                Math.max(MIN_CHUNK_LENGTH, Math.min(MAX_CHUNK_LENGTH, textLength / (getParallelism() * 4)));
+        chunkStarts = new MutableIntList();
+        chunkStarts.add(0);
+        int offset = 0;
+        for (int i = 0; i < lineCount; i++) {
+            if (offset - chunkStarts.get(chunkStarts.getSize() - 1) >= chunkLength) {
+                chunkStarts.add(offset);
+                if (lineMode) {
+                    chunkLines.add(i);
+                }
+            }
+            if (i == priorLine) {
+                priorChunk = chunkStarts.getSize() - 1;
+            }
+            var line = text.getLine(i);
+            int length = line.length();
+            var separator = line.getLineSeparator();
+            if (lineMode) {
+                lines[i] = line;
+                lineStarts[i] = offset;
+            } else {
+                line.getChars(0, length, buffer, offset);
+                System.arraycopy(separator.getChars(), 0, buffer, offset + length, separator.getLength());
+            }
+            offset += length + separator.getLength();
+            if ((i & 4095) == 0 && cancelled) {
+                return -1;
+            }
+        }
+        return priorChunk;
+    }
+
+    private void runChunk(int chunk) {
+        try {
+            if (!cancelled) {
+                chunkResults[chunk] = scanChunk(chunk);
+            }
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            completedChunks.add(chunk);
+        }
+    }
+
+    private int getChunkStart(int chunk) {
+        return chunkStarts.get(chunk);
+    }
+
+    private int getChunkEnd(int chunk) {
+        return chunk + 1 < chunkStarts.getSize() ? chunkStarts.get(chunk + 1) : textLength;
+    }
+
+    @NonNull
+    private LongArrayList scanChunk(int chunk) {
+        if (lineMode) {
+            return scanLines(chunkLines.get(chunk), chunk + 1 < chunkLines.getSize() ? chunkLines.get(chunk + 1) : lineCount);
+        }
+        return scanRange(createFinder(), getChunkStart(chunk), getChunkEnd(chunk));
+    }
+
+    /**
+     * Find literal matches in the given lines. Matches never cross lines.
+     */
+    @NonNull
+    private LongArrayList scanLines(int startLine, int endLine) {
+        var results = new LongArrayList();
+        int patternLength = literal.getPatternLength();
+        for (int i = startLine; i < endLine; i++) {
+            if ((i & 255) == 0 && cancelled) {
+                break;
+            }
+            var line = lines[i];
+            int length = line.length();
+            var value = line.getBackingCharArray();
+            int offset = lineStarts[i];
+            int index = 0;
+            while ((index = literal.indexOf(value, index, length)) != -1) {
+                if (wholeWord && !LiteralMatcher.isWholeWord(value, 0, length, index, index + patternLength)) {
+                    index++;
+                    continue;
+                }
+                results.add(IntPair.pack(offset + index, offset + index + patternLength));
+                index += patternLength;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Find matches starting in the given range of flat text sequentially
+     */
+    @NonNull
+    private LongArrayList scanRange(@NonNull Finder finder, int start, int end) {
+        var results = new LongArrayList();
+        int position = start;
+        while (position < end && !cancelled) {
+            long match = finder.find(position, end);
+            if (match == NOT_FOUND) {
+                break;
+            }
+            results.add(match);
+            position = IntPair.getSecond(match);
+        }
+        return results;
+    }
+
+    /**
+     * Append results of the given chunk to merged results
+     */
+    private void mergeChunk(@NonNull LongArrayList merged, int chunk) {
+        var chunkResult = chunkResults[chunk];
+        int lastEnd = merged.size() == 0 ? 0 : IntPair.getSecond(merged.get(merged.size() - 1));
+        if (lastEnd <= getChunkStart(chunk)) {
+            merged.addAll(chunkResult);
+            return;
+        }
+        if (mergeFinder == null) {
+            mergeFinder = createFinder();
+        }
+        var finder = mergeFinder;
+        // Last match extends into this chunk. Matches are found from its end sequentially until
+        // the chunk has found the same match, after which the remaining results are identical
+        int index = 0;
+        int position = lastEnd;
+        int end = getChunkEnd(chunk);
+        while (position < end && !cancelled) {
+            long match = finder.find(position, end);
+            if (match == NOT_FOUND) {
+                return;
+            }
+            int start = IntPair.getFirst(match);
+            while (index < chunkResult.size() && IntPair.getFirst(chunkResult.get(index)) < start) {
+                index++;
+            }
+            if (index < chunkResult.size() && chunkResult.get(index) == match) {
+                for (; index < chunkResult.size(); index++) {
+                    merged.add(chunkResult.get(index));
+                }
+                return;
+            }
+            merged.add(match);
+            position = IntPair.getSecond(match);
+        }
+    }
+
+    /**
+     * Merged results with results of completed but not merged chunks. Overlapping regions across
+     * unmerged chunks are dropped.
+     */
+    @NonNull
+    private LongArrayList collectPartialResults(@NonNull LongArrayList merged, @NonNull boolean[] completed, int mergedCount) {
+        var results = new LongArrayList();
+        results.addAll(merged);
+        int lastEnd = merged.size() == 0 ? 0 : IntPair.getSecond(merged.get(merged.size() - 1));
+        for (int i = mergedCount; i < completed.length; i++) {
+            var chunkResult = chunkResults[i];
+            if (!completed[i] || chunkResult == null) {
+                continue;
+            }
+            for (int j = 0; j < chunkResult.size(); j++) {
+                long match = chunkResult.get(j);
+                if (IntPair.getFirst(match) >= lastEnd) {
+                    results.add(match);
+                    lastEnd = IntPair.getSecond(match);
+                }
+            }
+        }
+        return results;
+    }
+
+    private void compilePattern() {
+        var pattern = this.pattern;
+        if (options.type != EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION) {
+            literal = new LiteralMatcher(pattern, options.caseInsensitive);
+            wholeWord = options.type == EditorSearcher.SearchOptions.TYPE_WHOLE_WORD;
+            lineMode = pattern.indexOf('\n') == -1 && pattern.indexOf('\r') == -1;
+            return;
+        }
+        boolean lineLocal = isLineLocalRegex(pattern);
+        int flags = (options.caseInsensitive ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE;
+        regex = Pattern.compile(pattern, flags);
+        if (!lineLocal) {
+            try {
+                lookaheadRegex = Pattern.compile("(?=" + pattern + ")", flags);
+            } catch (PatternSyntaxException e) {
+                // For example, trailing comment in COMMENTS mode. Scan the text in one chunk
+                sequential = true;
+            }
+        }
+    }
+
+    @NonNull
+    private Finder createFinder() {
+        if (regex == null) {
+            return new LiteralFinder(buffer, literal, wholeWord);
+        }
+        return new RegexFinder(new CharArrayWrapper(buffer, buffer.length), regex, lookaheadRegex);
+    }
+
+    /**
+     * Check if the given regex can never match a line separator, by a conservative scan of its source.
+     * Matches of such regex never cross chunk boundaries.
+     */
+    static boolean isLineLocalRegex(@NonNull String regex) {
+        int classDepth = 0;
+        // Lower bound of possible range in char class. -1 for unknown
+        int lastClassChar = -1;
+        for (int i = 0; i < regex.length(); i++) {
+            char ch = regex.charAt(i);
+            switch (ch) {
+                case '\n':
+                case '\r':
+                    return false;
+                case '\\':
+                    if (i + 1 == regex.length()) {
+                        return false;
+                    }
+                    ch = regex.charAt(++i);
+                    if (ch == '\n' || ch == '\r' || (Character.isLetterOrDigit(ch) && LINE_LOCAL_ESCAPES.indexOf(ch) == -1)) {
+                        return false;
+                    }
+                    lastClassChar = -1;
+                    continue;
+                case '[':
+                    if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                        return false;
+                    }
+                    classDepth++;
+                    lastClassChar = -1;
+                    continue;
+                case ']':
+                    if (classDepth > 0) {
+                        classDepth--;
+                    }
+                    break;
+                case '-':
+                    if (classDepth > 0 && i + 1 < regex.length() && regex.charAt(i + 1) != ']' && lastClassChar <= '\r') {
+                        return false;
+                    }
+                    break;
+                case '(':
+                    if (classDepth == 0 && i + 1 < regex.length() && regex.charAt(i + 1) == '?') {
+                        // Inline flags enabling DOTALL or UNIX_LINES
+                        for (int j = i + 2; j < regex.length(); j++) {
+                            char flag = regex.charAt(j);
+                            if (flag == 's' || flag == 'd') {
+                                return false;
+                            }
+                            if (!Character.isLetter(flag) && flag != '-') {
+                                break;
+                            }
+                        }
+                    }
+                    break;
+            }
+            lastClassChar = ch;
+        }
+        return true;
+    }
+
+    /**
+     * Find matches in text. Not thread-safe
+     */
+    private abstract static class Finder {
+
+        /**
+         * Find the first non-empty match starting in [fromIndex, limit), exactly as scanning the whole
+         * text from fromIndex. The match may end after limit.
+         *
+         * @return Packed match region, or {@link #NOT_FOUND}
+         */
+        abstract long find(int fromIndex, int limit);
+
+    }
+
+    private final static class LiteralFinder extends Finder {
+
+        private final char[] text;
+        private final LiteralMatcher literal;
+        private final boolean wholeWord;
+
+        LiteralFinder(@NonNull char[] text, @NonNull LiteralMatcher literal, boolean wholeWord) {
+            this.text = text;
+            this.literal = literal;
+            this.wholeWord = wholeWord;
+        }
+
+        @Override
+        long find(int fromIndex, int limit) {
+            int length = literal.getPatternLength();
+            // Matches starting before limit
+            int end = (int) Math.min(text.length, (long) limit - 1 + length);
+            int index = fromIndex;
+            while ((index = literal.indexOf(text, index, end)) != -1) {
+                if (wholeWord && !LiteralMatcher.isWholeWord(text, 0, text.length, index, index + length)) {
+                    index++;
+                    continue;
+                }
+                return IntPair.pack(index, index + length);
+            }
+            return NOT_FOUND;
+        }
+
+    }
+
+    private final static class RegexFinder extends Finder {
+
+        private final Matcher matcher;
+        private final Matcher lookahead;
+        private final int textLength;
+
+        /**
+         * @param lookahead Lookahead form of the regex, for finding matches crossing limit. Null if
+         *                  the regex never matches line separators.
+         */
+        RegexFinder(@NonNull CharSequence text, @NonNull Pattern regex, @Nullable Pattern lookahead) {
+            matcher = regex.matcher(text);
+            matcher.useTransparentBounds(true);
+            matcher.useAnchoringBounds(false);
+            if (lookahead != null) {
+                this.lookahead = lookahead.matcher(text);
+                this.lookahead.useTransparentBounds(true);
+                this.lookahead.useAnchoringBounds(false);
+            } else {
+                this.lookahead = null;
+            }
+            textLength = text.length();
+        }
+
+        @Override
+        long find(int fromIndex, int limit) {
+            while (fromIndex < limit) {
+                matcher.region(fromIndex, limit);
+                boolean found = matcher.find();
+                int start, end;
+                if (lookahead == null || limit == textLength || !matcher.hitEnd()) {
+                    // Text after limit does not affect the result
+                    if (!found) {
+                        return NOT_FOUND;
+                    }
+                    start = matcher.start();
+                    end = matcher.end();
+                } else {
+                    // Some match may cross limit. The leftmost start is found by lookahead, which
+                    // is not bounded by region end, and then matched without limit
+                    lookahead.region(fromIndex, found ? Math.min(limit, matcher.start() + 1) : limit);
+                    if (!lookahead.find()) {
+                        return NOT_FOUND;
+                    }
+                    start = lookahead.start();
+                    matcher.region(start, textLength);
+                    if (!matcher.lookingAt()) {
+                        fromIndex = start + 1;
+                        continue;
+                    }
+                    end = matcher.end();
+                }
+                if (start >= limit) {
+                    return NOT_FOUND;
+                }
+                if (start == end) {
+                    // Do not match empty text
+                    fromIndex = start + 1;
+                    continue;
+                }
+                return IntPair.pack(start, end);
+            }
+            return NOT_FOUND;
+        }
+
+    }
+
+    interface Callback {
+
+        /**
+         * Called on the task thread when some chunks are completed
+         */
+        void onPartialResult(@NonNull LongArrayList results);
+
+        /**
+         * Called on the task thread when the search is done
+         */
+        void onCompleted(@NonNull LongArrayList results, @NonNull EditorSearcher.SearchStatistics statistics);
+
+    }
+
+}
@@ -52,6 +52,7 @@ import io.github.rosemoe.sora.lang.Language;
 import io.github.rosemoe.sora.lang.completion.CompletionCancelledException;
 import io.github.rosemoe.sora.lang.completion.CompletionItem;
 import io.github.rosemoe.sora.lang.completion.CompletionPublisher;
+import io.github.rosemoe.sora.lang.completion.CompletionRefiner;
 import io.github.rosemoe.sora.lang.styling.StylesUtils;
 import io.github.rosemoe.sora.text.CharPosition;
 import io.github.rosemoe.sora.text.ContentReference;
@@ -90,6 +91,7 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
     protected int maxHeight;
     protected CompletionThread completionThread;
     protected CompletionPublisher publisher;
+    protected CompletionRefiner refiner;
     protected WeakReference<List<CompletionItem>> lastAttachedItems;
     protected int currentSelection = -1;
     protected EditorCompletionAdapter adapter;
@@ -97,6 +99,7 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
     protected EventManager eventManager;
     private int completionWndPosMode = WINDOW_POS_MODE_AUTO;
     private CharPosition previousSelection;
+    private CharPosition refinedPosition;
     private long requestShow = 0;
     private long requestHide = -1;
     private boolean enabled = true;
@@ -426,6 +429,9 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
      */
     public void moveDown() {
         var adpView = layout.getCompletionList();
+        if (currentSelection + 1 >= adpView.getAdapter().getCount()) {
+            loadMoreItems();
+        }
         if (currentSelection + 1 >= adpView.getAdapter().getCount()) {
             return;
         }
@@ -434,6 +440,18 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
         ensurePosition();
     }
 
+    /**
+     * Display more items, if some items are not displayed because of item limit
+     *
+     * @see io.github.rosemoe.sora.widget.DirectAccessProps#completionItemLimit
+     */
+    public void loadMoreItems() {
+        final var publisher = this.publisher;
+        if (publisher != null && publisher.hasMoreItems()) {
+            publisher.loadMoreItems();
+        }
+    }
+
     /**
      * Move selection up
      */
@@ -484,7 +502,8 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
             editor.getText().beginBatchEdit();
             editor.restartInput();
             try {
-                item.performCompletion(editor, editor.getText(), completionThread.requestPosition);
+                var position = refinedPosition != null ? refinedPosition : completionThread.requestPosition;
+                item.performCompletion(editor, editor.getText(), position);
                 editor.updateCursor();
             } finally {
                 editor.getText().endBatchEdit();
@@ -507,6 +526,8 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
             previous.requestTimestamp = -1;
         }
         completionThread = null;
+        refiner = null;
+        refinedPosition = null;
     }
 
     /**
@@ -536,33 +557,76 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
             requestTime = System.nanoTime();
             return;
         }
+        if (refineCompletion()) {
+            return;
+        }
         cancelCompletion();
         requestTime = System.nanoTime();
         currentSelection = -1;
-        publisher = new CompletionPublisher(editor.getHandler(), () -> {
-            var items = publisher.getItems();
-            if (lastAttachedItems == null || lastAttachedItems.get() != items) {
-                adapter.attachValues(this, items);
-                adapter.notifyDataSetInvalidated();
-                lastAttachedItems = new WeakReference<>(items);
-            } else {
-                adapter.notifyDataSetChanged();
-            }
-            float newHeight = adapter.getItemHeight() * adapter.getCount();
-            if (newHeight == 0) {
-                hide();
-            }
-            updateCompletionWindowPosition();
-            setSize(getWidth(), (int) Math.min(newHeight, maxHeight));
-            if (!isShowing()) {
-                show();
-            }
-        }, editor.getEditorLanguage().getInterruptionLevel());
+        publisher = new CompletionPublisher(editor.getHandler(), this::onItemsUpdate,
+                editor.getEditorLanguage().getInterruptionLevel());
+        publisher.setItemLimit(editor.getProps().completionItemLimit);
         completionThread = new CompletionThread(requestTime, publisher);
         setLoading(true);
         completionThread.start();
     }
 
+    /**
+     * Refine items of last completion, if its result is complete and the user is still typing
+     * the word after the completion position
+     *
+     * @return Whether the items are refined
+     * @see CompletionPublisher#setComplete(boolean)
+     */
+    protected boolean refineCompletion() {
+        final var thread = completionThread;
+        if (thread == null || !thread.finished || thread.isCancelled() || !publisher.isComplete()) {
+            return false;
+        }
+        var cursor = editor.getCursor();
+        var requestPosition = thread.requestPosition;
+        if (cursor.getLeftLine() != requestPosition.line || cursor.getLeftColumn() <= requestPosition.column) {
+            return false;
+        }
+        var line = editor.getText().getLine(requestPosition.line);
+        var typed = line.subSequence(requestPosition.column, cursor.getLeftColumn()).toString();
+        if (!CompletionRefiner.isWordPart(typed)) {
+            return false;
+        }
+        if (refiner == null) {
+            refiner = new CompletionRefiner(publisher.getAllItems(), publisher.getComparator());
+        }
+        var result = refiner.refine(line, cursor.getLeftColumn(), typed);
+        requestTime = System.nanoTime();
+        currentSelection = -1;
+        refinedPosition = cursor.left();
+        publisher.setItems(result);
+        return true;
+    }
+
+    /**
+     * Called when the items of current publisher are updated
+     */
+    protected void onItemsUpdate() {
+        var items = publisher.getItems();
+        if (lastAttachedItems == null || lastAttachedItems.get() != items) {
+            adapter.attachValues(this, items);
+            adapter.notifyDataSetInvalidated();
+            lastAttachedItems = new WeakReference<>(items);
+        } else {
+            adapter.notifyDataSetChanged();
+        }
+        float newHeight = adapter.getItemHeight() * adapter.getCount();
+        if (newHeight == 0) {
+            hide();
+        }
+        updateCompletionWindowPosition();
+        setSize(getWidth(), (int) Math.min(newHeight, maxHeight));
+        if (!isShowing()) {
+            show();
+        }
+    }
+
     public void setMaxHeight(int height) {
         maxHeight = height;
     }
@@ -581,6 +645,10 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
         private final CompletionPublisher localPublisher;
         private long requestTimestamp;
         private boolean aborted;
+        /**
+         * Set on main thread after all items are published
+         */
+        private boolean finished;
 
         public CompletionThread(long requestTime, @NonNull CompletionPublisher publisher) {
             requestTimestamp = requestTime;
@@ -627,7 +695,10 @@ public class EditorAutoCompletion extends EditorPopupWindow implements EditorBui
                 } else {
                     editor.postInLifecycle(EditorAutoCompletion.this::hide);
                 }
-                editor.postInLifecycle(() -> setLoading(false));
+                editor.postInLifecycle(() -> {
+                    setLoading(false);
+                    finished = true;
+                });
             } catch (Exception e) {
                 if (e instanceof CompletionCancelledException) {
                     Log.v("CompletionThread", "Completion is cancelled");
@@ -72,6 +72,10 @@ public abstract class EditorCompletionAdapter extends BaseAdapter implements Ada
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
+        if (position == getCount() - 1) {
+            // Reached the end of list, display more items if any
+            window.getEditor().post(window::loadMoreItems);
+        }
         return getView(position, convertView, parent, position == window.getCurrentPosition());
     }
 
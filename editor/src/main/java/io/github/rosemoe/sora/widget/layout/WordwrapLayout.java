@@ -27,8 +27,10 @@ import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.collection.MutableIntList;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -39,6 +41,7 @@ import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentLine;
 import io.github.rosemoe.sora.util.IntPair;
 import io.github.rosemoe.sora.util.MyCharacter;
+import io.github.rosemoe.sora.util.PrefixSumIntList;
 import io.github.rosemoe.sora.widget.CodeEditor;
 
 /**
@@ -46,132 +49,264 @@ import io.github.rosemoe.sora.widget.CodeEditor;
  * <p>
  * This layout will not let character displayed outside the editor's width
  * <p>
- * However, using this can be power-costing because we will have to recreate this layout in various
- * conditions, such as when the line number increases and its width grows or when the text size has changed
+ * Rows are stored by line: the row count of each line is kept in a {@link PrefixSumIntList}, so that
+ * mapping between rows and lines takes O(log n) time, and edits only update the modified lines.
+ * Soft breaks are packed as row lengths in another {@link PrefixSumIntList}, so no object is
+ * created for each row or line.
+ * <p>
+ * When the layout is created, lines on screen are wrapped at once, and other lines are wrapped by
+ * background tasks in several rounds. Before a line is wrapped, it is displayed in a single row, or
+ * with its previous wrapping result when the layout is recreated for a new width.
  *
  * @author Rose
  */
 public class WordwrapLayout extends AbstractLayout {
 
+    /**
+     * Max line count wrapped in background in a round
+     */
+    private final static int LINES_PER_ROUND = SUBTASK_COUNT * MIN_LINE_COUNT_FOR_SUBTASK;
+
     private final int width;
     private final boolean antiWordBreaking;
-    private List<RowRegion> rowTable;
+    /**
+     * Row count of each line
+     */
+    private PrefixSumIntList rowCounts;
+    /**
+     * Lengths of rows ending with a soft break, in row order. The last row of each line is not
+     * stored, so soft breaks of line {@code i} start from index {@code rowCounts.prefixSum(i) - i}.
+     */
+    private PrefixSumIntList rowLengths;
+    /**
+     * Lines before this index have been wrapped by background tasks
+     */
+    private int wrappedLineCount;
+    private int modCount;
 
     public WordwrapLayout(@NonNull CodeEditor editor, @NonNull Content text, boolean antiWordBreaking, @Nullable WordwrapLayout oldLayout, boolean clearCache) {
         super(editor, text);
         this.antiWordBreaking = antiWordBreaking;
-        rowTable = oldLayout != null ? oldLayout.rowTable : new ArrayList<>();
-        if (clearCache) {
-            rowTable.clear();
-        }
         width = editor.getWidth() - (int) (editor.measureTextRegionOffset() + editor.getTextPaint().measureText("a"));
-        breakAllLines();
+        var lineCount = text.getLineCount();
+        // Find the first visible line before old results are modified
+        int anchorLine = 0, anchorRowOffset = 0, pixelOffset = 0;
+        var scrollable = editor.getEventHandler() != null && editor.getRowHeight() > 0;
+        if (scrollable) {
+            int firstRow = editor.getFirstVisibleRow();
+            if (oldLayout != null && oldLayout.rowCounts != null) {
+                anchorLine = oldLayout.getLineNumberForRow(firstRow);
+                anchorRowOffset = firstRow - oldLayout.findRow(anchorLine);
+            } else {
+                // Previous layout is not wrapped
+                anchorLine = firstRow;
+            }
+            anchorLine = Math.max(0, Math.min(anchorLine, lineCount - 1));
+            pixelOffset = editor.getOffsetY() - firstRow * editor.getRowHeight();
+        }
+        if (oldLayout != null && !clearCache && oldLayout.rowCounts != null && oldLayout.rowCounts.size() == lineCount) {
+            // Display old results until lines are wrapped again
+            rowCounts = oldLayout.rowCounts;
+            rowLengths = oldLayout.rowLengths;
+        } else {
+            rowCounts = new PrefixSumIntList();
+            rowLengths = new PrefixSumIntList();
+            var ones = new int[Math.min(lineCount, LINES_PER_ROUND)];
+            Arrays.fill(ones, 1);
+            for (int i = 0; i < lineCount; i += ones.length) {
+                rowCounts.addAll(i, ones, Math.min(ones.length, lineCount - i));
+            }
+        }
+        // Wrap lines on screen synchronously, and keep the first visible line at the top of viewport
+        int visibleLineCount = editor.getHeight() / Math.max(1, editor.getRowHeight()) + 1;
+        breakLines(anchorLine, Math.min(lineCount - 1, anchorLine + visibleLineCount));
+        if (scrollable) {
+            scrollToAnchor(anchorLine, anchorRowOffset, pixelOffset);
+        }
+        breakLinesInBackground();
     }
 
-    private void breakAllLines() {
-        var taskCount = Math.min(SUBTASK_COUNT, (int) Math.ceil((float) text.getLineCount() / MIN_LINE_COUNT_FOR_SUBTASK));
-        var sizeEachTask = text.getLineCount() / taskCount;
+    /**
+     * Wrap lines from {@link #wrappedLineCount} in background, and apply the results on main thread.
+     * A new round is started after the results are applied, until all lines are wrapped.
+     */
+    private void breakLinesInBackground() {
+        final var editor = this.editor;
+        if (editor == null) {
+            return;
+        }
+        var lineCount = text.getLineCount();
+        if (wrappedLineCount >= lineCount) {
+            editor.setLayoutBusy(false);
+            editor.getEventHandler().scrollBy(0, 0);
+            return;
+        }
+        editor.setLayoutBusy(true);
+        var startLine = wrappedLineCount;
+        var endLine = Math.min(lineCount, startLine + LINES_PER_ROUND) - 1;
+        var expectedModCount = modCount;
+        var taskCount = Math.min(SUBTASK_COUNT, (int) Math.ceil((float) (endLine - startLine + 1) / MIN_LINE_COUNT_FOR_SUBTASK));
+        var sizeEachTask = (endLine - startLine + 1) / taskCount;
         var monitor = new TaskMonitor(taskCount, (results, cancelledCount) -> {
-            final var editor = this.editor;
-            if (editor != null) {
-                List<WordwrapResult> r2 = new ArrayList<>();
-                for (Object result : results) {
+            if (cancelledCount > 0) {
+                return;
+            }
+            List<WordwrapResult> r2 = new ArrayList<>();
+            for (Object result : results) {
+                if (result != null) {
                     r2.add((WordwrapResult) result);
                 }
-                Collections.sort(r2);
-                editor.postInLifecycle(() -> {
-                    if (WordwrapLayout.this.editor != editor) {
-                        // This layout could have been abandoned when waiting for Runnable execution
-                        // See #307
-                        return;
-                    }
-                    if (rowTable != null) {
-                        rowTable.clear();
-                    } else {
-                        rowTable = new ArrayList<>();
-                    }
-                    for (WordwrapResult wordwrapResult : r2) {
-                        rowTable.addAll(wordwrapResult.regions);
-                    }
-                    editor.setLayoutBusy(false);
-                    editor.getEventHandler().scrollBy(0, 0);
-                });
             }
+            Collections.sort(r2);
+            var completed = r2.size() == results.length;
+            editor.postInLifecycle(() -> {
+                if (WordwrapLayout.this.editor != editor) {
+                    // This layout could have been abandoned when waiting for Runnable execution
+                    // See #307
+                    return;
+                }
+                if (completed && modCount == expectedModCount) {
+                    applyResults(startLine, r2);
+                }
+                // Otherwise, text is modified during the round, so the lines are wrapped again
+                breakLinesInBackground();
+            });
         });
         for (int i = 0; i < taskCount; i++) {
-            var start = sizeEachTask * i;
-            var end = i + 1 == taskCount ? (text.getLineCount() - 1) : (sizeEachTask * (i + 1) - 1);
+            var start = startLine + sizeEachTask * i;
+            var end = i + 1 == taskCount ? endLine : (startLine + sizeEachTask * (i + 1) - 1);
             submitTask(new WordwrapAnalyzeTask(monitor, i, start, end));
         }
     }
 
-    private int findRow(int line) {
-        int index;
-        // Binary find line
-        int left = 0, right = rowTable.size();
-        while (left <= right) {
-            var mid = (left + right) / 2;
-            if (mid < 0 || mid >= rowTable.size()) {
-                left = Math.max(0, Math.min(rowTable.size() - 1, mid));
-                break;
-            }
-            int value = rowTable.get(mid).line;
-            if (value < line) {
-                left = mid + 1;
-            } else if (value > line) {
-                right = mid - 1;
-            } else {
-                left = mid;
-                break;
-            }
+    private void applyResults(int startLine, List<WordwrapResult> results) {
+        int firstRow = editor.getFirstVisibleRow();
+        int anchorLine = getLineNumberForRow(firstRow);
+        int anchorRowOffset = firstRow - rowCounts.prefixSum(anchorLine);
+        int pixelOffset = editor.getOffsetY() - firstRow * editor.getRowHeight();
+        int line = startLine;
+        for (var result : results) {
+            var count = result.rowCounts.length;
+            var breakIndex = getBreakIndex(line);
+            rowLengths.removeRange(breakIndex, getBreakIndex(line + count));
+            rowLengths.addAll(breakIndex, result.rowLengths, result.rowLengthCount);
+            rowCounts.removeRange(line, line + count);
+            rowCounts.addAll(line, result.rowCounts, count);
+            line += count;
+        }
+        wrappedLineCount = line;
+        scrollToAnchor(anchorLine, anchorRowOffset, pixelOffset);
+    }
+
+    /**
+     * Scroll so that the given row of line is the first visible row
+     */
+    private void scrollToAnchor(int anchorLine, int anchorRowOffset, int pixelOffset) {
+        int row = rowCounts.prefixSum(anchorLine) + Math.min(anchorRowOffset, rowCounts.get(anchorLine) - 1);
+        int y = Math.max(0, row * editor.getRowHeight() + pixelOffset);
+        var scroller = editor.getScroller();
+        if (scroller.getCurrY() != y) {
+            scroller.startScroll(scroller.getCurrX(), y, 0, 0, 0);
+            scroller.abortAnimation();
         }
-        index = left;
-        while (index > 0 && rowTable.get(index).startColumn > 0) {
-            index--;
+    }
+
+    /**
+     * Progress of wrapping lines in background, from 0 to 1
+     */
+    public float getProgress() {
+        var lineCount = text.getLineCount();
+        return lineCount == 0 ? 1f : Math.min(1f, (float) wrappedLineCount / lineCount);
+    }
+
+    private void setSoftBreaks(int line, MutableIntList breakpoints) {
+        var breakIndex = getBreakIndex(line);
+        rowLengths.removeRange(breakIndex, breakIndex + rowCounts.get(line) - 1);
+        var count = breakpoints.getSize();
+        if (count > 0) {
+            var lengths = new int[count];
+            appendRowLengths(breakpoints, lengths, 0);
+            rowLengths.addAll(breakIndex, lengths, count);
         }
-        return index;
+        rowCounts.set(line, count + 1);
     }
 
-    public int findRow(int line, int column) {
-        int row = findRow(line);
-        while (rowTable.get(row).endColumn <= column && row + 1 < rowTable.size() && rowTable.get(row + 1).line == line) {
-            row++;
+    /**
+     * Convert soft break columns to row lengths, and store them from the given offset
+     */
+    private static void appendRowLengths(MutableIntList breakpoints, int[] dest, int offset) {
+        int last = 0;
+        for (int i = 0; i < breakpoints.getSize(); i++) {
+            int column = breakpoints.get(i);
+            dest[offset + i] = column - last;
+            last = column;
         }
-        return row;
     }
 
-    private void breakLines(int startLine, int endLine) {
-        int insertPosition = 0;
-        while (insertPosition < rowTable.size()) {
-            if (rowTable.get(insertPosition).line < startLine) {
-                insertPosition++;
+    /**
+     * Get the index of the first soft break of the line in {@link #rowLengths}
+     */
+    private int getBreakIndex(int line) {
+        return rowCounts.prefixSum(line) - line;
+    }
+
+    private int findRow(int line) {
+        return rowCounts.prefixSum(line);
+    }
+
+    /**
+     * Get the count of soft breaks on the line that are not after the column
+     */
+    private int findRowOffsetInLine(int line, int column) {
+        int breakCount = rowCounts.get(line) - 1;
+        if (breakCount == 0) {
+            return 0;
+        }
+        int breakIndex = getBreakIndex(line);
+        int base = rowLengths.prefixSum(breakIndex);
+        // Binary search for the last soft break whose column is not greater than the column
+        int left = 0, right = breakCount;
+        while (left < right) {
+            int mid = (left + right + 1) >>> 1;
+            if (rowLengths.prefixSum(breakIndex + mid) - base <= column) {
+                left = mid;
             } else {
-                break;
+                right = mid - 1;
             }
         }
-        while (insertPosition < rowTable.size()) {
-            int line = rowTable.get(insertPosition).line;
-            if (line >= startLine && line <= endLine) {
-                rowTable.remove(insertPosition);
-            } else {
-                break;
-            }
+        return left;
+    }
+
+    public int findRow(int line, int column) {
+        return findRow(line) + findRowOffsetInLine(line, column);
+    }
+
+    private int getRowStartColumn(int line, int rowOffset) {
+        if (rowOffset == 0) {
+            return 0;
+        }
+        int breakIndex = getBreakIndex(line);
+        return rowLengths.prefixSum(breakIndex + rowOffset) - rowLengths.prefixSum(breakIndex);
+    }
+
+    private int getRowEndColumn(int line, int rowOffset) {
+        if (rowOffset + 1 >= rowCounts.get(line)) {
+            return text.getColumnCount(line);
         }
-        List<Integer> breakpoints = new ArrayList<>();
-        List<RowRegion> newRegions = new ArrayList<>();
+        int breakIndex = getBreakIndex(line);
+        return rowLengths.prefixSum(breakIndex + rowOffset + 1) - rowLengths.prefixSum(breakIndex);
+    }
+
+    private void breakLines(int startLine, int endLine) {
+        var breakpoints = new MutableIntList();
         for (int i = startLine; i <= endLine; i++) {
             breakLine(i, text.getLine(i), breakpoints, null);
-            for (int j = -1; j < breakpoints.size(); j++) {
-                int start = j == -1 ? 0 : breakpoints.get(j);
-                int end = j + 1 < breakpoints.size() ? breakpoints.get(j + 1) : text.getColumnCount(i);
-                newRegions.add(new RowRegion(i, start, end));
-            }
+            setSoftBreaks(i, breakpoints);
             breakpoints.clear();
         }
-        rowTable.addAll(insertPosition, newRegions);
     }
 
-    private void breakLine(int line, ContentLine sequence, List<Integer> breakpoints, @Nullable Paint paint) {
+    private void breakLine(int line, ContentLine sequence, MutableIntList breakpoints, @Nullable Paint paint) {
         int start = 0;
         int len = sequence.length();
         var text = sequence.getBackingCharArray();
@@ -194,8 +329,8 @@ public class WordwrapLayout extends AbstractLayout {
             breakpoints.add(next);
             start = next;
         }
-        if (!breakpoints.isEmpty() && breakpoints.get(breakpoints.size() - 1) == sequence.length()) {
-            breakpoints.remove(breakpoints.size() - 1);
+        if (!breakpoints.isEmpty() && breakpoints.get(breakpoints.getSize() - 1) == sequence.length()) {
+            breakpoints.removeAt(breakpoints.getSize() - 1);
         }
     }
 
@@ -207,11 +342,15 @@ public class WordwrapLayout extends AbstractLayout {
     @Override
     public void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence insertedContent) {
         super.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
-        // Update line numbers
+        modCount++;
         int delta = endLine - startLine;
         if (delta != 0) {
-            for (int row = findRow(startLine + 1); row < rowTable.size(); row++) {
-                rowTable.get(row).line += delta;
+            // New lines have no soft break before they are wrapped
+            var ones = new int[delta];
+            Arrays.fill(ones, 1);
+            rowCounts.addAll(startLine + 1, ones, delta);
+            if (wrappedLineCount > startLine) {
+                wrappedLineCount += delta;
             }
         }
         // Re-break
@@ -221,21 +360,15 @@ public class WordwrapLayout extends AbstractLayout {
     @Override
     public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
         super.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
+        modCount++;
         int delta = endLine - startLine;
         if (delta != 0) {
-            int startRow = findRow(startLine);
-            while (startRow < rowTable.size()) {
-                int line = rowTable.get(startRow).line;
-                if (line >= startLine && line <= endLine) {
-                    rowTable.remove(startRow);
-                } else {
-                    break;
-                }
-            }
-            for (int row = findRow(endLine + 1); row < rowTable.size(); row++) {
-                var region = rowTable.get(row);
-                if (region.line >= endLine)
-                    region.line -= delta;
+            rowLengths.removeRange(getBreakIndex(startLine + 1), getBreakIndex(endLine + 1));
+            rowCounts.removeRange(startLine + 1, endLine + 1);
+            if (wrappedLineCount > endLine) {
+                wrappedLineCount -= delta;
+            } else if (wrappedLineCount > startLine) {
+                wrappedLineCount = startLine + 1;
             }
         }
         breakLines(startLine, startLine);
@@ -244,81 +377,57 @@ public class WordwrapLayout extends AbstractLayout {
     @Override
     public void destroyLayout() {
         super.destroyLayout();
-        rowTable = null;
+        rowCounts = null;
+        rowLengths = null;
     }
 
     @NonNull
     @Override
     public Row getRowAt(int rowIndex) {
-        if (rowTable.isEmpty()) {
-            var r = new Row();
-            r.startColumn = 0;
-            r.endColumn = text.getColumnCount(rowIndex);
-            r.isLeadingRow = true;
-            r.lineIndex = rowIndex;
-            return r;
-        }
-        return rowTable.get(rowIndex).toRow();
+        var pos = rowCounts.findByPrefixSum(rowIndex);
+        var line = IntPair.getFirst(pos);
+        var rowOffset = rowIndex - IntPair.getSecond(pos);
+        var row = new Row();
+        row.lineIndex = line;
+        row.isLeadingRow = rowOffset == 0;
+        row.startColumn = getRowStartColumn(line, rowOffset);
+        row.endColumn = getRowEndColumn(line, rowOffset);
+        return row;
     }
 
     @Override
     public int getLineNumberForRow(int row) {
-        if (rowTable.isEmpty()) {
-            return Math.max(0, Math.min(row, text.getLineCount() - 1));
-        }
-        return row >= rowTable.size() ? rowTable.get(rowTable.size() - 1).line : rowTable.get(row).line;
+        return IntPair.getFirst(rowCounts.findByPrefixSum(Math.max(0, row)));
     }
 
     @NonNull
     @Override
     public RowIterator obtainRowIterator(int initialRow, @Nullable SparseArray<ContentLine> preloadedLines) {
-        return rowTable.isEmpty() ? new LineBreakLayout.LineBreakLayoutRowItr(text, initialRow, preloadedLines) : new WordwrapLayoutRowItr(initialRow);
+        return new WordwrapLayoutRowItr(initialRow);
     }
 
     @Override
     public long getUpPosition(int line, int column) {
-        if (rowTable.isEmpty()) {
-            if (line - 1 < 0) {
-                return IntPair.pack(0, 0);
-            }
-            int c_column = text.getColumnCount(line - 1);
-            if (column > c_column) {
-                column = c_column;
-            }
-            return IntPair.pack(line - 1, column);
-        }
         int row = findRow(line, column);
         if (row > 0) {
-            var offset = column - rowTable.get(row).startColumn;
-            var lastRow = rowTable.get(row - 1);
+            var offset = column - getRowStartColumn(line, row - findRow(line));
+            var lastRow = getRowAt(row - 1);
             var max = lastRow.endColumn - lastRow.startColumn;
             offset = Math.min(offset, max);
-            return IntPair.pack(lastRow.line, lastRow.startColumn + offset);
+            return IntPair.pack(lastRow.lineIndex, lastRow.startColumn + offset);
         }
         return IntPair.pack(0, 0);
     }
 
     @Override
     public long getDownPosition(int line, int column) {
-        if (rowTable.isEmpty()) {
-            int c_line = text.getLineCount();
-            if (line + 1 >= c_line) {
-                return IntPair.pack(line, text.getColumnCount(line));
-            } else {
-                int c_column = text.getColumnCount(line + 1);
-                if (column > c_column) {
-                    column = c_column;
-                }
-                return IntPair.pack(line + 1, column);
-            }
-        }
         int row = findRow(line, column);
-        if (row + 1 < rowTable.size()) {
-            var offset = column - rowTable.get(row).startColumn;
-            var nextRow = rowTable.get(row + 1);
+        if (row + 1 < getRowCount()) {
+            var offset = column - getRowStartColumn(line, row - findRow(line));
+            var nextRow = getRowAt(row + 1);
             var max = nextRow.endColumn - nextRow.startColumn;
             offset = Math.min(offset, max);
-            return IntPair.pack(nextRow.line, nextRow.startColumn + offset);
+            return IntPair.pack(nextRow.lineIndex, nextRow.startColumn + offset);
         } else {
             return IntPair.pack(line, text.getColumnCount(line));
         }
@@ -331,52 +440,22 @@ public class WordwrapLayout extends AbstractLayout {
 
     @Override
     public int getLayoutHeight() {
-        if (rowTable.isEmpty()) {
-            return editor.getRowHeight() * text.getLineCount();
-        }
-        return rowTable.size() * editor.getRowHeight();
+        return getRowCount() * editor.getRowHeight();
     }
 
     @Override
     public int getRowIndexForPosition(int index) {
         var pos = editor.getText().getIndexer().getCharPosition(index);
-        var line = pos.line;
-        if (rowTable.isEmpty()) {
-            return line;
-        }
-        var column = pos.column;
-        int row = findRow(line);
-        if (row < rowTable.size()) {
-            var region = rowTable.get(row);
-            if (region.line != line) {
-                return 0;
-            }
-            while (region.startColumn < column && row + 1 < rowTable.size()) {
-                row++;
-                region = rowTable.get(row);
-                if (region.line != line || region.startColumn > column) {
-                    row--;
-                    break;
-                }
-            }
-            return row;
-        }
-        return 0;
+        return findRow(pos.line, pos.column);
     }
 
     @Override
     public long getCharPositionForLayoutOffset(float xOffset, float yOffset) {
-        if (rowTable.isEmpty()) {
-            int lineCount = text.getLineCount();
-            int line = Math.min(lineCount - 1, Math.max((int) (yOffset / editor.getRowHeight()), 0));
-            int res = BidiLayout.horizontalIndex(editor, this, text, line, 0, text.getColumnCount(line), xOffset);
-            return IntPair.pack(line, res);
-        }
         int row = (int) (yOffset / editor.getRowHeight());
-        row = Math.max(0, Math.min(row, rowTable.size() - 1));
-        RowRegion region = rowTable.get(row);
-        int column = BidiLayout.horizontalIndex(editor, this, text, region.line, region.startColumn, region.endColumn, xOffset);
-        return IntPair.pack(region.line, column);
+        row = Math.max(0, Math.min(row, getRowCount() - 1));
+        var region = getRowAt(row);
+        int column = BidiLayout.horizontalIndex(editor, this, text, region.lineIndex, region.startColumn, region.endColumn, xOffset);
+        return IntPair.pack(region.lineIndex, column);
     }
 
     @NonNull
@@ -385,116 +464,56 @@ public class WordwrapLayout extends AbstractLayout {
         if (dest == null || dest.length < 2) {
             dest = new float[2];
         }
-        if (rowTable.isEmpty()) {
-            dest[0] = editor.getRowBottom(line);
-            dest[1] = BidiLayout.horizontalOffset(editor, this, text, line, 0, text.getColumnCount(line), column);
-            return dest;
-        }
-        int row = findRow(line);
-        if (row < rowTable.size()) {
-            RowRegion region = rowTable.get(row);
-            if (region.line != line) {
-                dest[0] = dest[1] = 0;
-                return dest;
-            }
-            while (region.startColumn < column && row + 1 < rowTable.size()) {
-                row++;
-                region = rowTable.get(row);
-                if (region.line != line || region.startColumn > column) {
-                    row--;
-                    region = rowTable.get(row);
-                    break;
-                }
-            }
-            dest[0] = editor.getRowBottom(row);
-            dest[1] = BidiLayout.horizontalOffset(editor, this, text, region.line, region.startColumn, region.endColumn, column);
-        } else {
+        if (line < 0 || line >= rowCounts.size()) {
             dest[0] = dest[1] = 0;
+            return dest;
         }
+        int rowOffset = findRowOffsetInLine(line, column);
+        dest[0] = editor.getRowBottom(findRow(line) + rowOffset);
+        dest[1] = BidiLayout.horizontalOffset(editor, this, text, line, getRowStartColumn(line, rowOffset), getRowEndColumn(line, rowOffset), column);
         return dest;
     }
 
     @Override
     public int getRowCountForLine(int line) {
-        if (rowTable.isEmpty()) {
-            return 1;
-        }
-        int row = findRow(line);
-        int count = 0;
-        while (row < rowTable.size() && rowTable.get(row).line == line) {
-            count++;
-            row++;
-        }
-        return count;
+        return rowCounts.get(line);
     }
 
     /**
      * Get soft breaks on the given line
      */
     public List<Integer> getSoftBreaksForLine(int line) {
-        if (rowTable.isEmpty()) {
+        int breakCount = rowCounts.get(line) - 1;
+        if (breakCount == 0) {
             return Collections.emptyList();
         }
-        int row = findRow(line);
-        var list = new ArrayList<Integer>();
-        while (row < rowTable.size() && rowTable.get(row).line == line) {
-            var column = rowTable.get(row).startColumn;
-            if (column != 0) {
-                list.add(column);
-            }
-            row++;
+        int breakIndex = getBreakIndex(line);
+        var list = new ArrayList<Integer>(breakCount);
+        int column = 0;
+        for (int i = 0; i < breakCount; i++) {
+            column += rowLengths.get(breakIndex + i);
+            list.add(column);
         }
         return list;
     }
 
     @Override
     public int getRowCount() {
-        if (rowTable.isEmpty()) {
-            return text.getLineCount();
-        }
-        return rowTable.size();
-    }
-
-    static class RowRegion {
-
-        final int startColumn;
-        final int endColumn;
-        int line;
-
-        RowRegion(int line, int start, int end) {
-            this.line = line;
-            startColumn = start;
-            endColumn = end;
-        }
-
-        public Row toRow() {
-            var row = new Row();
-            row.isLeadingRow = startColumn == 0;
-            row.startColumn = startColumn;
-            row.endColumn = endColumn;
-            row.lineIndex = line;
-            return row;
-        }
-
-        @NonNull
-        @Override
-        public String toString() {
-            return "RowRegion{" +
-                    "startColumn=" + startColumn +
-                    ", endColumn=" + endColumn +
-                    ", line=" + line +
-                    '}';
-        }
+        return rowCounts.sum();
     }
 
     private static class WordwrapResult implements Comparable<WordwrapResult> {
 
         int index;
-        List<RowRegion> regions;
+        int[] rowCounts;
+        int[] rowLengths;
+        int rowLengthCount;
 
-        public WordwrapResult(int idx, List<RowRegion> r) {
+        public WordwrapResult(int idx, int[] rowCounts, int[] rowLengths, int rowLengthCount) {
             index = idx;
-            regions = r;
+            this.rowCounts = rowCounts;
+            this.rowLengths = rowLengths;
+            this.rowLengthCount = rowLengthCount;
         }
 
         @Override
@@ -508,10 +527,16 @@ public class WordwrapLayout extends AbstractLayout {
         private final Row result;
         private final int initRow;
         private int currentRow;
+        private int currentLine;
+        private int rowOffset;
+        private int lineRowCount;
+        private int breakIndex;
+        private int column;
 
         WordwrapLayoutRowItr(int initialRow) {
-            initRow = currentRow = initialRow;
+            initRow = initialRow;
             result = new Row();
+            reset();
         }
 
         @NonNull
@@ -520,23 +545,39 @@ public class WordwrapLayout extends AbstractLayout {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            RowRegion region = rowTable.get(currentRow);
-            result.lineIndex = region.line;
-            result.startColumn = region.startColumn;
-            result.endColumn = region.endColumn;
-            result.isLeadingRow = currentRow <= 0 || rowTable.get(currentRow - 1).line != region.line;
+            if (rowOffset >= lineRowCount) {
+                currentLine++;
+                rowOffset = 0;
+                lineRowCount = rowCounts.get(currentLine);
+                column = 0;
+            }
+            result.lineIndex = currentLine;
+            result.startColumn = column;
+            // Soft breaks of lines are stored continuously
+            column = rowOffset + 1 < lineRowCount ? column + rowLengths.get(breakIndex++) : text.getColumnCount(currentLine);
+            result.endColumn = column;
+            result.isLeadingRow = rowOffset == 0;
             currentRow++;
+            rowOffset++;
             return result;
         }
 
         @Override
         public boolean hasNext() {
-            return currentRow >= 0 && currentRow < rowTable.size();
+            return currentRow >= 0 && currentRow < getRowCount();
         }
 
         @Override
         public void reset() {
             currentRow = initRow;
+            if (currentRow >= 0 && currentRow < getRowCount()) {
+                var pos = rowCounts.findByPrefixSum(currentRow);
+                currentLine = IntPair.getFirst(pos);
+                rowOffset = currentRow - IntPair.getSecond(pos);
+                lineRowCount = rowCounts.get(currentLine);
+                breakIndex = IntPair.getSecond(pos) - currentLine + rowOffset;
+                column = getRowStartColumn(currentLine, rowOffset);
+            }
         }
     }
 
@@ -544,6 +585,8 @@ public class WordwrapLayout extends AbstractLayout {
 
         private final int start, end, id;
         private final Paint paint;
+        private int[] lengths = new int[64];
+        private int lengthCount;
 
         WordwrapAnalyzeTask(TaskMonitor monitor, int id, int start, int end) {
             super(monitor);
@@ -557,22 +600,27 @@ public class WordwrapLayout extends AbstractLayout {
 
         @Override
         protected WordwrapResult compute() {
-            editor.setLayoutBusy(true);
-            var list = new ArrayList<RowRegion>();
-            var breakpoints = new ArrayList<Integer>();
-            text.runReadActionsOnLines(start, end, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
-                breakLine(index, line, breakpoints, paint);
-                for (int j = -1; j < breakpoints.size(); j++) {
-                    int start = j == -1 ? 0 : breakpoints.get(j);
-                    int end = j + 1 < breakpoints.size() ? breakpoints.get(j + 1) : line.length();
-                    list.add(new RowRegion(index, start, end));
-                }
-                if (!shouldRun()) {
-                    abortFlag.set = true;
-                }
-                breakpoints.clear();
-            });
-            return new WordwrapResult(id, list);
+            var counts = new int[end - start + 1];
+            var breakpoints = new MutableIntList();
+            try {
+                text.runReadActionsOnLines(start, end, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
+                    breakLine(index, line, breakpoints, paint);
+                    counts[index - start] = breakpoints.getSize() + 1;
+                    if (lengthCount + breakpoints.getSize() > lengths.length) {
+                        lengths = Arrays.copyOf(lengths, Math.max(lengths.length * 2, lengthCount + breakpoints.getSize()));
+                    }
+                    appendRowLengths(breakpoints, lengths, lengthCount);
+                    lengthCount += breakpoints.getSize();
+                    if (!shouldRun()) {
+                        abortFlag.set = true;
+                    }
+                    breakpoints.clear();
+                });
+            } catch (IndexOutOfBoundsException e) {
+                // Lines are deleted after the task is submitted. The round will be started again.
+                return null;
+            }
+            return new WordwrapResult(id, counts, lengths, lengthCount);
         }
     }
 
@@ -0,0 +1,367 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.rendering;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * LRU table of {@link MeasureCacheItem}s, keyed by line index.
+ * <p>
+ * Items are found by an open-addressing hash table with primitive int keys, and linked in a
+ * doubly-linked list by their access order. They are also kept in an array sorted by line, so
+ * that line shifts only visit the items after the edit. The table is bounded by an estimated memory size
+ * in bytes, instead of item count, so that more lines can be cached when lines are short.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @author Rosemoe
+ */
+class MeasureCacheTable {
+
+    /**
+     * Estimated memory used by an item excluding its width array, in bytes
+     */
+    final static int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final static int INITIAL_CAPACITY = 64;
+
+    private int[] keys;
+    private Entry[] entries;
+    /**
+     * Entries sorted by line index. The first {@link #size} elements are used.
+     */
+    private Entry[] lineOrder = new Entry[INITIAL_CAPACITY];
+    private int size;
+    private int threshold;
+    /**
+     * Least recently used entry
+     */
+    private Entry head;
+    /**
+     * Most recently used entry
+     */
+    private Entry tail;
+    private long budgetBytes;
+    private long usedBytes;
+    private long hitCount;
+    private long missCount;
+
+    MeasureCacheTable(long budgetBytes) {
+        setBudget(budgetBytes);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public long getBudget() {
+        return budgetBytes;
+    }
+
+    /**
+     * Set max memory size of this table in bytes. Least recently used items are removed if the
+     * new budget is exceeded.
+     */
+    public void setBudget(long budgetBytes) {
+        if (budgetBytes <= 0) {
+            throw new IllegalArgumentException("budget must be positive");
+        }
+        this.budgetBytes = budgetBytes;
+        trim();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public void resetStatistics() {
+        hitCount = missCount = 0;
+    }
+
+    /**
+     * Find item of the given line, and mark it as most recently used
+     */
+    @Nullable
+    public MeasureCacheItem get(int line) {
+        int mask = keys.length - 1;
+        for (int i = slot(line, mask); entries[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == line) {
+                hitCount++;
+                var entry = entries[i];
+                if (entry != tail) {
+                    unlink(entry);
+                    linkLast(entry);
+                }
+                // Widths of the item may have been replaced after last access
+                var weight = weightOf(entry.item);
+                if (weight != entry.weight) {
+                    usedBytes += weight - entry.weight;
+                    entry.weight = weight;
+                    trim();
+                }
+                return entry.item;
+            }
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Add new item as the most recently used one. There must be no item for the same line in table.
+     */
+    public void put(@NonNull MeasureCacheItem item) {
+        var entry = new Entry(item);
+        entry.weight = weightOf(item);
+        if (size >= threshold) {
+            rehash(keys.length << 1);
+        }
+        insertSlot(item.getLine(), entry);
+        insertOrdered(lowerBound(item.getLine()), entry);
+        linkLast(entry);
+        usedBytes += entry.weight;
+        trim();
+    }
+
+    /**
+     * Add {@code count} to line indices greater than {@code afterLine}
+     */
+    public void shiftLines(int afterLine, int count) {
+        if (count != 0) {
+            shiftFrom(lowerBound(afterLine + 1), count);
+        }
+    }
+
+    /**
+     * Remove items of lines from {@code startLine} to {@code endLine} (inclusive), and move items
+     * after {@code endLine} forward by {@code endLine - startLine}
+     */
+    public void removeLines(int startLine, int endLine) {
+        int from = lowerBound(startLine);
+        int to = lowerBound(endLine + 1);
+        for (int i = from; i < to; i++) {
+            var entry = lineOrder[i];
+            removeSlot(entry.item.getLine());
+            unlink(entry);
+            usedBytes -= entry.weight;
+        }
+        if (to > from) {
+            System.arraycopy(lineOrder, to, lineOrder, from, size - to);
+            Arrays.fill(lineOrder, size - (to - from), size, null);
+            size -= to - from;
+        }
+        if (endLine != startLine) {
+            shiftFrom(from, startLine - endLine);
+        }
+    }
+
+    public void clear() {
+        allocate(INITIAL_CAPACITY);
+        lineOrder = new Entry[INITIAL_CAPACITY];
+        size = 0;
+        head = tail = null;
+        usedBytes = 0;
+    }
+
+    /**
+     * Remove least recently used items until the budget is satisfied. The most recently used item
+     * is always kept.
+     */
+    private void trim() {
+        while (usedBytes > budgetBytes && head != null && head != tail) {
+            var entry = head;
+            var line = entry.item.getLine();
+            removeSlot(line);
+            removeOrdered(lowerBound(line));
+            unlink(entry);
+            usedBytes -= entry.weight;
+        }
+    }
+
+    /**
+     * Add {@code count} to line indices of entries in {@link #lineOrder} starting from
+     * {@code index}. The order of entries is not changed by the shift.
+     */
+    private void shiftFrom(int index, int count) {
+        // Remove all keys first, so that new keys never meet stale ones in the hash table
+        for (int i = index; i < size; i++) {
+            removeSlot(lineOrder[i].item.getLine());
+        }
+        for (int i = index; i < size; i++) {
+            var item = lineOrder[i].item;
+            item.setLine(item.getLine() + count);
+            insertSlot(item.getLine(), lineOrder[i]);
+        }
+    }
+
+    /**
+     * Find the index of first entry in {@link #lineOrder} whose line is not less than {@code line}
+     */
+    private int lowerBound(int line) {
+        int low = 0, high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lineOrder[mid].item.getLine() < line) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void insertOrdered(int index, Entry entry) {
+        if (size == lineOrder.length) {
+            lineOrder = Arrays.copyOf(lineOrder, size << 1);
+        }
+        System.arraycopy(lineOrder, index, lineOrder, index + 1, size - index);
+        lineOrder[index] = entry;
+        size++;
+    }
+
+    private void removeOrdered(int index) {
+        System.arraycopy(lineOrder, index + 1, lineOrder, index, size - index - 1);
+        lineOrder[--size] = null;
+    }
+
+    private static int weightOf(MeasureCacheItem item) {
+        var widths = item.getWidths();
+        return ENTRY_OVERHEAD_BYTES + (widths == null ? 0 : widths.length * 4);
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        entries = new Entry[capacity];
+        threshold = capacity >> 1;
+    }
+
+    private void rehash(int capacity) {
+        var oldKeys = keys;
+        var oldEntries = entries;
+        allocate(capacity);
+        for (int i = 0; i < oldEntries.length; i++) {
+            if (oldEntries[i] != null) {
+                insertSlot(oldKeys[i], oldEntries[i]);
+            }
+        }
+    }
+
+    private void insertSlot(int key, Entry entry) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (entries[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        entries[i] = entry;
+    }
+
+    /**
+     * Remove the key from hash table, and move following entries in its probe sequence backward
+     */
+    private void removeSlot(int key) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (true) {
+            if (entries[i] == null) {
+                return;
+            }
+            if (keys[i] == key) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (entries[j] == null) {
+                break;
+            }
+            int k = slot(keys[j], mask);
+            // Keep the entry if its home slot is cyclically in (i, j]
+            if (i <= j ? (i < k && k <= j) : (i < k || k <= j)) {
+                continue;
+            }
+            keys[i] = keys[j];
+            entries[i] = entries[j];
+            i = j;
+        }
+        entries[i] = null;
+    }
+
+    private void linkLast(Entry entry) {
+        entry.prev = tail;
+        entry.next = null;
+        if (tail == null) {
+            head = entry;
+        } else {
+            tail.next = entry;
+        }
+        tail = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev == null) {
+            head = entry.next;
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next == null) {
+            tail = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = entry.next = null;
+    }
+
+    private static class Entry {
+
+        final MeasureCacheItem item;
+        int weight;
+        Entry prev;
+        Entry next;
+
+        Entry(MeasureCacheItem item) {
+            this.item = item;
+        }
+
+    }
+
+}
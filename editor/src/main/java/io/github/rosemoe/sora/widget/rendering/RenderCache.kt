@@ -32,36 +32,60 @@ import kotlin.concurrent.withLock
  * Cache for editor rendering, including line-based data and measure
  * cache for recently accessed lines.
  *
+ * Measure cache is bounded by [measureCacheBudget] in bytes, and the least recently
+ * used items are discarded first.
+ *
  * @author Rosemoe
  */
 class RenderCache {
 
+    companion object {
+        /**
+         * Default memory budget of measure cache, in bytes
+         */
+        const val DEFAULT_MEASURE_CACHE_BUDGET = 1L shl 20
+    }
+
     private val lock = ReentrantLock()
     private val lines = MutableIntList()
-    private val cache = mutableListOf<MeasureCacheItem>()
-    private var maxCacheCount = 75
+    private val cache = MeasureCacheTable(DEFAULT_MEASURE_CACHE_BUDGET)
+
+    /**
+     * Max estimated memory size of measure cache, in bytes
+     */
+    var measureCacheBudget: Long
+        get() = lock.withLock { cache.budget }
+        set(value) = lock.withLock { cache.budget = value }
+
+    /**
+     * Count of measure cache queries that found an item, for profiling
+     */
+    val measureCacheHitCount: Long
+        get() = lock.withLock { cache.hitCount }
+
+    /**
+     * Count of measure cache queries that found nothing, for profiling
+     */
+    val measureCacheMissCount: Long
+        get() = lock.withLock { cache.missCount }
+
+    fun resetMeasureCacheStatistics() {
+        lock.withLock {
+            cache.resetStatistics()
+        }
+    }
 
     fun getOrCreateMeasureCache(line: Int): MeasureCacheItem {
-        return queryMeasureCache(line) ?: run {
-            lock.withLock {
-                MeasureCacheItem(line, null, 0L).also {
-                    cache.add(it)
-                    while (cache.size > maxCacheCount && cache.isNotEmpty()) {
-                        cache.removeAt(0)
-                    }
-                }
+        return lock.withLock {
+            cache.get(line) ?: MeasureCacheItem(line, null, 0L).also {
+                cache.put(it)
             }
         }
     }
 
     fun queryMeasureCache(line: Int) =
         lock.withLock {
-            cache.firstOrNull { it.line == line }.also {
-                if (it != null) {
-                    cache.remove(it)
-                    cache.add(it)
-                }
-            }
+            cache.get(line)
         }
 
     fun getStyleHash(line: Int) = lines[line]
@@ -78,11 +102,7 @@ class RenderCache {
                 lines.addAll(startLine, IntArray(endLine - startLine) { 0 })
             }
             lock.withLock {
-                cache.forEach {
-                    if (it.line > startLine) {
-                        it.line += endLine - startLine
-                    }
-                }
+                cache.shiftLines(startLine, endLine - startLine)
             }
         }
     }
@@ -91,12 +111,7 @@ class RenderCache {
         if (startLine != endLine) {
             lines.removeRange(startLine, endLine)
             lock.withLock {
-                cache.removeAll { it.line in startLine..endLine }
-                cache.forEach {
-                    if (it.line > endLine) {
-                        it.line -= endLine - startLine
-                    }
-                }
+                cache.removeLines(startLine, endLine)
             }
         }
     }
@@ -0,0 +1,300 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.analysis
+
+import android.os.Bundle
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.analysis.IncrementalAnalyzeManager.LineTokenizeResult
+import io.github.rosemoe.sora.lang.brackets.BracketsProvider
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer
+import io.github.rosemoe.sora.lang.styling.CodeBlock
+import io.github.rosemoe.sora.lang.styling.Span
+import io.github.rosemoe.sora.lang.styling.SpanFactory
+import io.github.rosemoe.sora.lang.styling.Styles
+import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentListener
+import io.github.rosemoe.sora.text.ContentReference
+import io.github.rosemoe.sora.util.IntPair
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+class AsyncIncrementalAnalyzeManagerTest {
+
+    /**
+     * Spans and states of all lines, taken in analysis thread when all lines are analyzed
+     */
+    private class Snapshot(
+        val text: String,
+        val modificationCount: Long,
+        val states: List<Int>,
+        val spans: List<List<Pair<Int, Long>>>
+    )
+
+    /**
+     * Tokenize block comments, whose state is kept across lines
+     */
+    private class CommentAnalyzer : AsyncIncrementalAnalyzeManager<Int, Any>() {
+
+        @Volatile
+        var snapshot: Snapshot? = null
+
+        /**
+         * Count of modifications sent to the analyzer
+         */
+        var sentModifications = 0L
+
+        /**
+         * Tokenization in analysis thread waits for this latch if set
+         */
+        @Volatile
+        var gate: CountDownLatch? = null
+        val gateEntered = CountDownLatch(1)
+
+        override fun getInitialState() = 0
+
+        override fun stateEquals(state: Int, another: Int) = state == another
+
+        override fun tokenizeLine(line: CharSequence, state: Int, lineIndex: Int): LineTokenizeResult<Int, Any> {
+            if (Thread.currentThread().name.startsWith("AsyncAnalyzer-")) {
+                gate?.let {
+                    gateEntered.countDown()
+                    it.await()
+                }
+            }
+            val spans = ArrayList<Span>()
+            spans.add(SpanFactory.obtain(0, state.toLong()))
+            var inComment = state
+            var i = 0
+            while (i + 1 < line.length) {
+                if (inComment == 0 && line[i] == '/' && line[i + 1] == '*') {
+                    inComment = 1
+                    spans.add(SpanFactory.obtain(i, 1))
+                    i += 2
+                } else if (inComment == 1 && line[i] == '*' && line[i + 1] == '/') {
+                    inComment = 0
+                    spans.add(SpanFactory.obtain(i + 2, 0))
+                    i += 2
+                } else {
+                    i++
+                }
+            }
+            return LineTokenizeResult(inComment, null, spans)
+        }
+
+        override fun generateSpansForLine(tokens: LineTokenizeResult<Int, Any>): List<Span> {
+            throw UnsupportedOperationException()
+        }
+
+        override fun computeBlocks(text: Content, delegate: CodeBlockAnalyzeDelegate): List<CodeBlock> {
+            val reader = managedStyles.spans.read()
+            snapshot = Snapshot(
+                text.toString(),
+                modificationCount,
+                List(text.lineCount) { getState(it).state },
+                List(text.lineCount) { line -> reader.getSpansOnLine(line).map { it.column to it.style } }
+            )
+            return emptyList()
+        }
+    }
+
+    private class TestReceiver(private val visibleRange: Long) : StyleReceiver {
+
+        override fun setStyles(sourceManager: AnalyzeManager, styles: Styles?) {}
+
+        override fun setStyles(sourceManager: AnalyzeManager, styles: Styles?, action: Runnable?) {}
+
+        override fun setDiagnostics(sourceManager: AnalyzeManager, diagnostics: DiagnosticsContainer?) {}
+
+        override fun updateBracketProvider(sourceManager: AnalyzeManager, provider: BracketsProvider?) {}
+
+        override fun getVisibleLineRange() = visibleRange
+    }
+
+    private val analyzers = mutableListOf<CommentAnalyzer>()
+
+    @After
+    fun tearDown() {
+        analyzers.forEach { it.destroy() }
+    }
+
+    /**
+     * Create analyzer for the text, which receives modifications of the text like an editor
+     */
+    private fun createAnalyzer(text: Content, parallel: Boolean, visibleRange: Long = -1): CommentAnalyzer {
+        val analyzer = CommentAnalyzer()
+        analyzers.add(analyzer)
+        analyzer.isParallelTokenizationEnabled = parallel
+        analyzer.setReceiver(TestReceiver(visibleRange))
+        text.addContentListener(object : ContentListener {
+            override fun beforeReplace(content: Content) {}
+
+            override fun afterInsert(
+                content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int,
+                insertedContent: CharSequence
+            ) {
+                analyzer.sentModifications++
+                analyzer.insert(CharPosition(startLine, startColumn), CharPosition(endLine, endColumn), insertedContent)
+            }
+
+            override fun afterDelete(
+                content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int,
+                deletedContent: CharSequence
+            ) {
+                analyzer.sentModifications++
+                analyzer.delete(CharPosition(startLine, startColumn), CharPosition(endLine, endColumn), deletedContent)
+            }
+        })
+        analyzer.reset(ContentReference(text), Bundle())
+        return analyzer
+    }
+
+    private fun randomText(random: Random, lineCount: Int) = buildString {
+        repeat(lineCount) {
+            if (it > 0) {
+                append('\n')
+            }
+            when (random.nextInt(40)) {
+                0 -> append("/* comment")
+                1 -> append("  end */ code")
+                2 -> append("a /* b */ c")
+                3 -> append("")
+                else -> append(if (random.nextBoolean()) "  " else "").append("line").append(it)
+            }
+        }
+    }
+
+    private fun randomEdit(random: Random, text: Content) {
+        val line = random.nextInt(text.lineCount)
+        val column = random.nextInt(text.getColumnCount(line) + 1)
+        if (random.nextBoolean()) {
+            text.insert(line, column, randomText(random, random.nextInt(1, 4)))
+        } else {
+            val endLine = (line + random.nextInt(3)).coerceAtMost(text.lineCount - 1)
+            val endColumn = if (endLine == line) {
+                random.nextInt(column, text.getColumnCount(line) + 1)
+            } else {
+                random.nextInt(text.getColumnCount(endLine) + 1)
+            }
+            text.delete(line, column, endLine, endColumn)
+        }
+    }
+
+    /**
+     * Wait until all modifications are analyzed, and check the result with sequential tokenization
+     * of the text
+     */
+    private fun verify(analyzer: CommentAnalyzer, text: Content) {
+        val modificationCount = analyzer.sentModifications
+        val expectedText = text.toString()
+        val deadline = System.currentTimeMillis() + 30000
+        var snapshot = analyzer.snapshot
+        while (snapshot == null || snapshot.modificationCount != modificationCount || snapshot.text != expectedText) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline)
+            Thread.sleep(5)
+            snapshot = analyzer.snapshot
+        }
+        var state = analyzer.initialState
+        for (line in 0 until text.lineCount) {
+            val result = analyzer.tokenizeLine(text.getLine(line), state, line)
+            state = result.state
+            assertThat(snapshot.states[line]).isEqualTo(result.state)
+            assertThat(snapshot.spans[line]).isEqualTo(result.spans.map { it.column to it.style })
+        }
+    }
+
+    @Test
+    fun `test random edits`() {
+        val random = Random(23)
+        repeat(20) {
+            val text = Content(randomText(random, random.nextInt(1, 300)))
+            val analyzer = createAnalyzer(text, false)
+            repeat(random.nextInt(1, 50)) {
+                randomEdit(random, text)
+                if (random.nextInt(4) == 0) {
+                    Thread.sleep(random.nextLong(3))
+                }
+            }
+            verify(analyzer, text)
+        }
+    }
+
+    @Test
+    fun `test coalesced modifications`() {
+        val random = Random(22)
+        val text = Content(randomText(random, 200))
+        val analyzer = createAnalyzer(text, false)
+        verify(analyzer, text)
+
+        // Block analysis thread in the first modification, so that following ones are queued
+        val gate = CountDownLatch(1)
+        analyzer.gate = gate
+        text.insert(0, 0, "/*")
+        assertThat(analyzer.gateEntered.await(10, TimeUnit.SECONDS)).isTrue()
+        repeat(20) {
+            randomEdit(random, text)
+        }
+        analyzer.gate = null
+        gate.countDown()
+        verify(analyzer, text)
+        // All queued modifications are applied together, after the blocked one
+        assertThat(analyzer.coalescedModificationCount).isEqualTo(analyzer.sentModifications - 2)
+    }
+
+    /**
+     * Chunks are only tokenized in parallel if there are at least two processors, otherwise these
+     * tests check sequential tokenization of large text
+     */
+    @Test
+    fun `test parallel tokenization`() {
+        val random = Random(25)
+        val text = Content(randomText(random, 20000))
+        verify(createAnalyzer(text, true), text)
+        // Visible lines are analyzed first with guessed state
+        val text2 = Content(randomText(random, 20000))
+        verify(createAnalyzer(text2, true, IntPair.pack(10000, 10050)), text2)
+    }
+
+    @Test
+    fun `test edits during parallel tokenization`() {
+        val random = Random(25)
+        repeat(5) {
+            val text = Content(randomText(random, 20000))
+            val analyzer = createAnalyzer(text, true, if (it % 2 == 0) -1 else IntPair.pack(8000, 8050))
+            repeat(random.nextInt(1, 30)) {
+                randomEdit(random, text)
+                Thread.sleep(random.nextLong(5))
+            }
+            verify(analyzer, text)
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.completion
+
+import android.os.Handler
+import android.os.Looper
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.Language
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import kotlin.random.Random
+import kotlin.time.measureTime
+
+@RunWith(RobolectricTestRunner::class)
+class CompletionPublisherTest {
+
+    private val comparator = Comparator<CompletionItem> { a, b -> a.label.toString().compareTo(b.label.toString()) }
+
+    private fun createPublisher() =
+        CompletionPublisher(Handler(Looper.getMainLooper()), {}, Language.INTERRUPTION_LEVEL_NONE)
+
+    private fun idle() = shadowOf(Looper.getMainLooper()).idle()
+
+    private fun randomItems(random: Random, count: Int) = List(count) {
+        SimpleCompletionItem("item" + random.nextInt(100000), 0, "")
+    }
+
+    @Test
+    fun testMergeBatches() {
+        val random = Random(18)
+        repeat(50) {
+            val publisher = createPublisher()
+            publisher.setComparator(comparator)
+            publisher.setUpdateThreshold(1 + random.nextInt(100))
+            val items = randomItems(random, random.nextInt(500))
+            items.forEach {
+                publisher.addItem(it)
+                if (random.nextInt(50) == 0) {
+                    idle()
+                }
+            }
+            publisher.updateList(true)
+            idle()
+            assertThat(publisher.items.map { it.label }).isEqualTo(items.sortedWith(comparator).map { it.label })
+        }
+    }
+
+    @Test
+    fun testItemLimit() {
+        val random = Random(18)
+        val publisher = createPublisher()
+        publisher.setComparator(comparator)
+        publisher.setItemLimit(20)
+        val items = randomItems(random, 300)
+        items.chunked(7).forEach { publisher.addItems(it) }
+        publisher.updateList(true)
+        idle()
+        val expected = items.sortedWith(comparator).map { it.label }
+        assertThat(publisher.items.map { it.label }).isEqualTo(expected.subList(0, 20))
+        assertThat(publisher.hasMoreItems()).isTrue()
+        publisher.loadMoreItems()
+        assertThat(publisher.items.map { it.label }).isEqualTo(expected.subList(0, 40))
+        while (publisher.hasMoreItems()) {
+            publisher.loadMoreItems()
+        }
+        assertThat(publisher.items.map { it.label }).isEqualTo(expected)
+    }
+
+    @Test
+    fun testComparatorSetLater() {
+        val random = Random(18)
+        val publisher = createPublisher()
+        publisher.setItemLimit(10)
+        val items = randomItems(random, 100)
+        publisher.addItems(items)
+        publisher.updateList(true)
+        idle()
+        assertThat(publisher.items.map { it.label }).isEqualTo(items.subList(0, 10).map { it.label })
+        publisher.setComparator(comparator)
+        idle()
+        assertThat(publisher.allItems.map { it.label }).isEqualTo(items.sortedWith(comparator).map { it.label })
+    }
+
+    @Test
+    fun testPerformance() {
+        val random = Random(18)
+        for (limit in listOf(Int.MAX_VALUE, 50)) {
+            val publisher = createPublisher()
+            publisher.setComparator(comparator)
+            publisher.setItemLimit(limit)
+            val items = randomItems(random, 50000)
+            val time = measureTime {
+                items.chunked(5).forEach {
+                    publisher.addItems(it)
+                    idle()
+                }
+                publisher.updateList(true)
+                idle()
+            }
+            println("limit $limit: ${publisher.items.size} items displayed in $time")
+        }
+    }
+
+}
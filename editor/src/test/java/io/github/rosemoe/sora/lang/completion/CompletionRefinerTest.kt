@@ -0,0 +1,132 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.completion
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.CharPosition
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentReference
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.time.measureTime
+
+class CompletionRefinerTest {
+
+    private fun createItems(labels: List<String>, prefixLength: Int) =
+        labels.map { SimpleCompletionItem(it, prefixLength, it) }
+
+    private fun CompletionRefiner.refine(requestLine: String, typed: String): List<CompletionItem> {
+        val line = requestLine + typed
+        return refine(line, line.length, typed)
+    }
+
+    @Test
+    fun testRefine() {
+        val items = createItems(
+            listOf("getValue", "getName", "setValue", "getVersion", "gate", "target", "GET_VALUE"), 1
+        )
+        val refiner = CompletionRefiner(items, Comparator(::snippetUpComparator))
+        val line = "  x = g"
+        assertThat(refiner.refine(line, "et").map { it.label })
+            .containsExactly("getName", "getValue", "getVersion", "GET_VALUE", "gate").inOrder()
+        assertThat(refiner.refine(line, "etV").map { it.label })
+            .containsExactly("getValue", "getVersion", "GET_VALUE").inOrder()
+        // Backspace
+        assertThat(refiner.refine(line, "et").map { it.label }).contains("getName")
+        val result = refiner.refine(line, "etVa")
+        assertThat(result.map { it.label }).containsExactly("getValue", "GET_VALUE").inOrder()
+        assertThat(result.map { it.prefixLength }).containsExactly(5, 5)
+        assertThat(refiner.refine(line, "x")).isEmpty()
+    }
+
+    @Test
+    fun testSortText() {
+        val labels = listOf("getValue", "getName", "setValue", "getVersion", "gate", "GET_VALUE", "getter")
+        val sortTexts = listOf("value", "name", null, "getVersion", "gate", "gv", "")
+        fun createItems(prefixLength: Int) = labels.mapIndexed { i, label ->
+            SimpleCompletionItem(label, prefixLength, label).also { it.sortText = sortTexts[i] }
+        }
+        val requestLine = "  x = g"
+        val refiner = CompletionRefiner(createItems(1), Comparator(::snippetUpComparator))
+        for (typed in listOf("e", "et", "etV", "etVa", "e")) {
+            val line = requestLine + typed
+            val refined = refiner.refine(line, line.length, typed)
+            // Same as a new completion pass with the longer prefix
+            val items = createItems(1 + typed.length)
+            val comparator = getCompletionItemComparator(
+                ContentReference(Content(line)), CharPosition(0, line.length), items
+            )
+            val expected = items.filter { it.extra != null }.sortedWith(comparator)
+            assertThat(refined.map { it.label }).isEqualTo(expected.map { it.label })
+            assertThat(refined.map { (it.extra as SortedCompletionItem).score.score })
+                .isEqualTo(expected.map { (it.extra as SortedCompletionItem).score.score })
+        }
+    }
+
+    @Test
+    fun testWordPart() {
+        assertThat(CompletionRefiner.isWordPart("abc_1")).isTrue()
+        assertThat(CompletionRefiner.isWordPart("ab.")).isFalse()
+        assertThat(CompletionRefiner.isWordPart("a b")).isFalse()
+    }
+
+    @Test
+    fun testNarrowing() {
+        val random = Random(17)
+        val alphabet = "abcdeAB_"
+        val labels = List(3000) {
+            String(CharArray(1 + random.nextInt(10)) { alphabet[random.nextInt(alphabet.length)] })
+        }
+        repeat(50) {
+            val refiner = CompletionRefiner(createItems(labels, 1), null)
+            var typed = ""
+            repeat(5) {
+                typed += alphabet[random.nextInt(alphabet.length)]
+                val refined = refiner.refine("a", typed).map { it.label }
+                val expected = CompletionRefiner(createItems(labels, 1), null).refine("a", typed).map { it.label }
+                assertThat(refined).isEqualTo(expected)
+            }
+        }
+    }
+
+    @Test
+    fun testPerformance() {
+        val random = Random(17)
+        val labels = List(20000) {
+            String(CharArray(4 + random.nextInt(16)) { 'a' + random.nextInt(26) })
+        }
+        val refiner = CompletionRefiner(createItems(labels, 1), Comparator(::snippetUpComparator))
+        var typed = ""
+        for (ch in "etval") {
+            typed += ch
+            var count: Int
+            val time = measureTime {
+                count = refiner.refine("g", typed).size
+            }
+            println("typed $typed: $count items in $time")
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.completion
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.Locale
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import kotlin.random.Random
+import kotlin.time.measureTime
+
+class FuzzyScoreEngineTest {
+
+    private fun randomWords(random: Random, count: Int, alphabet: String, maxLength: Int) = List(count) {
+        String(CharArray(1 + random.nextInt(maxLength)) { alphabet[random.nextInt(alphabet.length)] })
+    }
+
+    private fun score(pattern: String, patternPos: Int, word: String) = fuzzyScoreGracefulAggressive(
+        pattern, pattern.lowercase(Locale.ROOT), patternPos,
+        word, word.lowercase(Locale.ROOT), 0, FuzzyScoreOptions.default
+    )
+
+    @Test
+    fun testMatches() {
+        val result = fuzzyScore("gv", "gv", 0, "getValue", "getvalue", 0)
+        assertThat(result).isNotNull()
+        assertThat(result!!.matches).containsExactly(3, 0).inOrder()
+        assertThat(fuzzyScore("gx", "gx", 0, "getValue", "getvalue", 0)).isNull()
+        // Permutation
+        assertThat(score("gte", 0, "get")).isNotNull()
+    }
+
+    @Test
+    fun testScoreNotOverflowed() {
+        // Mismatched cells used to be taken as diagonal moves with overflowed scores
+        val random = Random(16)
+        val patterns = randomWords(random, 2000, "abcdeABCDE_.x", 6)
+        val words = randomWords(random, 2000, "abcdeABCDE_.x", 20)
+        for (i in patterns.indices) {
+            val result = score(patterns[i], 0, words[i]) ?: continue
+            assertThat(result.score).isLessThan(100)
+        }
+    }
+
+    @Test
+    fun testScoreAll() {
+        val random = Random(16)
+        val words = randomWords(random, 20000, "abcdefghijklmnopqrstuvwxyzABCDEFG_0123", 28)
+        for (pattern in listOf("abc", "sEtTx", "gta", "ab", "zz9_q", "héllo")) {
+            for (patternPos in 0..1) {
+                val scores = FuzzyScoreEngine.scoreAll(pattern, patternPos, words, true, FuzzyScoreOptions.default)
+                words.forEachIndexed { i, word ->
+                    assertThat(scores[i]).isEqualTo(score(pattern, patternPos, word)?.score ?: FuzzyScoreEngine.NO_MATCH)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testConcurrentScoring() {
+        val random = Random(16)
+        val patterns = randomWords(random, 500, "abcdeABCDE_", 5)
+        val words = randomWords(random, 500, "abcdeABCDE_", 16)
+        val expected = patterns.indices.map { score(patterns[it], 0, words[it])?.score }
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            val tasks = List(4) {
+                Callable { patterns.indices.map { score(patterns[it], 0, words[it])?.score } }
+            }
+            executor.invokeAll(tasks).forEach {
+                assertThat(it.get()).isEqualTo(expected)
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testPerformance() {
+        val random = Random(16)
+        val words = List(100000) {
+            String(CharArray(4 + random.nextInt(20)) { i ->
+                val ch = 'a' + random.nextInt(26)
+                if (i > 0 && random.nextInt(6) == 0) ch.uppercaseChar() else ch
+            })
+        }
+        for (pattern in listOf("gtv", "setVal", "mAp", "strb")) {
+            var matched = 0
+            val singleTime = measureTime {
+                matched = words.count { score(pattern, 0, it) != null }
+            }
+            var scores: IntArray
+            val batchTime = measureTime {
+                scores = FuzzyScoreEngine.scoreAll(pattern, 0, words, true, FuzzyScoreOptions.default)
+            }
+            assertThat(scores.count { it != FuzzyScoreEngine.NO_MATCH }).isEqualTo(matched)
+            println("pattern $pattern: one by one $singleTime, batch $batchTime, $matched matched")
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+package io.github.rosemoe.sora.lang.completion
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.TextUtils
+import org.junit.Test
+import java.util.Locale
+import kotlin.random.Random
+import kotlin.time.measureTime
+
+class IdentifierIndexTest {
+
+    /**
+     * Filtering rule of identifiers, applied to every identifier
+     */
+    private fun referenceFilter(identifiers: Collection<String>, prefix: String): List<String> {
+        return identifiers.filter { s ->
+            val fuzzyScore = fuzzyScoreGracefulAggressive(
+                prefix, prefix.lowercase(Locale.ROOT), 0,
+                s, s.lowercase(Locale.ROOT), 0, FuzzyScoreOptions.default
+            )
+            val score = fuzzyScore?.score ?: -100
+            (TextUtils.startsWith(s, prefix, true) || score >= -20) && s != prefix
+        }.sorted()
+    }
+
+    private fun IdentifierIndex.filterSorted(prefix: String): List<String> {
+        val dest = mutableListOf<String>()
+        filter(prefix, dest)
+        return dest.sorted()
+    }
+
+    @Test
+    fun testPrefixAndFuzzy() {
+        val index = IdentifierIndex()
+        val words = listOf("getValue", "get", "GETTER", "setValue", "value_get", "target", "forget", "Gt")
+        words.forEach { index.increase(it) }
+        for (prefix in listOf("g", "get", "gv", "Get", "val", "x", "")) {
+            assertThat(index.filterSorted(prefix)).isEqualTo(referenceFilter(words, prefix))
+        }
+        assertThat(index.filterSorted("get")).doesNotContain("get")
+        assertThat(index.filterSorted("get")).contains("GETTER")
+    }
+
+    @Test
+    fun testCounting() {
+        val index = IdentifierIndex()
+        index.increase("abc")
+        index.increase("abc")
+        index.decrease("abc")
+        assertThat(index.filterSorted("a")).containsExactly("abc")
+        index.decrease("abc")
+        assertThat(index.filterSorted("a")).isEmpty()
+        index.decrease("abc")
+        assertThat(index.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun testRandomUpdates() {
+        val random = Random(15)
+        val alphabet = "abcdeABCDE_x1$"
+        val pool = List(3000) {
+            String(CharArray(1 + random.nextInt(12)) { alphabet[random.nextInt(alphabet.length)] })
+        }
+        val index = IdentifierIndex()
+        val counts = HashMap<String, Int>()
+        repeat(100000) { step ->
+            val word = pool[random.nextInt(pool.size)]
+            if (random.nextInt(3) != 0) {
+                index.increase(word)
+                counts[word] = (counts[word] ?: 0) + 1
+            } else {
+                index.decrease(word)
+                val count = (counts[word] ?: 0) - 1
+                if (count <= 0) counts.remove(word) else counts[word] = count
+            }
+            if (step % 997 == 0) {
+                val word2 = pool[random.nextInt(pool.size)]
+                val prefix = word2.substring(0, 1 + random.nextInt(minOf(4, word2.length)))
+                assertThat(index.filterSorted(prefix)).isEqualTo(referenceFilter(counts.keys, prefix))
+                assertThat(index.size()).isEqualTo(counts.size)
+            }
+        }
+    }
+
+    @Test
+    fun testPerformance() {
+        val random = Random(15)
+        val index = IdentifierIndex()
+        val words = HashSet<String>()
+        repeat(50000) {
+            val word = String(CharArray(4 + random.nextInt(14)) { i ->
+                val ch = 'a' + random.nextInt(26)
+                if (i > 0 && random.nextInt(6) == 0) ch.uppercaseChar() else ch
+            })
+            index.increase(word)
+            words.add(word)
+        }
+        for (prefix in listOf("g", "get", "se", "mAp", "strB")) {
+            var result: List<String>
+            val indexTime = measureTime {
+                result = index.filterSorted(prefix)
+            }
+            var expected: List<String>
+            val scanTime = measureTime {
+                expected = referenceFilter(words, prefix)
+            }
+            assertThat(result).isEqualTo(expected)
+            println("prefix $prefix: index $indexTime, full scan $scanTime, ${result.size} results")
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.diagnostic
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class DiagnosticsContainerTest {
+
+    /**
+     * Plain list implementation, as the reference of shifting behavior
+     */
+    private class ListContainer {
+
+        val regions = mutableListOf<DiagnosticRegion>()
+
+        fun shiftOnInsert(insertStart: Int, insertEnd: Int) {
+            val length = insertEnd - insertStart
+            for (region in regions) {
+                if (region.startIndex <= insertStart && region.endIndex >= insertStart) {
+                    region.endIndex += length
+                }
+                if (region.startIndex > insertStart) {
+                    region.startIndex += length
+                    region.endIndex += length
+                }
+            }
+        }
+
+        fun shiftOnDelete(deleteStart: Int, deleteEnd: Int) {
+            val length = deleteEnd - deleteStart
+            val itr = regions.iterator()
+            while (itr.hasNext()) {
+                val region = itr.next()
+                val sharedStart = maxOf(deleteStart, region.startIndex)
+                val sharedEnd = minOf(deleteEnd, region.endIndex)
+                if (sharedEnd <= sharedStart) {
+                    if (region.startIndex >= deleteEnd) {
+                        region.startIndex -= length
+                        region.endIndex -= length
+                    }
+                } else {
+                    region.endIndex -= sharedEnd - sharedStart
+                    if (region.startIndex > deleteStart) {
+                        val shiftLeftCount = region.startIndex - deleteStart
+                        region.startIndex -= shiftLeftCount
+                        region.endIndex -= shiftLeftCount
+                    }
+                    if (region.startIndex == region.endIndex) {
+                        itr.remove()
+                    }
+                }
+            }
+        }
+
+        fun query(startIndex: Int, endIndex: Int) =
+            regions.filter { it.endIndex > startIndex && it.startIndex <= endIndex }
+
+    }
+
+    private fun DiagnosticRegion.text() = "$id:$startIndex-$endIndex"
+
+    @Test
+    fun `test shifting and querying`() {
+        repeat(100) { seed ->
+            val random = Random(seed)
+            val container = DiagnosticsContainer()
+            val reference = ListContainer()
+            var length = 2000
+            var id = 0L
+            repeat(500) {
+                val cmd = random.nextInt(10)
+                if (cmd < 3) {
+                    val start = random.nextInt(length + 1)
+                    val end = minOf(length, start + random.nextInt(30))
+                    container.addDiagnostic(DiagnosticRegion(start, end, 0, id))
+                    reference.regions.add(DiagnosticRegion(start, end, 0, id))
+                    id++
+                } else if (cmd < 6) {
+                    val start = random.nextInt(length + 1)
+                    val count = random.nextInt(20)
+                    container.shiftOnInsert(start, start + count)
+                    reference.shiftOnInsert(start, start + count)
+                    length += count
+                } else if (cmd < 9) {
+                    val start = random.nextInt(length + 1)
+                    val end = minOf(length, start + random.nextInt(40))
+                    container.shiftOnDelete(start, end)
+                    reference.shiftOnDelete(start, end)
+                    length -= end - start
+                } else if (random.nextInt(20) == 0) {
+                    container.reset()
+                    reference.regions.clear()
+                }
+                val queryStart = random.nextInt(length + 1)
+                val queryEnd = queryStart + random.nextInt(100)
+                val result = mutableListOf<DiagnosticRegion>()
+                container.queryInRegion(result, queryStart, queryEnd)
+                assertThat(result.map { it.text() })
+                    .containsExactlyElementsIn(reference.query(queryStart, queryEnd).map { it.text() })
+            }
+            val result = mutableListOf<DiagnosticRegion>()
+            container.queryInRegion(result, Int.MIN_VALUE, Int.MAX_VALUE)
+            assertThat(result.map { it.text() }).containsExactlyElementsIn(reference.regions.map { it.text() })
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lang.styling
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class BlocksUpdaterTest {
+
+    private fun block(startLine: Int, endLine: Int) = CodeBlock().also {
+        it.startLine = startLine
+        it.endLine = endLine
+    }
+
+    private fun List<CodeBlock>.lines() = map { it.startLine to it.endLine }
+
+    @Test
+    fun `test update on delete`() {
+        val blocks = mutableListOf(
+            block(0, 2), block(1, 8), block(3, 5), block(4, 6), block(6, 9), block(10, 12)
+        )
+        // Delete from line 3 to line 6
+        BlocksUpdater.updateOnDelete(blocks, 3, 6)
+        assertThat(blocks.lines()).isEqualTo(listOf(0 to 2, 1 to 5, 3 to 6, 7 to 9))
+    }
+
+    @Test
+    fun `test update on delete at document start and end`() {
+        val blocks = mutableListOf(block(0, 3), block(1, 2), block(4, 6), block(5, 6))
+        BlocksUpdater.updateOnDelete(blocks, 0, 2)
+        assertThat(blocks.lines()).isEqualTo(listOf(0 to 1, 2 to 4, 3 to 4))
+        BlocksUpdater.updateOnDelete(blocks, 3, 4)
+        assertThat(blocks.lines()).isEqualTo(listOf(0 to 1, 2 to 3))
+        // Deletion in a single line changes nothing
+        BlocksUpdater.updateOnDelete(blocks, 2, 2)
+        assertThat(blocks.lines()).isEqualTo(listOf(0 to 1, 2 to 3))
+    }
+
+    @Test
+    fun `test replace`() {
+        val blocks = mutableListOf(block(0, 9), block(2, 4), block(5, 7), block(10, 12))
+        BlocksUpdater.replace(blocks, 1, 8, listOf(block(6, 8), block(1, 3)))
+        assertThat(blocks.lines()).isEqualTo(listOf(1 to 3, 6 to 8, 0 to 9, 10 to 12))
+        // Blocks starting in the range are removed
+        BlocksUpdater.replace(blocks, 0, 6, emptyList())
+        assertThat(blocks.lines()).isEqualTo(listOf(10 to 12))
+    }
+
+}
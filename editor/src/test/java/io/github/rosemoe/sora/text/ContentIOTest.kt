@@ -25,8 +25,17 @@
 package io.github.rosemoe.sora.text
 
 import com.google.common.truth.Truth.assertThat
+import org.junit.Assert.assertThrows
 import org.junit.Test
+import java.io.File
+import java.io.StringReader
 import java.io.StringWriter
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
 
 class ContentIOTest {
 
@@ -39,4 +48,130 @@ class ContentIOTest {
         assertThat(writer.buffer.toString()).isEqualTo(text)
     }
 
-}
\ No newline at end of file
+    @Test
+    fun testMappedFile() {
+        val text = "Hello\nWorld\r\nTest\rTest\n\u00e9\u4e2d\ud83d\ude00\n"
+        val file = File.createTempFile("sora", ".txt")
+        try {
+            file.writeText(text, Charsets.UTF_8)
+            val content = ContentIO.createFromMappedFile(file, Charsets.UTF_8, 2)
+            val expected = Content(text)
+            assertThat(content.toString()).isEqualTo(text)
+            assertThat(content.lineCount).isEqualTo(expected.lineCount)
+            for (i in 0..text.length) {
+                assertThat(content.indexer.getCharPosition(i)).isEqualTo(expected.indexer.getCharPosition(i))
+            }
+            assertThat(content.isReadOnly).isTrue()
+            assertThrows(UnsupportedOperationException::class.java) {
+                content.insert(0, 0, "text")
+            }
+            assertThrows(IllegalArgumentException::class.java) {
+                ContentLoader(content, StringReader(text), Executor { it.run() }, null)
+            }
+            val copy = content.copyTextShallow()
+            assertThat(copy.toString()).isEqualTo(text)
+            copy.release()
+            assertThat(content.toString()).isEqualTo(text)
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    fun testLoader() {
+        val text = "Hello\r\nWorld\r\r\nTest\rTest\n".repeat(100)
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            for (batchSize in intArrayOf(2, 3, 7, 1024)) {
+                val content = Content()
+                val latch = CountDownLatch(1)
+                val progress = AtomicLong()
+                val failure = AtomicReference<Throwable>()
+                ContentLoader(content, StringReader(text), executor, object : ContentLoader.Callback {
+                    override fun onProgress(loadedLength: Long) {
+                        progress.set(loadedLength)
+                    }
+
+                    override fun onCompleted(loadedLength: Long) = latch.countDown()
+
+                    override fun onCancelled(loadedLength: Long) {
+                        failure.set(IllegalStateException("cancelled at $loadedLength"))
+                        latch.countDown()
+                    }
+
+                    override fun onFailed(error: Throwable) {
+                        failure.set(error)
+                        latch.countDown()
+                    }
+                }, batchSize).start()
+                assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue()
+                assertThat(failure.get()).isNull()
+                assertThat(content.toString()).isEqualTo(text)
+                assertThat(content.lineCount).isEqualTo(Content(text).lineCount)
+                assertThat(progress.get()).isEqualTo(text.length.toLong())
+            }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun testLoaderApplyFailure() {
+        val text = "0123456789".repeat(100)
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            val content = Content()
+            content.isUndoEnabled = true
+            val error = IllegalStateException("insertion failed")
+            // Fail to apply the second batch
+            content.addContentListener(object : ContentListener {
+                override fun beforeReplace(content: Content) {}
+
+                override fun afterInsert(
+                    content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int,
+                    insertedContent: CharSequence
+                ) {
+                    if (startColumn > 0) {
+                        throw error
+                    }
+                }
+
+                override fun afterDelete(
+                    content: Content, startLine: Int, startColumn: Int, endLine: Int, endColumn: Int,
+                    deletedContent: CharSequence
+                ) {}
+            })
+            val latch = CountDownLatch(1)
+            val result = AtomicReference<Any>()
+            val loader = ContentLoader(content, StringReader(text), executor, object : ContentLoader.Callback {
+                override fun onProgress(loadedLength: Long) {}
+
+                override fun onCompleted(loadedLength: Long) {
+                    result.set("completed")
+                    latch.countDown()
+                }
+
+                override fun onCancelled(loadedLength: Long) {
+                    result.set("cancelled")
+                    latch.countDown()
+                }
+
+                override fun onFailed(error: Throwable) {
+                    result.set(error)
+                    latch.countDown()
+                }
+            }, 16)
+            loader.start()
+            assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue()
+            assertThat(result.get()).isSameInstanceAs(error)
+            assertThat(loader.isCancelled).isTrue()
+            // Undo is restored in executor before callback
+            assertThat(content.isUndoEnabled).isTrue()
+            assertThat(text).startsWith(content.toString())
+            assertThat(content.length).isLessThan(text.length)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.time.measureTime
+
+class ContentStorageTest {
+
+    companion object {
+        val EDITABLE_TYPES = arrayOf(Content.StorageType.ARRAY, Content.StorageType.TREE)
+    }
+
+    @Test
+    fun `test storage types random modification`() {
+        EDITABLE_TYPES.forEach { type ->
+            repeat(20) { seed ->
+                val random = Random(seed)
+                val content = Content("abc\ndef\nghi", false, type)
+                val std = StringBuilder("abc\ndef\nghi")
+                repeat(3000) {
+                    if (std.isEmpty() || random.nextInt(3) > 0) {
+                        val index = random.nextInt(std.length + 1)
+                        val text = if (random.nextBoolean()) "x\ny\nz" else "q"
+                        val pos = content.indexer.getCharPosition(index)
+                        content.insert(pos.line, pos.column, text)
+                        std.insert(index, text)
+                    } else {
+                        val start = random.nextInt(std.length + 1)
+                        val end = minOf(std.length, start + random.nextInt(10))
+                        content.delete(start, end)
+                        std.delete(start, end)
+                    }
+                }
+                assertThat(content.toString()).isEqualTo(std.toString())
+                val copy = content.copyText(false)
+                assertThat(copy.storageType).isEqualTo(type)
+                assertThat(copy.toString()).isEqualTo(std.toString())
+            }
+        }
+    }
+
+    @Test
+    fun `test storage types random edit performance`() {
+        for (lineCount in intArrayOf(10_000, 100_000, 1_000_000)) {
+            val results = EDITABLE_TYPES.map { type ->
+                val content = Content("line\n".repeat(lineCount), false, type)
+                val random = Random(lineCount)
+                val time = measureTime {
+                    repeat(2000) {
+                        val line = random.nextInt(content.lineCount - 4)
+                        if (it % 2 == 0) {
+                            content.insert(line, 0, "a\nb\nc\nd\n")
+                        } else {
+                            content.delete(line, 0, line + 4, 0)
+                        }
+                    }
+                }
+                content.release()
+                "$type = $time"
+            }
+            println("Content Storage Random Edit Perf Test Result ($lineCount lines): ${results.joinToString()}")
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+import kotlin.time.measureTime
+
+class IndexerTest {
+
+    @Test
+    fun `test prefix sum indexer random modification`() {
+        repeat(30) { seed ->
+            val random = Random(seed)
+            val content = Content("ab\r\ncd\ref\n", false)
+            // Use the indexer of cursor as the editor does
+            content.cursor
+            val std = StringBuilder(content.toString())
+            repeat(2000) {
+                if (std.isEmpty() || random.nextInt(3) > 0) {
+                    val index = random.nextInt(std.length + 1)
+                    val pos = content.indexer.getCharPosition(index)
+                    if (pos.column <= content.getColumnCount(pos.line)) {
+                        val text = if (random.nextBoolean()) "x\r\ny\nz" else "qq\r"
+                        content.insert(pos.line, pos.column, text)
+                        std.insert(index, text)
+                    }
+                } else {
+                    val start = random.nextInt(std.length + 1)
+                    val end = minOf(std.length, start + random.nextInt(10))
+                    val startPos = content.indexer.getCharPosition(start)
+                    val endPos = content.indexer.getCharPosition(end)
+                    if (startPos.column <= content.getColumnCount(startPos.line) && endPos.column <= content.getColumnCount(endPos.line)) {
+                        content.delete(start, end)
+                        std.delete(start, end)
+                    }
+                }
+            }
+            assertThat(content.toString()).isEqualTo(std.toString())
+            val reference = CachedIndexer(content)
+            val copy = content.copyText(false)
+            for (i in 0..content.length) {
+                val expected = reference.getCharPosition(i)
+                assertThat(content.indexer.getCharPosition(i)).isEqualTo(expected)
+                assertThat(copy.indexer.getCharPosition(i)).isEqualTo(expected)
+                assertThat(content.indexer.getCharIndex(expected.line, expected.column)).isEqualTo(i)
+            }
+        }
+    }
+
+    @Test
+    fun `test indexer random query performance`() {
+        for (lineCount in intArrayOf(10_000, 100_000)) {
+            val content = Content("some text line\n".repeat(lineCount), false)
+            val indexers = listOf(CachedIndexer(content), PrefixSumIndexer(content))
+            val results = indexers.map { indexer ->
+                val random = Random(lineCount)
+                val time = measureTime {
+                    repeat(10_000) {
+                        indexer.getCharPosition(random.nextInt(content.length))
+                        indexer.getCharIndex(random.nextInt(lineCount), 3)
+                    }
+                }
+                "${indexer.javaClass.simpleName} = $time"
+            }
+            println("Indexer Random Query Perf Test Result ($lineCount lines): ${results.joinToString()}")
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.text
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.util.regex.Pattern
+import kotlin.random.Random
+import kotlin.time.DurationUnit
+import kotlin.time.measureTime
+
+class LiteralMatcherTest {
+
+    private fun randomText(random: Random, length: Int, charset: String) =
+        String(CharArray(length) { charset[random.nextInt(charset.length)] })
+
+    @Test
+    fun testSameAsTextUtils() {
+        val random = Random(42)
+        val charset = "aAbBcσΣςİi_ "
+        repeat(2000) {
+            val text = randomText(random, random.nextInt(1, 300), charset)
+            val pattern = randomText(random, random.nextInt(1, 5), charset)
+            val ignoreCase = random.nextBoolean()
+            val matcher = LiteralMatcher(pattern, ignoreCase)
+            val array = text.toCharArray()
+            val from = random.nextInt(text.length)
+            assertThat(matcher.indexOf(array, from, array.size))
+                .isEqualTo(TextUtils.indexOf(text, pattern, ignoreCase, from))
+        }
+    }
+
+    @Test
+    fun testWholeWord() {
+        val random = Random(42)
+        val charset = "ab_ .-"
+        repeat(2000) {
+            val text = randomText(random, random.nextInt(1, 200), charset)
+            val pattern = randomText(random, random.nextInt(1, 4), charset)
+            val array = text.toCharArray()
+            val matcher = LiteralMatcher(pattern, false)
+            val expected = mutableListOf<Int>()
+            val regex = Pattern.compile("\\b" + Pattern.quote(pattern) + "\\b").matcher(text)
+            var position = 0
+            while (position < text.length && regex.find(position)) {
+                expected.add(regex.start())
+                position = regex.end()
+            }
+            val actual = mutableListOf<Int>()
+            position = 0
+            while (true) {
+                val index = matcher.indexOf(array, position, array.size)
+                if (index == -1) {
+                    break
+                }
+                if (LiteralMatcher.isWholeWord(array, 0, array.size, index, index + pattern.length)) {
+                    actual.add(index)
+                    position = index + pattern.length
+                } else {
+                    position = index + 1
+                }
+            }
+            assertThat(actual).isEqualTo(expected)
+        }
+    }
+
+    @Test
+    fun `test literal search performance`() {
+        val random = Random(42)
+        val words = listOf("INFO", "DEBUG", "request", "handled", "user", "latency", "cache", "miss", "ok")
+        val sb = StringBuilder()
+        while (sb.length < 20_000_000) {
+            repeat(random.nextInt(5, 16)) {
+                sb.append(words[random.nextInt(words.size)]).append(' ')
+            }
+            if (random.nextInt(20000) == 0) {
+                sb.append("ERROR timeout ")
+            }
+            sb.append('\n')
+        }
+        val text = Content(sb)
+        for (pattern in listOf("ERROR timeout", "latency", "Latency miss")) {
+            var expected = 0
+            val timeOld = measureTime {
+                val string = text.toStringBuilder()
+                var index = TextUtils.indexOf(string, pattern, true, 0)
+                while (index != -1) {
+                    expected++
+                    index = TextUtils.indexOf(string, pattern, true, index + pattern.length)
+                }
+            }
+            var actual = 0
+            val timeNew = measureTime {
+                val matcher = LiteralMatcher(pattern, true)
+                for (i in 0 until text.lineCount) {
+                    val line = text.getLine(i)
+                    var index = matcher.indexOf(line.backingCharArray, 0, line.length)
+                    while (index != -1) {
+                        actual++
+                        index = matcher.indexOf(line.backingCharArray, index + pattern.length, line.length)
+                    }
+                }
+            }
+            assertThat(actual).isEqualTo(expected)
+            println(
+                "Literal Search Perf Test Result ('$pattern', $expected matches):\n" +
+                        "TextUtils.indexOf = $timeOld, LiteralMatcher on lines = $timeNew, Ratio = ${
+                            timeOld.toLong(DurationUnit.NANOSECONDS) / timeNew.toLong(DurationUnit.NANOSECONDS).toDouble()
+                        }"
+            )
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.util
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class PrefixSumIntListTest {
+
+    @Test
+    fun `test prefix sum list random modification`() {
+        repeat(100) { seed ->
+            val list = PrefixSumIntList(8)
+            val std = mutableListOf<Int>()
+            val random = Random(seed)
+            repeat(2000) {
+                val cmd = random.nextInt(10)
+                if (std.isEmpty() || cmd < 4) {
+                    val index = random.nextInt(std.size + 1)
+                    val value = random.nextInt(5)
+                    list.add(index, value)
+                    std.add(index, value)
+                } else if (cmd < 5) {
+                    val index = random.nextInt(std.size + 1)
+                    val values = IntArray(random.nextInt(30)) { random.nextInt(5) }
+                    list.addAll(index, values, values.size)
+                    std.addAll(index, values.toList())
+                } else if (cmd < 6) {
+                    val index = random.nextInt(std.size)
+                    val value = random.nextInt(5)
+                    assertThat(list.set(index, value)).isEqualTo(std.set(index, value))
+                } else if (cmd < 8) {
+                    var pos1 = random.nextInt(std.size + 1)
+                    var pos2 = random.nextInt(std.size + 1)
+                    if (pos1 > pos2) {
+                        val tmp = pos1
+                        pos1 = pos2
+                        pos2 = tmp
+                    }
+                    list.removeRange(pos1, pos2)
+                    std.subList(pos1, pos2).clear()
+                }
+                assertThat(list.size()).isEqualTo(std.size)
+            }
+            var sum = 0
+            for (i in std.indices) {
+                assertThat(list.get(i)).isEqualTo(std[i])
+                assertThat(list.prefixSum(i)).isEqualTo(sum)
+                sum += std[i]
+            }
+            assertThat(list.sum()).isEqualTo(sum)
+            if (std.isNotEmpty()) {
+                for (target in 0..sum) {
+                    var expected = 0
+                    var prefix = 0
+                    for (i in std.indices) {
+                        if (prefix <= target) {
+                            expected = i
+                        }
+                        prefix += std[i]
+                    }
+                    val result = list.findByPrefixSum(target)
+                    assertThat(IntPair.getFirst(result)).isEqualTo(expected)
+                    assertThat(IntPair.getSecond(result)).isEqualTo(list.prefixSum(expected))
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.util
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class TreeListTest {
+
+    @Test
+    fun `test tree list random modification`() {
+        repeat(50) { seed ->
+            val list = TreeList<Int>()
+            val std = mutableListOf<Int>()
+            val random = Random(seed)
+            repeat(10000) {
+                val cmd = random.nextInt(12)
+                if (std.isEmpty() || cmd < 5) {
+                    val index = random.nextInt(std.size + 1)
+                    val value = random.nextInt()
+                    std.add(index, value)
+                    list.add(index, value)
+                } else if (cmd < 7) {
+                    val index = random.nextInt(std.size + 1)
+                    val values = List(random.nextInt(20)) { random.nextInt() }
+                    std.addAll(index, values)
+                    list.addAll(index, values)
+                } else if (cmd < 8) {
+                    val index = random.nextInt(std.size)
+                    val value = random.nextInt()
+                    assertThat(list.set(index, value)).isEqualTo(std.set(index, value))
+                } else if (cmd < 10) {
+                    var pos1 = random.nextInt(std.size + 1)
+                    var pos2 = random.nextInt(std.size + 1)
+                    if (pos1 > pos2) {
+                        val tmp = pos1
+                        pos1 = pos2
+                        pos2 = tmp
+                    }
+                    list.subList(pos1, pos2).clear()
+                    std.subList(pos1, pos2).clear()
+                } else {
+                    val index = random.nextInt(std.size)
+                    assertThat(list.removeAt(index)).isEqualTo(std.removeAt(index))
+                }
+                assertThat(list.size).isEqualTo(std.size)
+            }
+            assertThat(list).containsExactlyElementsIn(std).inOrder()
+        }
+    }
+
+    @Test
+    fun `test tree list iterator removal`() {
+        val list = TreeList((0 until 1000).toList())
+        val iterator = list.iterator()
+        while (iterator.hasNext()) {
+            if (iterator.next() % 3 == 0) {
+                iterator.remove()
+            }
+        }
+        assertThat(list).containsExactlyElementsIn((0 until 1000).filter { it % 3 != 0 }).inOrder()
+    }
+
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.TextUtils
+import io.github.rosemoe.sora.util.IntPair
+import io.github.rosemoe.sora.util.LongArrayList
+import org.junit.Test
+import java.util.regex.Pattern
+import kotlin.random.Random
+
+class ParallelSearchTaskTest {
+
+    /**
+     * Sequential search on the whole text, as the reference of search results
+     */
+    private fun searchSequentially(text: String, pattern: String, options: EditorSearcher.SearchOptions): List<Long> {
+        val results = mutableListOf<Long>()
+        if (options.type == EditorSearcher.SearchOptions.TYPE_NORMAL) {
+            var nextStart = 0
+            while (nextStart < text.length) {
+                nextStart = TextUtils.indexOf(text, pattern, options.caseInsensitive, nextStart)
+                if (nextStart == -1) {
+                    break
+                }
+                results.add(IntPair.pack(nextStart, nextStart + pattern.length))
+                nextStart += pattern.length
+            }
+            return results
+        }
+        val regex = if (options.type == EditorSearcher.SearchOptions.TYPE_WHOLE_WORD) "\\b" + Pattern.quote(pattern) + "\\b" else pattern
+        val matcher = Pattern.compile(regex, (if (options.caseInsensitive) Pattern.CASE_INSENSITIVE else 0) or Pattern.MULTILINE).matcher(text)
+        var lastEnd = 0
+        while (lastEnd < text.length && matcher.find(lastEnd)) {
+            lastEnd = matcher.end()
+            if (matcher.start() == lastEnd) {
+                lastEnd++
+                continue
+            }
+            results.add(IntPair.pack(matcher.start(), lastEnd))
+        }
+        return results
+    }
+
+    private fun LongArrayList.toList() = (0 until size()).map { get(it) }
+
+    private fun search(text: Content, pattern: String, options: EditorSearcher.SearchOptions, priorLine: Int): List<Long> {
+        var completedResults: List<Long>? = null
+        val task = ParallelSearchTask(text.copyTextShallow(), pattern, options, priorLine, object : ParallelSearchTask.Callback {
+            override fun onPartialResult(results: LongArrayList) {
+                for (i in 1 until results.size()) {
+                    assertThat(IntPair.getFirst(results.get(i))).isAtLeast(IntPair.getSecond(results.get(i - 1)))
+                }
+            }
+
+            override fun onCompleted(results: LongArrayList, statistics: EditorSearcher.SearchStatistics) {
+                assertThat(statistics.matchCount).isEqualTo(results.size())
+                completedResults = results.toList()
+            }
+        })
+        task.run()
+        return completedResults!!
+    }
+
+    private fun generateText(random: Random, length: Int, alphabet: String): String {
+        val sb = StringBuilder()
+        while (sb.length < length) {
+            repeat(random.nextInt(80)) {
+                sb.append(alphabet[random.nextInt(alphabet.length)])
+            }
+            sb.append(arrayOf("\n", "\r\n", "\r")[random.nextInt(3)])
+        }
+        return sb.toString()
+    }
+
+    @Test
+    fun testSameResultsAsSequentialSearch() {
+        val random = Random(42)
+        val regexes = listOf(
+            "a\\s+b", "(?s)a.*?b", "b\\nc", "^a", "a$", "\\bab\\b", "[^x]{3}", "a*", "(a|ab)(c|bcd)",
+            "a(?=\\n)", "(?<=\\n)b", "c\\R", "[a-c]+", "abc\\s*\\n\\s*cab", "(?s).{300}"
+        )
+        val literals = listOf("a", "ab", "ba\nc", "c\r\na", "A B")
+        repeat(3) {
+            val textString = generateText(random, 400_000 + random.nextInt(400_000), "abc  ")
+            val text = Content(textString)
+            for (regex in regexes) {
+                for (caseInsensitive in listOf(false, true)) {
+                    val options = EditorSearcher.SearchOptions(EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION, caseInsensitive)
+                    assertThat(search(text, regex, options, random.nextInt(text.lineCount)))
+                        .isEqualTo(searchSequentially(textString, regex, options))
+                }
+            }
+            for (literal in literals) {
+                for (type in listOf(EditorSearcher.SearchOptions.TYPE_NORMAL, EditorSearcher.SearchOptions.TYPE_WHOLE_WORD)) {
+                    val options = EditorSearcher.SearchOptions(type, true)
+                    assertThat(search(text, literal, options, random.nextInt(text.lineCount)))
+                        .isEqualTo(searchSequentially(textString, literal, options))
+                }
+            }
+        }
+    }
+
+    @Test
+    fun testLineLocalRegex() {
+        assertThat(ParallelSearchTask.isLineLocalRegex("[a-z]+\\d*")).isTrue()
+        assertThat(ParallelSearchTask.isLineLocalRegex("(?i)\\bword\\b")).isTrue()
+        assertThat(ParallelSearchTask.isLineLocalRegex("a\\sb")).isFalse()
+        assertThat(ParallelSearchTask.isLineLocalRegex("[^x]")).isFalse()
+        assertThat(ParallelSearchTask.isLineLocalRegex("(?s)a.b")).isFalse()
+        assertThat(ParallelSearchTask.isLineLocalRegex("[\\t-z]")).isFalse()
+    }
+
+}
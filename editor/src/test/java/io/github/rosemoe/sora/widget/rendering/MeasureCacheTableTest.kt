@@ -0,0 +1,130 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget.rendering
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class MeasureCacheTableTest {
+
+    @Test
+    fun `test lookup and line shifting`() {
+        val table = MeasureCacheTable(Long.MAX_VALUE)
+        val std = mutableMapOf<Int, MeasureCacheItem>()
+        val random = Random(0)
+        repeat(5000) {
+            val line = random.nextInt(500)
+            when (random.nextInt(6)) {
+                0, 1, 2 -> {
+                    val item = table.get(line)
+                    assertThat(item).isSameInstanceAs(std[line])
+                    if (item == null) {
+                        MeasureCacheItem(line, null, 0L).also {
+                            table.put(it)
+                            std[line] = it
+                        }
+                    }
+                }
+
+                3, 4 -> {
+                    val count = random.nextInt(1, 5)
+                    val expected = std.entries.associate { (key, value) ->
+                        (if (key > line) key + count else key) to value
+                    }
+                    table.shiftLines(line, count)
+                    std.clear()
+                    std.putAll(expected)
+                }
+
+                else -> {
+                    val endLine = line + random.nextInt(5)
+                    val expected = std.entries.filter { it.key !in line..endLine }.associate { (key, value) ->
+                        (if (key > endLine) key - (endLine - line) else key) to value
+                    }
+                    table.removeLines(line, endLine)
+                    std.clear()
+                    std.putAll(expected)
+                }
+            }
+            assertThat(table.size()).isEqualTo(std.size)
+            std.forEach { (key, value) ->
+                assertThat(value.line).isEqualTo(key)
+            }
+        }
+        std.forEach { (key, value) ->
+            assertThat(table.get(key)).isSameInstanceAs(value)
+        }
+    }
+
+    @Test
+    fun `test line shifting with evicted items`() {
+        val itemBytes = MeasureCacheTable.ENTRY_OVERHEAD_BYTES
+        val table = MeasureCacheTable(itemBytes * 10L)
+        repeat(20) {
+            table.put(MeasureCacheItem(it * 2, null, 0L))
+        }
+        // Items of line 20 to 38 are kept
+        table.shiftLines(25, 3)
+        table.removeLines(20, 22)
+        assertThat(table.size()).isEqualTo(8)
+        assertThat(table.get(20)).isNull()
+        assertThat(table.get(22)?.line).isEqualTo(22)
+        assertThat(table.get(24)).isNull()
+        assertThat(table.get(27)?.line).isEqualTo(27)
+        assertThat(table.get(39)?.line).isEqualTo(39)
+        // Evict items after shifting, and make sure they are no longer found
+        repeat(10) {
+            table.put(MeasureCacheItem(100 + it, null, 0L))
+        }
+        assertThat(table.size()).isEqualTo(10)
+        table.shiftLines(0, 1)
+        assertThat(table.get(23)).isNull()
+        assertThat(table.get(28)).isNull()
+        repeat(10) {
+            assertThat(table.get(101 + it)?.line).isEqualTo(101 + it)
+        }
+    }
+
+    @Test
+    fun `test memory budget`() {
+        val itemBytes = MeasureCacheTable.ENTRY_OVERHEAD_BYTES + 100 * 4
+        val table = MeasureCacheTable(itemBytes * 10L)
+        repeat(20) {
+            table.put(MeasureCacheItem(it, FloatArray(100), 0L))
+        }
+        assertThat(table.size()).isEqualTo(10)
+        assertThat(table.usedBytes).isEqualTo(itemBytes * 10L)
+        // Least recently used items are discarded
+        assertThat(table.get(9)).isNull()
+        assertThat(table.get(10)).isNotNull()
+        table.put(MeasureCacheItem(20, FloatArray(100), 0L))
+        assertThat(table.get(11)).isNull()
+        assertThat(table.get(10)).isNotNull()
+        assertThat(table.hitCount).isEqualTo(2)
+        assertThat(table.missCount).isEqualTo(2)
+    }
+
+}
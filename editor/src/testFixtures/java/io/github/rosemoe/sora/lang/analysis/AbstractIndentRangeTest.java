@@ -0,0 +1,187 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import io.github.rosemoe.sora.lang.styling.BlocksUpdater;
+import io.github.rosemoe.sora.lang.styling.CodeBlock;
+import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.util.IntPair;
+
+/**
+ * Tests for languages that fold code blocks by indentation, and update them incrementally for
+ * changed lines. Blocks updated after random edits are compared with blocks computed for the whole
+ * text.
+ * <p>
+ * Subclasses compute blocks in the same way as their analyzers, with indentation of
+ * {@link #TAB_SIZE} and without folding markers.
+ *
+ * @author Rosemoe
+ */
+public abstract class AbstractIndentRangeTest {
+
+    protected final static int TAB_SIZE = 4;
+
+    /**
+     * Compute blocks starting in lines from startLine to endLine
+     */
+    protected abstract List<CodeBlock> computeBlocks(Content text, int startLine, int endLine, boolean offSide);
+
+    /**
+     * Compute the lines whose blocks must be computed again after lines from startLine to endLine
+     * are changed
+     *
+     * @return The range packed by {@link IntPair#pack(int, int)}
+     */
+    protected abstract long computeUpdateRange(Content text, int startLine, int endLine);
+
+    private List<CodeBlock> computeSortedBlocks(Content text, int startLine, int endLine, boolean offSide) {
+        var blocks = new ArrayList<>(computeBlocks(text, startLine, endLine, offSide));
+        blocks.sort(CodeBlock.COMPARATOR_END);
+        return blocks;
+    }
+
+    private static List<List<Integer>> normalized(List<CodeBlock> blocks) {
+        var result = new ArrayList<List<Integer>>();
+        for (var block : blocks) {
+            result.add(Arrays.asList(block.startLine, block.endLine, block.startColumn));
+        }
+        result.sort(Comparator.<List<Integer>>comparingInt(it -> it.get(0)).thenComparingInt(it -> it.get(1)));
+        return result;
+    }
+
+    private static String repeat(char ch, int count) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(ch);
+        }
+        return sb.toString();
+    }
+
+    private static String randomLines(Random random, int count) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append('\n');
+            }
+            switch (random.nextInt(5)) {
+                // Blank lines, which are associated to previous blocks in off-side languages
+                case 0 -> sb.append(repeat(' ', random.nextInt(6)));
+                case 1 -> sb.append('\t').append("tab");
+                default -> sb.append(repeat(' ', random.nextInt(4) * 2)).append("line");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Pick lines at the start or end of text more often
+     */
+    private static int randomLine(Random random, int lineCount) {
+        return switch (random.nextInt(5)) {
+            case 0 -> 0;
+            case 1 -> lineCount - 1;
+            default -> random.nextInt(lineCount);
+        };
+    }
+
+    private void testRandomEdits(boolean offSide, long seed) {
+        var random = new Random(seed);
+        var text = new Content(randomLines(random, 40));
+        var blocks = computeSortedBlocks(text, 0, text.getLineCount() - 1, offSide);
+        for (int round = 0; round < 500; round++) {
+            int startLine = randomLine(random, text.getLineCount());
+            int changedEnd;
+            if (random.nextBoolean() || text.getLineCount() < 5) {
+                int column = random.nextInt(text.getColumnCount(startLine) + 1);
+                int lineCount = text.getLineCount();
+                text.insert(startLine, column, repeat('\n', random.nextInt(3)) + randomLines(random, 1 + random.nextInt(2)));
+                int endLine = startLine + text.getLineCount() - lineCount;
+                // Same as AsyncIncrementalAnalyzeManager
+                BlocksUpdater.update(blocks, startLine + 1, endLine - startLine);
+                changedEnd = endLine;
+            } else {
+                int endLine = Math.min(startLine + random.nextInt(4), text.getLineCount() - 1);
+                int startColumn = random.nextInt(text.getColumnCount(startLine) + 1);
+                int endColumn;
+                if (startLine == endLine) {
+                    endColumn = startColumn + random.nextInt(text.getColumnCount(endLine) - startColumn + 1);
+                } else {
+                    endColumn = random.nextInt(text.getColumnCount(endLine) + 1);
+                }
+                text.delete(startLine, startColumn, endLine, endColumn);
+                BlocksUpdater.updateOnDelete(blocks, startLine, endLine);
+                changedEnd = startLine;
+            }
+            long range = computeUpdateRange(text, startLine, changedEnd);
+            int rangeStart = IntPair.getFirst(range);
+            int rangeEnd = IntPair.getSecond(range);
+            assertTrue(rangeStart <= startLine && rangeEnd >= changedEnd);
+            BlocksUpdater.replace(blocks, rangeStart, rangeEnd, computeSortedBlocks(text, rangeStart, rangeEnd, offSide));
+
+            assertEquals(normalized(computeSortedBlocks(text, 0, text.getLineCount() - 1, offSide)), normalized(blocks));
+            for (int i = 1; i < blocks.size(); i++) {
+                assertTrue(CodeBlock.COMPARATOR_END.compare(blocks.get(i - 1), blocks.get(i)) <= 0);
+            }
+        }
+    }
+
+    @Test
+    public void testUpdateRangeForRandomEdits() {
+        for (int seed = 0; seed < 10; seed++) {
+            testRandomEdits(false, seed);
+        }
+    }
+
+    @Test
+    public void testUpdateRangeForRandomEditsInOffSideLanguage() {
+        for (int seed = 0; seed < 10; seed++) {
+            testRandomEdits(true, seed);
+        }
+    }
+
+    @Test
+    public void testUpdateRangeAtDocumentStartAndEnd() {
+        var text = new Content("a\n    b\n\n    c\nd\n    e\n");
+        // Line 4 is a boundary, and the last line is blank
+        assertEquals(IntPair.pack(0, 3), computeUpdateRange(text, 0, 0));
+        assertEquals(IntPair.pack(0, 3), computeUpdateRange(text, 2, 2));
+        assertEquals(IntPair.pack(4, 6), computeUpdateRange(text, 6, 6));
+        assertEquals(IntPair.pack(4, 6), computeUpdateRange(text, 5, 6));
+        assertEquals(Arrays.asList(Arrays.asList(0, 3, 0), Arrays.asList(4, 5, 0)),
+                normalized(computeBlocks(text, 0, text.getLineCount() - 1, true)));
+        assertEquals(Arrays.asList(Arrays.asList(4, 5, 0)), normalized(computeBlocks(text, 4, 6, true)));
+    }
+
+}
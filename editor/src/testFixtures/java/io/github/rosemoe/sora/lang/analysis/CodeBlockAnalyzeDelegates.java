@@ -0,0 +1,83 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.lang.analysis;
+
+import java.util.List;
+
+import io.github.rosemoe.sora.lang.styling.CodeBlock;
+import io.github.rosemoe.sora.lang.styling.Span;
+import io.github.rosemoe.sora.text.Content;
+
+/**
+ * Create {@link AsyncIncrementalAnalyzeManager.CodeBlockAnalyzeDelegate} for calling code block
+ * analysis of languages directly in tests
+ *
+ * @author Rosemoe
+ */
+public final class CodeBlockAnalyzeDelegates {
+
+    private final static AsyncIncrementalAnalyzeManager<Object, Object> OWNER = new OwnerManager();
+
+    private CodeBlockAnalyzeDelegates() {
+    }
+
+    /**
+     * Create a delegate that is never cancelled
+     */
+    public static AsyncIncrementalAnalyzeManager<?, ?>.CodeBlockAnalyzeDelegate neverCancelled() {
+        return OWNER.new CodeBlockAnalyzeDelegate();
+    }
+
+    /**
+     * Only the owner of delegates, never started
+     */
+    private final static class OwnerManager extends AsyncIncrementalAnalyzeManager<Object, Object> {
+
+        @Override
+        public Object getInitialState() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean stateEquals(Object state, Object another) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public LineTokenizeResult<Object, Object> tokenizeLine(CharSequence line, Object state, int lineIndex) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Span> generateSpansForLine(LineTokenizeResult<Object, Object> tokens) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<CodeBlock> computeBlocks(Content text, CodeBlockAnalyzeDelegate delegate) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -52,6 +52,11 @@ public class JavaIncrementalAnalyzeManager extends AsyncIncrementalAnalyzeManage
     private final ThreadLocal<JavaTextTokenizer> tokenizerProvider = new ThreadLocal<>();
     protected IdentifierAutoComplete.SyncIdentifiers identifiers = new IdentifierAutoComplete.SyncIdentifiers();
 
+    public JavaIncrementalAnalyzeManager() {
+        // Tokenizers are thread-local, so large files can be tokenized in parallel
+        setParallelTokenizationEnabled(true);
+    }
+
     private synchronized JavaTextTokenizer obtainTokenizer() {
         var res = tokenizerProvider.get();
         if (res == null) {
@@ -60,7 +60,10 @@ dependencies {
 
     implementation(libs.moshi)
 
+    testImplementation(projects.editor)
+    testImplementation(testFixtures(projects.editor))
     testImplementation(libs.junit)
+    testImplementation(libs.tests.robolectric)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
 }
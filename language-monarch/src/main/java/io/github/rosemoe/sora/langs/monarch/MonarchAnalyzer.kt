@@ -38,6 +38,7 @@ import io.github.rosemoe.sora.lang.analysis.IncrementalAnalyzeManager.LineTokeni
 import io.github.rosemoe.sora.lang.brackets.BracketsProvider
 import io.github.rosemoe.sora.lang.brackets.OnlineBracketsMatcher
 import io.github.rosemoe.sora.lang.completion.IdentifierAutoComplete.SyncIdentifiers
+import io.github.rosemoe.sora.lang.styling.BlocksUpdater
 import io.github.rosemoe.sora.lang.styling.CodeBlock
 import io.github.rosemoe.sora.lang.styling.Span
 import io.github.rosemoe.sora.lang.styling.SpanFactory
@@ -138,7 +139,7 @@ class MonarchAnalyzer(
         delegate: CodeBlockAnalyzeDelegate
     ): MutableList<CodeBlock> {
         val list = ArrayList<CodeBlock>()
-        analyzeCodeBlocks(text, list, delegate)
+        analyzeCodeBlocks(text, 0, text.lineCount - 1, list, delegate)
         if (delegate.isNotCancelled) {
             withReceiver {
                 it.updateBracketProvider(
@@ -150,8 +151,41 @@ class MonarchAnalyzer(
         return list
     }
 
+    override fun updateBlocks(
+        text: Content,
+        blocks: MutableList<CodeBlock>,
+        startLine: Int,
+        endLine: Int,
+        delegate: CodeBlockAnalyzeDelegate
+    ): Boolean {
+        if (cachedFoldingRegExp == null) {
+            return false
+        }
+        // Folding markers can be paired across the range
+        val range = IndentRange.computeUpdateRange(this, text.lineCount, startLine, endLine) ?: return false
+        val rangeStart = range.first
+        val rangeEnd = range.last
+        val list = ArrayList<CodeBlock>()
+        analyzeCodeBlocks(text, rangeStart, rangeEnd, list, delegate)
+        if (delegate.isNotCancelled) {
+            BlocksUpdater.replace(blocks, rangeStart, rangeEnd, list)
+            withReceiver {
+                it.updateBracketProvider(
+                    this,
+                    bracketsProvider
+                )
+            }
+        }
+        return true
+    }
+
+    /**
+     * Analyze code blocks starting in lines [startLine, endLine]
+     */
     private fun analyzeCodeBlocks(
         model: Content,
+        startLine: Int,
+        endLine: Int,
         blocks: ArrayList<CodeBlock>,
         delegate: CodeBlockAnalyzeDelegate
     ) {
@@ -159,7 +193,7 @@ class MonarchAnalyzer(
 
         runCatching {
             val foldingRegions = IndentRange.computeRanges(
-                model, language.tabSize, foldingOffside,
+                model, startLine, endLine, language.tabSize, foldingOffside,
                 this, cachedFoldingRegExp, delegate
             )
             blocks.ensureCapacity(foldingRegions.length)
@@ -95,13 +95,34 @@ object IndentRange {
         helper: FoldingHelper,
         pattern: Regex?,
         delegate: AsyncIncrementalAnalyzeManager<*, *>.CodeBlockAnalyzeDelegate
+    ): FoldingRegions {
+        return computeRanges(model, 0, model.lineCount - 1, tabSize, offSide, helper, pattern, delegate)
+    }
+
+    /**
+     * Compute ranges starting in lines [startLine, endLine].
+     *
+     * The result is the same as the ranges computed for the whole text, only if line `endLine + 1`
+     * is the end of text or [isBoundaryLine], and there is no folding marker in the lines.
+     */
+    fun computeRanges(
+        model: Content,
+        startLine: Int,
+        endLine: Int,
+        tabSize: Int,
+        offSide: Boolean,
+        helper: FoldingHelper,
+        pattern: Regex?,
+        delegate: AsyncIncrementalAnalyzeManager<*, *>.CodeBlockAnalyzeDelegate
     ): FoldingRegions {
         val result = RangesCollector(/*tabSize*/)
+        // Boundary line is treated as the sentinel
+        val sentinelLine = if (endLine == model.lineCount - 1) model.lineCount + 1 else endLine + 1
         val previousRegions = mutableListOf<PreviousRegion>().apply {
-            add(PreviousRegion(-1, model.getLineCount() + 1, model.getLineCount() + 1))
+            add(PreviousRegion(-1, sentinelLine, sentinelLine))
         }
 
-        for (line in model.lineCount - 1 downTo 0) {
+        for (line in endLine downTo startLine) {
             if (delegate.isCancelled) break
             val indent = helper.getIndentFor(line) // computeIndentLevel(model.getLine(line).getBackingCharArray(), model.getColumnCount(line), tabSize)
             var previous = previousRegions.last()
@@ -171,4 +192,40 @@ object IndentRange {
         }
         return result.toIndentRanges(model)
     }
+
+    /**
+     * Check whether the line is a boundary of ranges: the line has no indent, and is not a folding
+     * marker. Ranges starting before a boundary line always end before it, and ranges starting after
+     * it are not affected by lines before it.
+     */
+    fun isBoundaryLine(helper: FoldingHelper, line: Int): Boolean {
+        return helper.getIndentFor(line) == 0 && helper.getResultFor(line) == null
+    }
+
+    /**
+     * Compute lines whose ranges should be recomputed, when lines in [startLine, endLine] are
+     * changed. The lines are expanded to [isBoundaryLine], so ranges starting in the result lines
+     * always end in them, and ranges outside are not affected.
+     *
+     * @return The lines, or null if there are folding markers in the lines, which can be paired with
+     * markers outside
+     */
+    fun computeUpdateRange(helper: FoldingHelper, lineCount: Int, startLine: Int, endLine: Int): IntRange? {
+        var rangeStart = startLine - 1
+        while (rangeStart > 0 && !isBoundaryLine(helper, rangeStart)) {
+            rangeStart--
+        }
+        rangeStart = rangeStart.coerceAtLeast(0)
+        var rangeEnd = endLine + 1
+        while (rangeEnd < lineCount && !isBoundaryLine(helper, rangeEnd)) {
+            rangeEnd++
+        }
+        rangeEnd--
+        for (line in rangeStart..rangeEnd) {
+            if (helper.getResultFor(line) != null) {
+                return null
+            }
+        }
+        return rangeStart..rangeEnd
+    }
 }
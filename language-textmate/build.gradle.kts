@@ -66,7 +66,10 @@ dependencies {
     implementation(libs.snakeyaml.engine)
     implementation(libs.jdt.annotation)
 
+    testImplementation(projects.editor)
+    testImplementation(testFixtures(projects.editor))
     testImplementation(libs.junit)
+    testImplementation(libs.tests.robolectric)
     androidTestImplementation(libs.androidx.test.junit)
     androidTestImplementation(libs.androidx.test.espresso)
 }
@@ -48,6 +48,7 @@ import io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager;
 import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
 import io.github.rosemoe.sora.lang.brackets.OnlineBracketsMatcher;
 import io.github.rosemoe.sora.lang.completion.IdentifierAutoComplete;
+import io.github.rosemoe.sora.lang.styling.BlocksUpdater;
 import io.github.rosemoe.sora.lang.styling.CodeBlock;
 import io.github.rosemoe.sora.lang.styling.Span;
 import io.github.rosemoe.sora.lang.styling.SpanFactory;
@@ -61,6 +62,7 @@ import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentLine;
 import io.github.rosemoe.sora.text.ContentReference;
 import io.github.rosemoe.sora.util.ArrayList;
+import io.github.rosemoe.sora.util.IntPair;
 import io.github.rosemoe.sora.util.MyCharacter;
 import io.github.rosemoe.sora.widget.schemes.EditorColorScheme;
 
@@ -171,12 +173,40 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
         return list;
     }
 
+    @Override
+    public boolean updateBlocks(Content text, List<CodeBlock> blocks, int startLine, int endLine, CodeBlockAnalyzeDelegate delegate) {
+        if (cachedRegExp == null) {
+            return false;
+        }
+        var range = IndentRange.computeUpdateRange(this, text.getLineCount(), startLine, endLine);
+        if (range == -1) {
+            // Folding markers can be paired across the range
+            return false;
+        }
+        int rangeStart = IntPair.getFirst(range);
+        int rangeEnd = IntPair.getSecond(range);
+        var list = new ArrayList<CodeBlock>();
+        analyzeCodeBlocks(text, rangeStart, rangeEnd, list, delegate);
+        if (delegate.isNotCancelled()) {
+            BlocksUpdater.replace(blocks, rangeStart, rangeEnd, list);
+            withReceiver(r -> r.updateBracketProvider(this, bracketsProvider));
+        }
+        return true;
+    }
+
     public void analyzeCodeBlocks(Content model, ArrayList<CodeBlock> blocks, CodeBlockAnalyzeDelegate delegate) {
+        analyzeCodeBlocks(model, 0, model.getLineCount() - 1, blocks, delegate);
+    }
+
+    /**
+     * Analyze code blocks starting in lines [startLine, endLine]
+     */
+    public void analyzeCodeBlocks(Content model, int startLine, int endLine, ArrayList<CodeBlock> blocks, CodeBlockAnalyzeDelegate delegate) {
         if (cachedRegExp == null) {
             return;
         }
         try {
-            var foldingRegions = IndentRange.computeRanges(model, language.getTabSize(), foldingOffside, this, cachedRegExp, delegate);
+            var foldingRegions = IndentRange.computeRanges(model, startLine, endLine, language.getTabSize(), foldingOffside, this, cachedRegExp, delegate);
             blocks.ensureCapacity(foldingRegions.length());
             for (int i = 0; i < foldingRegions.length() && delegate.isNotCancelled(); i++) {
                 int startLine = foldingRegions.getStartLineNumber(i);
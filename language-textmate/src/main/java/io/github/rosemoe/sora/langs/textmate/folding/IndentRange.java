@@ -28,6 +28,7 @@ import java.util.List;
 
 import io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager;
 import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.util.IntPair;
 
 import org.eclipse.tm4e.core.internal.oniguruma.OnigRegExp;
 import org.eclipse.tm4e.core.internal.oniguruma.OnigResult;
@@ -96,15 +97,27 @@ public class IndentRange {
     }
 
     public static FoldingRegions computeRanges(Content model, int tabSize, boolean offSide, FoldingHelper helper, OnigRegExp pattern, AsyncIncrementalAnalyzeManager<?, ?>.CodeBlockAnalyzeDelegate delegate) throws Exception {
+        return computeRanges(model, 0, model.getLineCount() - 1, tabSize, offSide, helper, pattern, delegate);
+    }
+
+    /**
+     * Compute ranges starting in lines [startLine, endLine].
+     * <p>
+     * The result is the same as the ranges computed for the whole text, only if line {@code endLine + 1}
+     * is the end of text or {@link #isBoundaryLine(FoldingHelper, int)}, and there is no folding
+     * marker in the lines.
+     */
+    public static FoldingRegions computeRanges(Content model, int startLine, int endLine, int tabSize, boolean offSide, FoldingHelper helper, OnigRegExp pattern, AsyncIncrementalAnalyzeManager<?, ?>.CodeBlockAnalyzeDelegate delegate) throws Exception {
 
         RangesCollector result = new RangesCollector(/*tabSize*/);
 
         List<PreviousRegion> previousRegions = new ArrayList<>();
-        int line = model.getLineCount() + 1;
+        // Boundary line is treated as the sentinel
+        int line = endLine == model.getLineCount() - 1 ? model.getLineCount() + 1 : endLine + 1;
         // sentinel, to make sure there's at least one entry
         previousRegions.add(new PreviousRegion(-1, line, line));
 
-        for (line = model.getLineCount() - 1; line >= 0 && delegate.isNotCancelled(); line--) {
+        for (line = endLine; line >= startLine && delegate.isNotCancelled(); line--) {
             int indent = helper.getIndentFor(line);//computeIndentLevel(model.getLine(line).getBackingCharArray(), model.getColumnCount(line), tabSize);
             PreviousRegion previous = previousRegions.get(previousRegions.size() - 1);
             if (indent == -1) {
@@ -165,4 +178,40 @@ public class IndentRange {
         }
         return result.toIndentRanges(model);
     }
+
+    /**
+     * Check whether the line is a boundary of ranges: the line has no indent, and is not a folding
+     * marker. Ranges starting before a boundary line always end before it, and ranges starting after
+     * it are not affected by lines before it.
+     */
+    public static boolean isBoundaryLine(FoldingHelper helper, int line) {
+        return helper.getIndentFor(line) == 0 && helper.getResultFor(line) == null;
+    }
+
+    /**
+     * Compute lines whose ranges should be recomputed, when lines in [startLine, endLine] are
+     * changed. The lines are expanded to {@link #isBoundaryLine(FoldingHelper, int)}, so ranges
+     * starting in the result lines always end in them, and ranges outside are not affected.
+     *
+     * @return Start and end line packed by {@link IntPair}, or -1 if there are folding markers in
+     * the result lines, which can be paired with markers outside
+     */
+    public static long computeUpdateRange(FoldingHelper helper, int lineCount, int startLine, int endLine) {
+        int rangeStart = startLine - 1;
+        while (rangeStart > 0 && !isBoundaryLine(helper, rangeStart)) {
+            rangeStart--;
+        }
+        rangeStart = Math.max(rangeStart, 0);
+        int rangeEnd = endLine + 1;
+        while (rangeEnd < lineCount && !isBoundaryLine(helper, rangeEnd)) {
+            rangeEnd++;
+        }
+        rangeEnd--;
+        for (int i = rangeStart; i <= rangeEnd; i++) {
+            if (helper.getResultFor(i) != null) {
+                return -1;
+            }
+        }
+        return IntPair.pack(rangeStart, rangeEnd);
+    }
 }
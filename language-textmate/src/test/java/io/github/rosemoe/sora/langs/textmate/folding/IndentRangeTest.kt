@@ -0,0 +1,87 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.langs.textmate.folding
+
+import io.github.rosemoe.sora.lang.analysis.AbstractIndentRangeTest
+import io.github.rosemoe.sora.lang.analysis.CodeBlockAnalyzeDelegates
+import io.github.rosemoe.sora.lang.styling.CodeBlock
+import io.github.rosemoe.sora.text.Content
+import org.eclipse.tm4e.core.internal.oniguruma.OnigResult
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class IndentRangeTest : AbstractIndentRangeTest() {
+
+    private val delegate = CodeBlockAnalyzeDelegates.neverCancelled()
+
+    /**
+     * Compute indent from text directly, without folding markers
+     */
+    private class TextFoldingHelper(private val text: Content) : FoldingHelper {
+
+        override fun getResultFor(line: Int): OnigResult? = null
+
+        override fun getIndentFor(line: Int): Int {
+            return IndentRange.computeIndentLevel(
+                text.getLine(line).backingCharArray,
+                text.getColumnCount(line),
+                TAB_SIZE
+            )
+        }
+    }
+
+    /**
+     * Compute blocks in the same way as TextMateAnalyzer
+     */
+    override fun computeBlocks(text: Content, startLine: Int, endLine: Int, offSide: Boolean): List<CodeBlock> {
+        val regions = IndentRange.computeRanges(
+            text, startLine, endLine, TAB_SIZE, offSide, TextFoldingHelper(text), null, delegate
+        )
+        val blocks = ArrayList<CodeBlock>()
+        for (i in 0 until regions.length()) {
+            val blockStart = regions.getStartLineNumber(i)
+            val blockEnd = regions.getEndLineNumber(i)
+            if (blockStart != blockEnd) {
+                blocks.add(CodeBlock().also {
+                    it.startLine = blockStart
+                    it.endLine = blockEnd
+                    it.startColumn = IndentRange.computeStartColumn(
+                        text.getLine(blockStart).backingCharArray,
+                        text.getColumnCount(blockStart),
+                        TAB_SIZE
+                    )
+                    it.endColumn = it.startColumn
+                })
+            }
+        }
+        return blocks
+    }
+
+    override fun computeUpdateRange(text: Content, startLine: Int, endLine: Int): Long {
+        return IndentRange.computeUpdateRange(TextFoldingHelper(text), text.lineCount, startLine, endLine)
+    }
+
+}
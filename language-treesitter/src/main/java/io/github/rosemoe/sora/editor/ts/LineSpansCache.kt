@@ -0,0 +1,294 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+import io.github.rosemoe.sora.lang.styling.Span
+
+/**
+ * LRU cache of spans, keyed by line index.
+ *
+ * Entries are stored in parallel arrays and indexed by a chained hash table, so lookups do not
+ * box line indices or scan the entries. Line keys can be shifted in place when lines are inserted
+ * or deleted, so entries of unaffected lines survive edits.
+ *
+ * Recently evicted lines are remembered, so that callers can detect a cache that is too small for
+ * the lines being read.
+ *
+ * This class is not thread-safe.
+ *
+ * @author Rosemoe
+ */
+internal class LineSpansCache(capacity: Int) {
+
+    companion object {
+        private const val NONE = -1
+        private const val EVICTED_HISTORY_SIZE = 64
+    }
+
+    /**
+     * Max count of cached lines. Least recently used lines are evicted when it is exceeded.
+     */
+    var capacity = capacity
+        set(value) {
+            require(value > 0) { "capacity must be positive" }
+            if (field != value) {
+                field = value
+                while (size > value) {
+                    evict()
+                }
+                reallocate(value)
+            }
+        }
+
+    /**
+     * Count of cached lines
+     */
+    var size = 0
+        private set
+
+    private var keys = IntArray(0)
+    private var values = arrayOfNulls<MutableList<Span>>(0)
+    private var prev = IntArray(0)
+    private var next = IntArray(0)
+    private var chain = IntArray(0)
+    private var buckets = IntArray(0)
+    private var freeNodes = IntArray(0)
+    private var freeCount = 0
+    private var head = NONE
+    private var tail = NONE
+
+    private val evictedLines = IntArray(EVICTED_HISTORY_SIZE).also { it.fill(NONE) }
+    private var evictedPos = 0
+
+    init {
+        require(capacity > 0) { "capacity must be positive" }
+        reallocate(capacity)
+    }
+
+    /**
+     * Get spans of the given line, and mark it as the most recently used one
+     */
+    operator fun get(line: Int): MutableList<Span>? {
+        val node = findNode(line)
+        if (node == NONE) {
+            return null
+        }
+        moveToFront(node)
+        return values[node]
+    }
+
+    /**
+     * Check whether the given line is cached, without changing its recency
+     */
+    operator fun contains(line: Int) = findNode(line) != NONE
+
+    /**
+     * Cache spans of the given line, evicting the least recently used line if the cache is full
+     */
+    fun put(line: Int, spans: MutableList<Span>) {
+        var node = findNode(line)
+        if (node != NONE) {
+            values[node] = spans
+            moveToFront(node)
+            return
+        }
+        if (size >= capacity) {
+            evict()
+        }
+        node = freeNodes[--freeCount]
+        keys[node] = line
+        values[node] = spans
+        linkFront(node)
+        val bucket = bucketOf(line)
+        chain[node] = buckets[bucket]
+        buckets[bucket] = node
+        size++
+    }
+
+    /**
+     * Check whether the given line is evicted recently
+     */
+    fun isRecentlyEvicted(line: Int): Boolean {
+        for (evicted in evictedLines) {
+            if (evicted == line) {
+                return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Remove lines in range [[startLine], [endLine]]
+     */
+    fun removeLines(startLine: Int, endLine: Int) {
+        var node = head
+        while (node != NONE) {
+            val following = next[node]
+            if (keys[node] in startLine..endLine) {
+                removeNode(node)
+            }
+            node = following
+        }
+    }
+
+    /**
+     * Add [delta] to the index of lines that are at or after [fromLine]
+     */
+    fun shiftLines(fromLine: Int, delta: Int) {
+        if (delta == 0 || size == 0) {
+            return
+        }
+        var node = head
+        while (node != NONE) {
+            if (keys[node] >= fromLine) {
+                keys[node] += delta
+            }
+            node = next[node]
+        }
+        rebuildBuckets()
+        // Evicted line indices are no longer meaningful
+        evictedLines.fill(NONE)
+    }
+
+    fun clear() {
+        values.fill(null)
+        buckets.fill(NONE)
+        for (i in freeNodes.indices) {
+            freeNodes[i] = freeNodes.size - 1 - i
+        }
+        freeCount = freeNodes.size
+        head = NONE
+        tail = NONE
+        size = 0
+        evictedLines.fill(NONE)
+    }
+
+    private fun bucketOf(line: Int) = line and (buckets.size - 1)
+
+    private fun findNode(line: Int): Int {
+        var node = buckets[bucketOf(line)]
+        while (node != NONE && keys[node] != line) {
+            node = chain[node]
+        }
+        return node
+    }
+
+    private fun evict() {
+        val node = tail
+        evictedLines[evictedPos] = keys[node]
+        evictedPos = (evictedPos + 1) % EVICTED_HISTORY_SIZE
+        removeNode(node)
+    }
+
+    private fun removeNode(node: Int) {
+        unlink(node)
+        val bucket = bucketOf(keys[node])
+        if (buckets[bucket] == node) {
+            buckets[bucket] = chain[node]
+        } else {
+            var p = buckets[bucket]
+            while (chain[p] != node) {
+                p = chain[p]
+            }
+            chain[p] = chain[node]
+        }
+        values[node] = null
+        freeNodes[freeCount++] = node
+        size--
+    }
+
+    private fun moveToFront(node: Int) {
+        if (head != node) {
+            unlink(node)
+            linkFront(node)
+        }
+    }
+
+    private fun linkFront(node: Int) {
+        prev[node] = NONE
+        next[node] = head
+        if (head != NONE) {
+            prev[head] = node
+        }
+        head = node
+        if (tail == NONE) {
+            tail = node
+        }
+    }
+
+    private fun unlink(node: Int) {
+        val p = prev[node]
+        val n = next[node]
+        if (p != NONE) next[p] = n else head = n
+        if (n != NONE) prev[n] = p else tail = p
+    }
+
+    private fun rebuildBuckets() {
+        buckets.fill(NONE)
+        var node = head
+        while (node != NONE) {
+            val bucket = bucketOf(keys[node])
+            chain[node] = buckets[bucket]
+            buckets[bucket] = node
+            node = next[node]
+        }
+    }
+
+    /**
+     * Move entries to arrays of the given capacity, keeping their order
+     */
+    private fun reallocate(capacity: Int) {
+        val newKeys = IntArray(capacity)
+        val newValues = arrayOfNulls<MutableList<Span>>(capacity)
+        var count = 0
+        var node = head
+        while (node != NONE) {
+            newKeys[count] = keys[node]
+            newValues[count] = values[node]
+            count++
+            node = next[node]
+        }
+        keys = newKeys
+        values = newValues
+        prev = IntArray(capacity)
+        next = IntArray(capacity)
+        chain = IntArray(capacity)
+        for (i in 0 until count) {
+            prev[i] = i - 1
+            next[i] = if (i + 1 < count) i + 1 else NONE
+        }
+        head = if (count > 0) 0 else NONE
+        tail = count - 1
+        freeNodes = IntArray(capacity)
+        freeCount = 0
+        for (i in capacity - 1 downTo count) {
+            freeNodes[freeCount++] = i
+        }
+        // Power of two, and at least twice the capacity
+        buckets = IntArray(Integer.highestOneBit(capacity * 2 - 1) shl 1)
+        rebuildBuckets()
+    }
+
+}
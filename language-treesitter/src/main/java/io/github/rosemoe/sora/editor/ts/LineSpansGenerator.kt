@@ -36,7 +36,8 @@ import io.github.rosemoe.sora.text.Content
 import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
 
 /**
- * Spans generator for tree-sitter. Results are cached.
+ * Spans generator for tree-sitter. Results are cached by line, and cached lines are
+ * shifted on text modifications so that spans of unaffected lines are kept.
  *
  * Note that this implementation does not support external modifications.
  *
@@ -51,111 +52,285 @@ class LineSpansGenerator(
 
     companion object {
         const val CACHE_THRESHOLD = 60
+
+        /**
+         * Max capacity the cache can grow to automatically
+         */
+        const val MAX_CACHE_CAPACITY = 1024
+
+        /**
+         * Ratio of cache capacity to visible line count, see [fitCacheToViewport]
+         */
+        const val VIEWPORT_CACHE_FACTOR = 3
+
+        /**
+         * Count of lines queried ahead when an uncached line is read
+         */
+        const val PREFETCH_LINES = 16
+    }
+
+    private val cache = LineSpansCache(CACHE_THRESHOLD)
+
+    /**
+     * Last line that is read but not cached, used to guess scrolling direction
+     */
+    private var lastMissedLine = -1
+
+    /**
+     * Count of lines whose spans are found in cache
+     */
+    var cacheHits = 0L
+        private set
+
+    /**
+     * Count of lines whose spans are not found in cache, and have to be queried
+     */
+    var cacheMisses = 0L
+        private set
+
+    /**
+     * Max count of lines whose spans are cached.
+     *
+     * The capacity grows automatically when recently evicted lines are read again, up to
+     * [MAX_CACHE_CAPACITY].
+     */
+    var cacheCapacity: Int
+        get() = cache.capacity
+        set(value) {
+            cache.capacity = value
+        }
+
+    /**
+     * Make the cache large enough for [visibleLineCount] lines and some lines around them
+     */
+    fun fitCacheToViewport(visibleLineCount: Int) {
+        val capacity = (visibleLineCount * VIEWPORT_CACHE_FACTOR).coerceIn(CACHE_THRESHOLD, MAX_CACHE_CAPACITY)
+        if (capacity > cache.capacity) {
+            cache.capacity = capacity
+        }
     }
 
-    private val caches = mutableListOf<SpanCache>()
+    fun resetCacheStats() {
+        cacheHits = 0
+        cacheMisses = 0
+    }
+
+    /**
+     * Take over cache capacity and statistics of the previous generator of the same text
+     */
+    internal fun inheritCacheSettings(previous: LineSpansGenerator) {
+        cache.capacity = previous.cache.capacity
+        cacheHits = previous.cacheHits
+        cacheMisses = previous.cacheMisses
+    }
 
     fun queryCache(line: Int): MutableList<Span>? {
-        for (i in 0 until caches.size) {
-            val cache = caches[i]
-            if (cache.line == line) {
-                caches.removeAt(i)
-                caches.add(0, cache)
-                return cache.spans
+        val spans = cache[line]
+        if (spans != null) {
+            cacheHits++
+        } else {
+            cacheMisses++
+            // The cache is too small for lines being read repeatedly
+            if (cache.isRecentlyEvicted(line) && cache.capacity < MAX_CACHE_CAPACITY) {
+                cache.capacity = (cache.capacity * 3 / 2).coerceAtMost(MAX_CACHE_CAPACITY)
             }
         }
-        return null
+        return spans
     }
 
     fun pushCache(line: Int, spans: MutableList<Span>) {
-        while (caches.size >= CACHE_THRESHOLD) {
-            caches.removeAt(caches.size - 1)
-        }
-        caches.add(0, SpanCache(spans, line))
+        cache.put(line, spans)
     }
 
     fun captureRegion(startIndex: Int, endIndex: Int): MutableList<Span> {
-        val list = mutableListOf<Span>()
-        val captures = mutableListOf<TSQueryCapture>()
+        var list = mutableListOf<Span>()
+        safeTree.accessTree { tree ->
+            if (languageSpec.closed || tree.closed) {
+                return@accessTree
+            }
+            list = createLineSpans(queryCaptures(tree, startIndex, endIndex), startIndex, endIndex)
+        }
+        if (list.isEmpty()) {
+            list.add(emptySpan(0))
+        }
+        return list
+    }
+
+    /**
+     * Query spans of lines in range [[startLine], [endLine]] with a single query execution, and
+     * put them into cache.
+     */
+    fun prefetchLines(startLine: Int, endLine: Int) {
+        val first = startLine.coerceAtLeast(0)
+        val last = endLine.coerceAtMost(lineCount - 1)
+        if (first > last) {
+            return
+        }
+        val lineStarts = IntArray(last - first + 1)
+        val lineEnds = IntArray(lineStarts.size)
+        for (i in lineStarts.indices) {
+            lineStarts[i] = content.indexer.getCharPosition(first + i, 0).index
+            lineEnds[i] = lineStarts[i] + content.getColumnCount(first + i)
+        }
+        val results = arrayOfNulls<MutableList<Span>>(lineStarts.size)
+        safeTree.accessTree { tree ->
+            if (languageSpec.closed || tree.closed) {
+                return@accessTree
+            }
+            val captures = queryCaptures(tree, lineStarts[0], lineEnds[lineEnds.size - 1])
+            // Captures are sorted by start, so captures of a line are those that are still
+            // active from previous lines, followed by those starting on the line
+            val active = mutableListOf<TSQueryCapture>()
+            var next = 0
+            for (i in lineStarts.indices) {
+                val lineStart = lineStarts[i]
+                val lineEnd = lineEnds[i]
+                active.removeAll { it.node.endByte / 2 < lineStart }
+                while (next < captures.size && captures[next].node.startByte / 2 < lineEnd) {
+                    active.add(captures[next])
+                    next++
+                }
+                results[i] = createLineSpans(active, lineStart, lineEnd)
+            }
+        }
+        for (i in results.indices) {
+            val spans = results[i] ?: mutableListOf()
+            if (spans.isEmpty()) {
+                spans.add(emptySpan(0))
+            }
+            pushCache(first + i, spans)
+        }
+    }
+
+    /**
+     * Prefetch spans of visible lines and [margin] lines around them, and make the cache large
+     * enough for them
+     */
+    fun prefetchViewport(firstVisibleLine: Int, lastVisibleLine: Int, margin: Int = PREFETCH_LINES) {
+        fitCacheToViewport(lastVisibleLine - firstVisibleLine + 1)
+        val startLine = (firstVisibleLine - margin).coerceAtLeast(0)
+        val endLine = (lastVisibleLine + margin).coerceAtMost(lineCount - 1)
+        for (line in startLine..endLine) {
+            if (line !in cache) {
+                prefetchLines(startLine, endLine)
+                return
+            }
+        }
+    }
+
+    /**
+     * Query an uncached line, together with following lines in the direction of scrolling
+     */
+    private fun prefetchAround(line: Int) {
+        // Do not let prefetched lines evict lines in viewport
+        val count = PREFETCH_LINES.coerceAtMost(cache.capacity / VIEWPORT_CACHE_FACTOR).coerceAtLeast(1)
+        // Stop at lines that are already cached
+        if (lastMissedLine != -1 && line < lastMissedLine) {
+            var start = line
+            while (start > 0 && line - start + 1 < count && (start - 1) !in cache) {
+                start--
+            }
+            prefetchLines(start, line)
+        } else {
+            var end = line
+            while (end < lineCount - 1 && end - line + 1 < count && (end + 1) !in cache) {
+                end++
+            }
+            prefetchLines(line, end)
+        }
+        lastMissedLine = line
+    }
 
+    /**
+     * Run the highlight query on the given region, and get captures matching predicates, sorted
+     * by their start
+     */
+    private fun queryCaptures(
+        tree: SafeTsTree.TreeAccessor,
+        startIndex: Int,
+        endIndex: Int
+    ): List<TSQueryCapture> {
+        val captures = mutableListOf<TSQueryCapture>()
         TSQueryCursor.create().use { cursor ->
             cursor.setByteRange(startIndex * 2, endIndex * 2)
-
-            safeTree.accessTree { tree ->
-                if (languageSpec.closed || tree.closed) {
-                    return@accessTree
+            cursor.exec(languageSpec.tsQuery, tree.rootNode)
+            var match = cursor.nextMatch()
+            while (match != null) {
+                if (languageSpec.queryPredicator.doPredicate(
+                        languageSpec.predicates,
+                        content,
+                        match
+                    )
+                ) {
+                    captures.addAll(match.captures)
                 }
+                match = cursor.nextMatch()
+            }
+        }
+        captures.sortBy { it.node.startByte }
+        return captures
+    }
 
-                cursor.exec(languageSpec.tsQuery, tree.rootNode)
-                var match = cursor.nextMatch()
-                while (match != null) {
-                    if (languageSpec.queryPredicator.doPredicate(
-                            languageSpec.predicates,
-                            content,
-                            match
+    /**
+     * Create spans of region [startIndex, endIndex) from sorted captures
+     */
+    private fun createLineSpans(
+        captures: List<TSQueryCapture>,
+        startIndex: Int,
+        endIndex: Int
+    ): MutableList<Span> {
+        val list = mutableListOf<Span>()
+        var lastIndex = 0
+        captures.forEach { capture ->
+            val startByte = capture.node.startByte
+            val endByte = capture.node.endByte
+            val start = (startByte / 2 - startIndex).coerceAtLeast(0)
+            val pattern = capture.index
+            // Do not add span for overlapping regions and out-of-bounds regions
+            if (start >= lastIndex && endByte / 2 >= startIndex && startByte / 2 < endIndex
+                && (pattern !in languageSpec.localsScopeIndices && pattern !in languageSpec.localsDefinitionIndices
+                        && pattern !in languageSpec.localsDefinitionValueIndices && pattern !in languageSpec.localsMembersScopeIndices)
+            ) {
+                if (start != lastIndex) {
+                    list.addAll(
+                        createSpans(
+                            capture,
+                            lastIndex,
+                            start - 1,
+                            theme.normalTextStyle
                         )
-                    ) {
-                        captures.addAll(match.captures)
-                    }
-                    match = cursor.nextMatch()
+                    )
                 }
-                captures.sortBy { it.node.startByte }
-                var lastIndex = 0
-                captures.forEach { capture ->
-                    val startByte = capture.node.startByte
-                    val endByte = capture.node.endByte
-                    val start = (startByte / 2 - startIndex).coerceAtLeast(0)
-                    val pattern = capture.index
-                    // Do not add span for overlapping regions and out-of-bounds regions
-                    if (start >= lastIndex && endByte / 2 >= startIndex && startByte / 2 < endIndex
-                        && (pattern !in languageSpec.localsScopeIndices && pattern !in languageSpec.localsDefinitionIndices
-                                && pattern !in languageSpec.localsDefinitionValueIndices && pattern !in languageSpec.localsMembersScopeIndices)
-                    ) {
-                        if (start != lastIndex) {
-                            list.addAll(
-                                createSpans(
-                                    capture,
-                                    lastIndex,
-                                    start - 1,
-                                    theme.normalTextStyle
-                                )
-                            )
-                        }
-                        var style = 0L
-                        if (capture.index in languageSpec.localsReferenceIndices) {
-                            val def = scopedVariables.findDefinition(
-                                startByte / 2,
-                                endByte / 2,
-                                content.substring(startByte / 2, endByte / 2)
-                            )
-                            if (def != null && def.matchedHighlightPattern != -1) {
-                                style = theme.resolveStyleForPattern(def.matchedHighlightPattern)
-                            }
-                            // This reference can not be resolved to its definition
-                            // but it can have its own fallback color by other captures
-                            // so continue to next capture
-                            if (style == 0L) {
-                                return@forEach
-                            }
-                        }
-                        if (style == 0L) {
-                            style = theme.resolveStyleForPattern(capture.index)
-                        }
-                        if (style == 0L) {
-                            style = theme.normalTextStyle
-                        }
-                        val end = (endByte / 2 - startIndex).coerceAtMost(endIndex)
-                        list.addAll(createSpans(capture, start, end, style))
-                        lastIndex = end
+                var style = 0L
+                if (capture.index in languageSpec.localsReferenceIndices) {
+                    val def = scopedVariables.findDefinition(
+                        startByte / 2,
+                        endByte / 2,
+                        content.substring(startByte / 2, endByte / 2)
+                    )
+                    if (def != null && def.matchedHighlightPattern != -1) {
+                        style = theme.resolveStyleForPattern(def.matchedHighlightPattern)
                     }
+                    // This reference can not be resolved to its definition
+                    // but it can have its own fallback color by other captures
+                    // so continue to next capture
+                    if (style == 0L) {
+                        return@forEach
+                    }
+                }
+                if (style == 0L) {
+                    style = theme.resolveStyleForPattern(capture.index)
                 }
-                if (lastIndex != endIndex) {
-                    list.add(emptySpan(lastIndex))
+                if (style == 0L) {
+                    style = theme.normalTextStyle
                 }
+                val end = (endByte / 2 - startIndex).coerceAtMost(endIndex)
+                list.addAll(createSpans(capture, start, end, style))
+                lastIndex = end
             }
         }
-        if (list.isEmpty()) {
-            list.add(emptySpan(0))
+        if (lastIndex != endIndex) {
+            list.add(emptySpan(lastIndex))
         }
         return list
     }
@@ -194,11 +369,13 @@ class LineSpansGenerator(
     }
 
     override fun adjustOnInsert(start: CharPosition, end: CharPosition) {
-
+        cache.removeLines(start.line, start.line)
+        cache.shiftLines(start.line + 1, end.line - start.line)
     }
 
     override fun adjustOnDelete(start: CharPosition, end: CharPosition) {
-
+        cache.removeLines(start.line, end.line)
+        cache.shiftLines(end.line + 1, start.line - end.line)
     }
 
     override fun read() = object : Spans.Reader {
@@ -215,10 +392,8 @@ class LineSpansGenerator(
                 spans = cached
                 return
             }
-            val start = content.indexer.getCharPosition(line, 0).index
-            val end = start + content.getColumnCount(line)
-            spans = captureRegion(start, end)
-            pushCache(line, spans)
+            prefetchAround(line)
+            spans = cache[line] ?: mutableListOf<Span>().also { it.add(emptySpan(0)) }
         }
 
         override fun getSpanCount() = spans.size
@@ -245,5 +420,3 @@ class LineSpansGenerator(
 
     override fun getLineCount() = lineCount
 }
-
-data class SpanCache(val spans: MutableList<Span>, val line: Int)
@@ -176,7 +176,8 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
         fun updateStyles() {
             val scopedVariables = TsScopedVariables(tree!!, localText, languageSpec)
             if (thread == this && messageQueue.isEmpty()) {
-                val oldTree = (styles.spans as LineSpansGenerator?)?.safeTree
+                val oldSpans = styles.spans as LineSpansGenerator?
+                val oldTree = oldSpans?.safeTree
                 val newTree = SafeTsTree(tree!!.copy())
                 styles.spans = LineSpansGenerator(
                     newTree,
@@ -186,7 +187,11 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
                     languageSpec,
                     scopedVariables,
                     spanFactory
-                )
+                ).also {
+                    if (oldSpans != null) {
+                        it.inheritCacheSettings(oldSpans)
+                    }
+                }
                 val oldBlocks = styles.blocks
                 updateCodeBlocks()
                 currentReceiver?.setStyles(this@TsAnalyzeManager, styles) {
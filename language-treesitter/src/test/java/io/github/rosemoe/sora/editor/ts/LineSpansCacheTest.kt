@@ -0,0 +1,200 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.editor.ts
+
+import io.github.rosemoe.sora.lang.styling.Span
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class LineSpansCacheTest {
+
+    private fun spans() = mutableListOf<Span>()
+
+    @Test
+    fun `test put get and eviction order`() {
+        val cache = LineSpansCache(3)
+        val line0 = spans()
+        cache.put(0, line0)
+        cache.put(1, spans())
+        cache.put(2, spans())
+        assertEquals(3, cache.size)
+        // Line 0 becomes the most recently used one
+        assertSame(line0, cache[0])
+        cache.put(3, spans())
+        assertNull(cache[1])
+        assertTrue(cache.isRecentlyEvicted(1))
+        assertFalse(cache.isRecentlyEvicted(0))
+        // Checking existence does not change the recency
+        assertTrue(2 in cache)
+        cache.put(4, spans())
+        assertFalse(2 in cache)
+        assertTrue(cache.isRecentlyEvicted(2))
+        // Replacing spans of a cached line makes it the most recently used one
+        val newLine0 = spans()
+        cache.put(0, newLine0)
+        assertEquals(3, cache.size)
+        cache.put(5, spans())
+        assertFalse(3 in cache)
+        assertSame(newLine0, cache[0])
+        assertTrue(4 in cache)
+        assertTrue(5 in cache)
+    }
+
+    @Test
+    fun `test remove and shift lines`() {
+        val cache = LineSpansCache(16)
+        val lines = List(10) { spans() }
+        lines.forEachIndexed { index, spans -> cache.put(index, spans) }
+
+        // Insert 2 lines at line 3
+        cache.removeLines(3, 3)
+        cache.shiftLines(4, 2)
+        assertEquals(9, cache.size)
+        assertSame(lines[2], cache[2])
+        assertNull(cache[3])
+        assertNull(cache[4])
+        assertNull(cache[5])
+        assertSame(lines[4], cache[6])
+        assertSame(lines[9], cache[11])
+
+        // Delete line 1 to line 6, with negative delta
+        cache.removeLines(1, 6)
+        cache.shiftLines(7, -6)
+        assertEquals(6, cache.size)
+        assertSame(lines[0], cache[0])
+        assertSame(lines[5], cache[1])
+        assertSame(lines[9], cache[5])
+        assertNull(cache[6])
+        assertNull(cache[11])
+
+        // Lines can be cached again after shifting
+        val line6 = spans()
+        cache.put(6, line6)
+        assertSame(line6, cache[6])
+        assertEquals(7, cache.size)
+
+        // Evicted line indices are forgotten after shifting
+        val small = LineSpansCache(1)
+        small.put(0, spans())
+        small.put(1, spans())
+        assertTrue(small.isRecentlyEvicted(0))
+        small.shiftLines(0, 1)
+        assertFalse(small.isRecentlyEvicted(0))
+        assertTrue(2 in small)
+    }
+
+    @Test
+    fun `test changing capacity`() {
+        val cache = LineSpansCache(4)
+        val lines = List(4) { spans() }
+        lines.forEachIndexed { index, spans -> cache.put(index, spans) }
+        cache[0]
+
+        // Least recently used lines are evicted when shrinking
+        cache.capacity = 2
+        assertEquals(2, cache.size)
+        assertNull(cache[1])
+        assertNull(cache[2])
+        assertTrue(cache.isRecentlyEvicted(1))
+        assertTrue(cache.isRecentlyEvicted(2))
+        assertSame(lines[3], cache[3])
+        assertSame(lines[0], cache[0])
+
+        // Order is kept after growing
+        cache.capacity = 5
+        assertEquals(2, cache.size)
+        repeat(3) { cache.put(10 + it, spans()) }
+        assertEquals(5, cache.size)
+        cache.put(20, spans())
+        assertFalse(3 in cache)
+        assertSame(lines[0], cache[0])
+        cache.put(21, spans())
+        assertFalse(10 in cache)
+        assertTrue(0 in cache)
+        assertEquals(5, cache.size)
+    }
+
+    @Test
+    fun `test random operations`() {
+        val random = Random(0)
+        val cache = LineSpansCache(8)
+        // Access-ordered map, whose first entry is the least recently used one
+        var std = LinkedHashMap<Int, MutableList<Span>>(16, 0.75f, true)
+        fun trim() {
+            while (std.size > cache.capacity) {
+                std.remove(std.keys.first())
+            }
+        }
+        repeat(20000) {
+            val line = random.nextInt(100)
+            when (random.nextInt(10)) {
+                0, 1, 2 -> assertSame(std[line], cache[line])
+                3, 4, 5 -> {
+                    val spans = spans()
+                    cache.put(line, spans)
+                    std[line] = spans
+                    trim()
+                }
+
+                6 -> {
+                    val count = random.nextInt(1, 5)
+                    cache.removeLines(line, line)
+                    cache.shiftLines(line + 1, count)
+                    std.remove(line)
+                    std = std.entries.associateTo(LinkedHashMap(16, 0.75f, true)) { (key, value) ->
+                        (if (key > line) key + count else key) to value
+                    }
+                }
+
+                7 -> {
+                    val endLine = line + random.nextInt(5)
+                    cache.removeLines(line, endLine)
+                    cache.shiftLines(endLine + 1, line - endLine)
+                    std = std.entries.filter { it.key !in line..endLine }
+                        .associateTo(LinkedHashMap(16, 0.75f, true)) { (key, value) ->
+                            (if (key > endLine) key - (endLine - line) else key) to value
+                        }
+                }
+
+                8 -> assertEquals(std.containsKey(line), line in cache)
+
+                else -> {
+                    cache.capacity = random.nextInt(1, 16)
+                    trim()
+                }
+            }
+            assertEquals(std.size, cache.size)
+        }
+        std.keys.toList().forEach { line ->
+            assertSame(std[line], cache[line])
+        }
+    }
+
+}